@@ -0,0 +1,224 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates counters, gauges and timers keyed by name and dimensions, and summarizes them into a single
+ * analytics event per flush interval. Timers keep a fixed-size log-linear histogram, so percentiles are
+ * available without storing individual samples.
+ */
+final class AnalyticsAggregator {
+
+    static final String COUNTER = "counter";
+    static final String GAUGE = "gauge";
+    static final String TIMER = "timer";
+
+    static final int DEFAULT_MAX_METRICS = 500;
+
+    // 4 sub-buckets for each power of two from 2^0 to 2^31
+    private static final int SUB_BUCKETS = 4;
+    private static final int EXPONENTS = 32;
+    private static final int HISTOGRAM_SIZE = SUB_BUCKETS * EXPONENTS + 1;
+
+    private final int maxMetrics;
+    private final Map<String, Metric> metrics = new HashMap<String, Metric>();
+    private long intervalStart;
+    private long droppedMetrics;
+
+    private static final class Metric {
+        final String type;
+        final String name;
+        final JSONObject dimensions;
+        long count;
+        double sum;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double last;
+        int[] histogram;
+
+        Metric(String type, String name, JSONObject dimensions) {
+            this.type = type;
+            this.name = name;
+            this.dimensions = dimensions;
+            if (TIMER.equals(type)) {
+                histogram = new int[HISTOGRAM_SIZE];
+            }
+        }
+    }
+
+    AnalyticsAggregator(int maxMetrics, long now) {
+        this.maxMetrics = maxMetrics > 0 ? maxMetrics : DEFAULT_MAX_METRICS;
+        this.intervalStart = now;
+    }
+
+    /**
+     * Records one value. Counters add the value, gauges keep the last value, timers add the value to the histogram.
+     *
+     * @return false if the metric was not recorded because maxMetrics distinct keys are already tracked
+     */
+    synchronized boolean record(String type, String name, double value, JSONObject dimensions) {
+        if (!COUNTER.equals(type) && !GAUGE.equals(type) && !TIMER.equals(type)) {
+            throw new IllegalArgumentException("Unknown metric type " + type);
+        }
+
+        String key = key(type, name, dimensions);
+        Metric metric = metrics.get(key);
+        if (metric == null) {
+            if (metrics.size() >= maxMetrics) {
+                droppedMetrics++;
+                return false;
+            }
+            metric = new Metric(type, name, dimensions);
+            metrics.put(key, metric);
+        }
+
+        metric.count++;
+        metric.sum += value;
+        metric.min = Math.min(metric.min, value);
+        metric.max = Math.max(metric.max, value);
+        metric.last = value;
+        if (metric.histogram != null) {
+            metric.histogram[bucketIndex(value)]++;
+        }
+        return true;
+    }
+
+    /**
+     * Summarizes and resets everything recorded since the previous flush
+     *
+     * @return the summary event, or null if nothing was recorded
+     */
+    JSONObject flush(long now) throws JSONException {
+        List<Metric> snapshot;
+        long start;
+        long dropped;
+        synchronized (this) {
+            start = intervalStart;
+            intervalStart = now;
+            dropped = droppedMetrics;
+            droppedMetrics = 0;
+            if (metrics.isEmpty()) {
+                return null;
+            }
+            snapshot = new ArrayList<Metric>(metrics.values());
+            metrics.clear();
+        }
+
+        JSONArray summaries = new JSONArray();
+        for (Metric metric : snapshot) {
+            JSONObject summary = new JSONObject();
+            summary.put("name", metric.name);
+            summary.put("type", metric.type);
+            if (metric.dimensions != null) {
+                summary.put("dimensions", metric.dimensions);
+            }
+            summary.put("count", metric.count);
+            if (COUNTER.equals(metric.type)) {
+                summary.put("value", metric.sum);
+            } else if (GAUGE.equals(metric.type)) {
+                summary.put("value", metric.last);
+                summary.put("min", metric.min);
+                summary.put("max", metric.max);
+            } else {
+                summary.put("sum", metric.sum);
+                summary.put("min", metric.min);
+                summary.put("max", metric.max);
+                summary.put("mean", metric.sum / metric.count);
+                summary.put("p50", percentile(metric, 0.50));
+                summary.put("p90", percentile(metric, 0.90));
+                summary.put("p99", percentile(metric, 0.99));
+            }
+            summaries.put(summary);
+        }
+
+        JSONObject event = new JSONObject();
+        event.put("category", "aggregate");
+        event.put("intervalStart", start);
+        event.put("intervalEnd", now);
+        event.put("metrics", summaries);
+        if (dropped > 0) {
+            event.put("droppedRecords", dropped);
+        }
+        return event;
+    }
+
+    synchronized int size() {
+        return metrics.size();
+    }
+
+    private static String key(String type, String name, JSONObject dimensions) {
+        StringBuilder key = new StringBuilder(type).append('|').append(name);
+        if (dimensions != null && dimensions.length() > 0) {
+            List<String> names = new ArrayList<String>();
+            Iterator<?> keys = dimensions.keys();
+            while (keys.hasNext()) {
+                names.add((String) keys.next());
+            }
+            Collections.sort(names);
+            for (String dimension : names) {
+                key.append('|').append(dimension).append('=').append(dimensions.opt(dimension));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Bucket 0 holds values below 1; bucket 1 + SUB_BUCKETS * e + s holds values in the s-th quarter of [2^e, 2^(e+1))
+     */
+    static int bucketIndex(double value) {
+        if (!(value >= 1)) {
+            return 0;
+        }
+        int exponent = Math.getExponent(value);
+        if (exponent >= EXPONENTS) {
+            return HISTOGRAM_SIZE - 1;
+        }
+        double base = Math.scalb(1.0, exponent);
+        int sub = (int) ((value - base) / base * SUB_BUCKETS);
+        return 1 + exponent * SUB_BUCKETS + Math.min(sub, SUB_BUCKETS - 1);
+    }
+
+    static double bucketMidpoint(int index) {
+        if (index == 0) {
+            return 0.5;
+        }
+        int exponent = (index - 1) / SUB_BUCKETS;
+        int sub = (index - 1) % SUB_BUCKETS;
+        double base = Math.scalb(1.0, exponent);
+        double width = base / SUB_BUCKETS;
+        return base + width * sub + width / 2;
+    }
+
+    private static double percentile(Metric metric, double quantile) {
+        long rank = (long) Math.ceil(quantile * metric.count);
+        long seen = 0;
+        for (int i = 0; i < metric.histogram.length; i++) {
+            seen += metric.histogram[i];
+            if (seen >= rank && metric.histogram[i] > 0) {
+                return Math.max(metric.min, Math.min(metric.max, bucketMidpoint(i)));
+            }
+        }
+        return metric.max;
+    }
+}
@@ -0,0 +1,388 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded, ordered queue of analytics events with a single consumer thread.
+ * Events are written to the sink in the order they were accepted, a chunk at a time.
+ * When the queue is full, new events are dropped so that the order of accepted events is preserved.
+ */
+final class AnalyticsPipeline implements CrashFlushHandler.Flushable, MemoryTrimmer.Trimmable {
+
+    /**
+     * Destination of the events. Called only from the consumer thread, or from a crashing thread.
+     */
+    interface Sink {
+        void log(JSONObject event);
+    }
+
+    static final int DEFAULT_CAPACITY = 2048;
+    static final int DEFAULT_CHUNK_SIZE = 50;
+
+    // Rough heap size of a queued event, a JSONObject with a handful of short members
+    static final int ESTIMATED_EVENT_BYTES = 512;
+
+    // Longest time a memory trim waits for the consumer thread before dropping events
+    static final long TRIM_WAIT_MILLIS = 500;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+
+    private final ArrayDeque<JSONObject> queue;
+    private final JSONObject[] chunk;
+    private final int capacity;
+    private final Sink sink;
+
+    private boolean running;
+    private boolean paused;
+    // System.nanoTime() at which a pause ends by itself, see pauseFor
+    private long resumeAtNanos;
+    private boolean resumeScheduled;
+    // Queue size, republished after each change under the lock so the crash path can count the events it cannot flush
+    private volatile int depth;
+    // Events of the consumer's current chunk not yet written to the sink
+    private volatile int inFlight;
+    private Thread consumerThread;
+
+    private long acceptedCount;
+    private long loggedCount;
+    private long droppedCount;
+
+    AnalyticsPipeline(int capacity, int chunkSize, Sink sink) {
+        this.capacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+        this.queue = new ArrayDeque<JSONObject>(Math.min(this.capacity, 256));
+        this.chunk = new JSONObject[chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE];
+        this.sink = sink;
+    }
+
+    void start() {
+        lock.lock();
+        try {
+            if (running) {
+                return;
+            }
+            running = true;
+            consumerThread = new Thread(new Runnable() {
+                public void run() {
+                    consumeLoop();
+                }
+            }, "CDVBMSAnalytics-pipeline");
+            consumerThread.setDaemon(true);
+            consumerThread.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * While paused, events are accepted and buffered but not written to the sink.
+     * Resuming replays the buffered events in order.
+     */
+    void setPaused(boolean paused) {
+        lock.lock();
+        try {
+            this.paused = paused;
+            resumeScheduled = false;
+            if (!paused) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pauses the pipeline and resumes it by itself after maxMillis, unless setPaused or resume is called first
+     */
+    void pauseFor(long maxMillis) {
+        lock.lock();
+        try {
+            paused = true;
+            resumeScheduled = true;
+            resumeAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxMillis);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resumes the pipeline
+     *
+     * @return the number of buffered events that are replayed
+     */
+    int resume() {
+        lock.lock();
+        try {
+            paused = false;
+            resumeScheduled = false;
+            notEmpty.signal();
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isPaused() {
+        lock.lock();
+        try {
+            return isPausedNow();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a single event
+     *
+     * @return false if the event was dropped because the queue was full
+     */
+    boolean offer(JSONObject event) {
+        lock.lock();
+        try {
+            if (queue.size() >= capacity) {
+                droppedCount++;
+                return false;
+            }
+            queue.addLast(event);
+            depth = queue.size();
+            acceptedCount++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a batch of events in order, under a single lock acquisition.
+     * Once the queue is full every later event is dropped, so the accepted events are a prefix of the batch
+     * as long as it only contains objects. Entries that are not objects are skipped.
+     *
+     * @return the number of events accepted; the rest were dropped
+     */
+    int offerAll(JSONArray events) {
+        int accepted = 0;
+        lock.lock();
+        try {
+            for (int i = 0; i < events.length(); i++) {
+                JSONObject event = events.optJSONObject(i);
+                if (event == null) {
+                    continue;
+                }
+                if (queue.size() >= capacity) {
+                    droppedCount++;
+                    continue;
+                }
+                queue.addLast(event);
+                accepted++;
+            }
+            acceptedCount += accepted;
+            depth = queue.size();
+            if (accepted > 0) {
+                notEmpty.signal();
+            }
+            return accepted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getAcceptedCount() {
+        lock.lock();
+        try {
+            return acceptedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getLoggedCount() {
+        lock.lock();
+        try {
+            return loggedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        return (long) getDepth() * ESTIMATED_EVENT_BYTES;
+    }
+
+    /**
+     * Lets the consumer thread write the oldest events, in order, until the queue fits in targetBytes, waiting at most
+     * TRIM_WAIT_MILLIS. Events still over the target after that, or while paused, are dropped oldest first.
+     */
+    @Override
+    public long trimTo(long targetBytes) {
+        int keep = (int) Math.min(targetBytes / ESTIMATED_EVENT_BYTES, Integer.MAX_VALUE);
+        lock.lock();
+        try {
+            int before = queue.size();
+            if (before <= keep) {
+                return 0;
+            }
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(TRIM_WAIT_MILLIS);
+            while (!isPausedNow() && running && queue.size() > keep && remainingNanos > 0) {
+                notEmpty.signal();
+                try {
+                    remainingNanos = drained.awaitNanos(remainingNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            while (queue.size() > keep) {
+                queue.pollFirst();
+                droppedCount++;
+            }
+            depth = queue.size();
+            return (long) (before - queue.size()) * ESTIMATED_EVENT_BYTES;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the queued events to the sink from a crashing thread, within the deadline.
+     * Unlike the log buffer this allocates: the only durable destination of an event is Analytics.log, which serializes
+     * and stores it. The deadline is checked between events, so a slow write can overrun it by one event.
+     * If the consumer thread holds the lock, the queue cannot be read safely and its events are counted as dropped.
+     * Events the consumer thread took for its current chunk but has not written yet are counted as dropped too.
+     */
+    @Override
+    public void flushOnCrash(long deadlineNanos, long[] counts) {
+        counts[CrashFlushHandler.DROPPED] += inFlight;
+        if (!lock.tryLock()) {
+            counts[CrashFlushHandler.DROPPED] += depth;
+            return;
+        }
+        try {
+            if (isPausedNow()) {
+                // The sink is not ready to accept events yet
+                counts[CrashFlushHandler.DROPPED] += queue.size();
+                return;
+            }
+            while (!queue.isEmpty()) {
+                if (System.nanoTime() > deadlineNanos) {
+                    counts[CrashFlushHandler.DROPPED] += queue.size();
+                    return;
+                }
+                try {
+                    JSONObject event = queue.pollFirst();
+                    depth = queue.size();
+                    sink.log(event);
+                    counts[CrashFlushHandler.SAVED]++;
+                } catch (RuntimeException e) {
+                    counts[CrashFlushHandler.DROPPED]++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a pause whose pauseFor time is up. Must be called while holding the lock.
+     */
+    private boolean isPausedNow() {
+        if (paused && resumeScheduled && System.nanoTime() - resumeAtNanos >= 0) {
+            paused = false;
+            resumeScheduled = false;
+        }
+        return paused;
+    }
+
+    private void consumeLoop() {
+        while (true) {
+            int chunkCount;
+            lock.lock();
+            try {
+                while (queue.isEmpty() || isPausedNow()) {
+                    if (!running) {
+                        return;
+                    }
+                    if (paused && resumeScheduled) {
+                        try {
+                            notEmpty.awaitNanos(resumeAtNanos - System.nanoTime());
+                        } catch (InterruptedException e) {
+                            // Like awaitUninterruptibly below, an interrupt does not stop the consumer thread
+                        }
+                    } else {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                }
+                chunkCount = 0;
+                while (chunkCount < chunk.length && !queue.isEmpty()) {
+                    chunk[chunkCount++] = queue.pollFirst();
+                }
+                depth = queue.size();
+                inFlight = chunkCount;
+                // A memory trim may be waiting for the queue to shrink
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            for (int i = 0; i < chunkCount; i++) {
+                try {
+                    sink.log(chunk[i]);
+                } catch (RuntimeException e) {
+                    // A failing event must not stop the pipeline
+                }
+                chunk[i] = null;
+                inFlight = chunkCount - i - 1;
+            }
+
+            lock.lock();
+            try {
+                loggedCount += chunkCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer of log entries drained by a single background writer thread.
+ * Slots are preallocated parallel arrays, so queuing an entry does not allocate.
+ */
+final class AsyncLogWriter {
+
+    enum OverflowPolicy {
+        DROP_OLDEST, DROP_NEWEST, BLOCK;
+
+        static OverflowPolicy fromString(String policy) {
+            if (policy != null) {
+                for (OverflowPolicy value : values()) {
+                    if (value.name().equalsIgnoreCase(policy)) {
+                        return value;
+                    }
+                }
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    /**
+     * Destination of the entries drained from the buffer. Called only from the writer thread.
+     */
+    interface Sink {
+        void write(String level, String loggerName, String message, long timestamp);
+    }
+
+    static final int DEFAULT_CAPACITY = 1024;
+    static final int DEFAULT_BATCH_SIZE = 64;
+    static final long TRIM_WAIT_MILLIS = 500;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final String[] levels;
+    private final String[] loggerNames;
+    private final String[] messages;
+    private final long[] timestamps;
+
+    // Only touched by the writer thread
+    private final String[] batchLevels;
+    private final String[] batchLoggerNames;
+    private final String[] batchMessages;
+    private final long[] batchTimestamps;
+
+    private final OverflowPolicy overflowPolicy;
+    private final Sink sink;
+
+    private int head;
+    // Written under the lock, volatile so the crash path can count the entries it cannot drain
+    private volatile int count;
+    // Entries of the writer's current batch not yet written to the sink
+    private volatile int inFlight;
+    private boolean running;
+    private Thread writerThread;
+
+    private long droppedCount;
+    private long writtenCount;
+
+    AsyncLogWriter(int capacity, OverflowPolicy overflowPolicy, int batchSize, Sink sink) {
+        capacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+        batchSize = batchSize > 0 ? Math.min(batchSize, capacity) : Math.min(DEFAULT_BATCH_SIZE, capacity);
+
+        this.levels = new String[capacity];
+        this.loggerNames = new String[capacity];
+        this.messages = new String[capacity];
+        this.timestamps = new long[capacity];
+
+        this.batchLevels = new String[batchSize];
+        this.batchLoggerNames = new String[batchSize];
+        this.batchMessages = new String[batchSize];
+        this.batchTimestamps = new long[batchSize];
+
+        this.overflowPolicy = overflowPolicy;
+        this.sink = sink;
+    }
+
+    void start() {
+        lock.lock();
+        try {
+            if (running) {
+                return;
+            }
+            running = true;
+            writerThread = new Thread(new Runnable() {
+                public void run() {
+                    drainLoop();
+                }
+            }, "CDVBMSLogger-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the writer thread after the entries queued so far have been written.
+     */
+    void shutdown() {
+        Thread thread;
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            thread = writerThread;
+            writerThread = null;
+        } finally {
+            lock.unlock();
+        }
+
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queues an entry for the writer thread.
+     *
+     * @return false if the entry was dropped because the buffer was full
+     */
+    boolean offer(String level, String loggerName, String message, long timestamp) {
+        lock.lock();
+        try {
+            int capacity = levels.length;
+            while (count == capacity) {
+                if (overflowPolicy == OverflowPolicy.DROP_NEWEST || !running) {
+                    droppedCount++;
+                    return false;
+                } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    clearSlot(head);
+                    head = (head + 1) % capacity;
+                    count--;
+                    droppedCount++;
+                } else {
+                    try {
+                        notFull.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        droppedCount++;
+                        return false;
+                    }
+                }
+            }
+
+            int tail = (head + count) % capacity;
+            levels[tail] = level;
+            loggerNames[tail] = loggerName;
+            messages[tail] = message;
+            timestamps[tail] = timestamp;
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int capacity() {
+        return levels.length;
+    }
+
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getWrittenCount() {
+        lock.lock();
+        try {
+            return writtenCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Estimated heap bytes held by the queued entries, two bytes per character plus the String headers
+     */
+    long getRetainedBytes() {
+        lock.lock();
+        try {
+            return retainedBytes();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets the writer thread drain the buffer until the queued entries fit in targetBytes, waiting at most
+     * TRIM_WAIT_MILLIS. Entries still over the target after that are dropped, oldest first, and counted in
+     * droppedCount. Only the writer thread writes to the sink, so a trim never reorders the log.
+     *
+     * @return Estimated bytes released
+     */
+    long trimTo(long targetBytes) {
+        lock.lock();
+        try {
+            long before = retainedBytes();
+            if (before <= targetBytes) {
+                return 0;
+            }
+            long retained = before;
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(TRIM_WAIT_MILLIS);
+            while (running && retained > targetBytes && remainingNanos > 0) {
+                notEmpty.signal();
+                try {
+                    remainingNanos = notFull.awaitNanos(remainingNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                retained = retainedBytes();
+            }
+
+            int capacity = levels.length;
+            boolean dropped = false;
+            while (count > 0 && retained > targetBytes) {
+                retained -= entryBytes(head);
+                clearSlot(head);
+                head = (head + 1) % capacity;
+                count--;
+                droppedCount++;
+                dropped = true;
+            }
+            if (dropped) {
+                notFull.signalAll();
+            }
+            return before - retained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the queued entries to the store from a crashing thread, without allocating.
+     * If the store is null, entries are written to the sink instead.
+     * The lock is only attempted, so a writer thread holding it cannot stall the crash path. If it is held, the ring
+     * buffer cannot be read safely and the queued entries are counted as dropped.
+     * Entries the writer thread took for its current batch but has not written yet die with the process, they are
+     * counted as dropped too.
+     */
+    void drainOnCrash(long deadlineNanos, SegmentLogStore store, long[] counts) {
+        counts[CrashFlushHandler.DROPPED] += inFlight;
+        if (!lock.tryLock()) {
+            counts[CrashFlushHandler.DROPPED] += count;
+            return;
+        }
+        try {
+            int capacity = levels.length;
+            while (count > 0) {
+                if (System.nanoTime() > deadlineNanos) {
+                    counts[CrashFlushHandler.DROPPED] += count;
+                    return;
+                }
+                boolean saved;
+                if (store != null) {
+                    saved = store.appendOnCrash(levels[head], loggerNames[head], messages[head], timestamps[head]);
+                } else {
+                    sink.write(levels[head], loggerNames[head], messages[head], timestamps[head]);
+                    saved = true;
+                }
+                counts[saved ? CrashFlushHandler.SAVED : CrashFlushHandler.DROPPED]++;
+                clearSlot(head);
+                head = (head + 1) % capacity;
+                count--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            int batchCount = takeBatch();
+            if (batchCount < 0) {
+                return;
+            }
+
+            for (int i = 0; i < batchCount; i++) {
+                try {
+                    sink.write(batchLevels[i], batchLoggerNames[i], batchMessages[i], batchTimestamps[i]);
+                } catch (RuntimeException e) {
+                    // A failing sink must not stop the writer thread
+                }
+                inFlight = batchCount - i - 1;
+                batchLevels[i] = null;
+                batchLoggerNames[i] = null;
+                batchMessages[i] = null;
+            }
+
+            lock.lock();
+            try {
+                writtenCount += batchCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Moves up to one batch of entries out of the ring buffer.
+     *
+     * @return the number of entries moved, or -1 once the writer was shut down and the buffer is empty
+     */
+    private int takeBatch() {
+        lock.lock();
+        try {
+            while (count == 0) {
+                if (!running) {
+                    return -1;
+                }
+                notEmpty.awaitUninterruptibly();
+            }
+
+            int capacity = levels.length;
+            int batchCount = Math.min(count, batchLevels.length);
+            for (int i = 0; i < batchCount; i++) {
+                batchLevels[i] = levels[head];
+                batchLoggerNames[i] = loggerNames[head];
+                batchMessages[i] = messages[head];
+                batchTimestamps[i] = timestamps[head];
+                clearSlot(head);
+                head = (head + 1) % capacity;
+            }
+            count -= batchCount;
+            inFlight = batchCount;
+            notFull.signalAll();
+            return batchCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called while holding the lock
+     */
+    private long retainedBytes() {
+        long bytes = 0;
+        int capacity = levels.length;
+        for (int i = 0; i < count; i++) {
+            bytes += entryBytes((head + i) % capacity);
+        }
+        return bytes;
+    }
+
+    /**
+     * Must be called while holding the lock
+     */
+    private long entryBytes(int index) {
+        String loggerName = loggerNames[index];
+        String message = messages[index];
+        return 2L * ((loggerName != null ? loggerName.length() : 0) + (message != null ? message.length() : 0)) + 48;
+    }
+
+    private void clearSlot(int index) {
+        levels[index] = null;
+        loggerNames[index] = null;
+        messages[index] = null;
+    }
+}
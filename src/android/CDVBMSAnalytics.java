@@ -25,22 +25,73 @@ import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CallbackContext;
 
 import android.app.Application;
+import android.content.Context;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONException;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class CDVBMSAnalytics extends CordovaPlugin {
 
     private static final Logger analyticsLogger = Logger.getLogger(Logger.INTERNAL_PREFIX + "CDVBMSAnalytics");
     private String errorEmptyArg = "Expected non-empty string argument.";
 
+    private static AnalyticsPipeline pipeline;
+
+    private static final int INIT_NOT_STARTED = 0;
+    private static final int INIT_RUNNING = 1;
+    private static final int INIT_DONE = 2;
+
+    // Longest time events are buffered for an Analytics.init that the plugin has not started
+    static final long INIT_WAIT_MILLIS = 30000;
+
+    private static int initState = INIT_NOT_STARTED;
+    private static long initDurationMillis = -1;
+    private static JSONObject initResult;
+    private static final List<InitListener> pendingInitListeners = new ArrayList<InitListener>();
+    private static Application deferredInitApplication;
+    private static JSONArray deferredInitArgs;
+
+    static final long DEFAULT_AGGREGATION_INTERVAL = 60000;
+
+    private static AnalyticsAggregator aggregator;
+    private static ScheduledExecutorService aggregationExecutor;
+    private static ScheduledFuture<?> aggregationFlush;
+
+    private static final UploadPolicy.Uploader analyticsUploader = new UploadPolicy.Uploader() {
+        @Override
+        public void send(ResponseListener listener) {
+            Analytics.send(listener);
+        }
+    };
+
+    private static final AnalyticsPipeline.Sink analyticsSink = new AnalyticsPipeline.Sink() {
+        @Override
+        public void log(JSONObject event) {
+            Analytics.log(event);
+        }
+    };
+
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
         analyticsLogger.debug("execute() : action = " + action);
 
+        if(!"initialize".equals(action)) {
+            // Analytics bootstrapped with lazy initialization starts on first use
+            startDeferredInit();
+        }
+
         if("enable".equals(action)) {
             Analytics.enable();
             callbackContext.success();
@@ -66,6 +117,30 @@ public class CDVBMSAnalytics extends CordovaPlugin {
         } else if("log".equals(action)){
             this.log(args, callbackContext);
             return true;
+        } else if("logBatch".equals(action)){
+            this.logBatch(args, callbackContext);
+            return true;
+        } else if("recordMetrics".equals(action)){
+            this.recordMetrics(args, callbackContext);
+            return true;
+        } else if("setAggregationInterval".equals(action)){
+            this.setAggregationInterval(args.getLong(0));
+            callbackContext.success();
+            return true;
+        } else if("flushAggregates".equals(action)){
+            this.flushAggregates();
+            callbackContext.success();
+            return true;
+        } else if("getPipelineStats".equals(action)){
+            this.getPipelineStats(callbackContext);
+            return true;
+        } else if("setUploadPolicy".equals(action)){
+            UploadPolicy.getInstance(cordova.getActivity()).configure(args.getJSONObject(0));
+            callbackContext.success();
+            return true;
+        } else if("getUploadPolicyStatus".equals(action)){
+            callbackContext.success(UploadPolicy.getInstance(cordova.getActivity()).getStatus());
+            return true;
         } else if("setUserIdentity".equals(action)){
             this.setUserIdentity(args, callbackContext);
             return true;
@@ -95,6 +170,7 @@ public class CDVBMSAnalytics extends CordovaPlugin {
                 try {
                     String userIdentity = args.getString(0);
                     Analytics.setUserIdentity(userIdentity);
+                    callbackContext.success();
                 } catch(JSONException e){
                     analyticsLogger.error("setUserIdentity :: Analytics failed to set user identity. " +
                             "Please review arguments");
@@ -110,9 +186,10 @@ public class CDVBMSAnalytics extends CordovaPlugin {
      * @param callbackContext Callback that will indicate whether the request succeeded or failed
      */
     public void send(final CallbackContext callbackContext) {
+        final UploadPolicy policy = UploadPolicy.getInstance(cordova.getActivity());
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
-                Analytics.send(new ResponseListener() {
+                policy.submit("analytics", analyticsUploader, new ResponseListener() {
                     @Override
                     public void onSuccess(Response response) {
                         callbackContext.success();
@@ -135,46 +212,183 @@ public class CDVBMSAnalytics extends CordovaPlugin {
     }
 
     /**
-     * Initialize BMSAnalytics API
+     * Initialize BMSAnalytics API on a background thread. Events logged before initialization finishes are
+     * buffered in the analytics pipeline and replayed once it completes, replayedEvents is their number. Events
+     * logged more than INIT_WAIT_MILLIS before init is called are not held back. Calling init again after it
+     * succeeded, or while it is running, does not initialize Analytics a second time.
      * @param args  JSONArray that contains the argument the to initialize Analytics
-     * @param callbackContext
+     * @param callbackContext Callback that receives {durationMillis, replayedEvents}
      */
     public void init(final JSONArray args, final CallbackContext callbackContext){
-
-        final Application app = cordova.getActivity().getApplication();
         try {
-            String applicationName = args.getString(0);
-            String clientApiKey = args.getString(1);
-            boolean hasContext = args.getBoolean(2);
-            boolean collectLocation=false;
-            JSONArray deviceEventsArray;
-            if(!args.isNull(4) ){
-                collectLocation = args.getBoolean(3);
-                deviceEventsArray = args.getJSONArray(4);
+            initialize(cordova.getActivity().getApplication(), args, cordova.getThreadPool(), new InitListener() {
+                @Override
+                public void onInitialized(JSONObject result) {
+                    callbackContext.success(result);
+                }
+
+                @Override
+                public void onInitFailed(String error) {
+                    callbackContext.error(error);
+                }
+            });
+        } catch (JSONException e) {
+            analyticsLogger.error("init :: Analytics failed to initialize. Please review arguments");
+            callbackContext.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Receives the outcome of an analytics initialization
+     */
+    interface InitListener {
+        void onInitialized(JSONObject result);
+
+        void onInitFailed(String error);
+    }
+
+    /**
+     * Remembers the initialization arguments and runs Analytics.init the first time analytics is used
+     * @param args  JSONArray that contains the argument the to initialize Analytics
+     */
+    static void initializeOnFirstUse(Application app, JSONArray args) {
+        synchronized (CDVBMSAnalytics.class) {
+            if (initState == INIT_NOT_STARTED) {
+                deferredInitApplication = app;
+                deferredInitArgs = args;
             }
-            else
-            {
-                deviceEventsArray = args.getJSONArray(3);
+        }
+    }
+
+    private void startDeferredInit() {
+        final JSONArray args;
+        final Application app;
+        synchronized (CDVBMSAnalytics.class) {
+            if (deferredInitArgs == null) {
+                return;
             }
+            args = deferredInitArgs;
+            app = deferredInitApplication;
+            deferredInitArgs = null;
+            deferredInitApplication = null;
+        }
+        try {
+            initialize(app, args, cordova.getThreadPool(), new InitListener() {
+                @Override
+                public void onInitialized(JSONObject result) {
+                }
 
-            Analytics.DeviceEvent[] devices = new Analytics.DeviceEvent[deviceEventsArray.length()];
-            for(int i = 0; i < deviceEventsArray.length(); i++ ){
-                if(deviceEventsArray.getInt(i) == 0){
-                    devices[i] = Analytics.DeviceEvent.NONE;
-                } else if(deviceEventsArray.getInt(i) == 1){
-                    devices[i] = Analytics.DeviceEvent.ALL;
-                } else if(deviceEventsArray.getInt(i) == 2){
-                    devices[i] = Analytics.DeviceEvent.LIFECYCLE;
-                } else if(deviceEventsArray.getInt(i) == 3){
-                    devices[i] = Analytics.DeviceEvent.NETWORK;
+                @Override
+                public void onInitFailed(String error) {
                 }
-            }
-            Analytics.init(app, applicationName, clientApiKey, hasContext, collectLocation,devices);
+            });
         } catch (JSONException e) {
             analyticsLogger.error("init :: Analytics failed to initialize. Please review arguments");
-            callbackContext.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Runs Analytics.init on the given executor. The analytics pipeline, paused since it was created, stays paused
+     * while it runs and is resumed when it completes or fails. Concurrent calls share one initialization.
+     * @param args  JSONArray that contains the argument the to initialize Analytics
+     * @throws JSONException if the arguments cannot be parsed; nothing is started in that case
+     */
+    static void initialize(final Application app, JSONArray args, Executor executor, InitListener listener) throws JSONException {
+        final String applicationName = args.getString(0);
+        final String clientApiKey = args.getString(1);
+        final boolean hasContext = args.getBoolean(2);
+        final boolean collectLocation;
+        JSONArray deviceEventsArray;
+        if(!args.isNull(4) ){
+            collectLocation = args.getBoolean(3);
+            deviceEventsArray = args.getJSONArray(4);
+        }
+        else
+        {
+            collectLocation = false;
+            deviceEventsArray = args.getJSONArray(3);
+        }
+
+        final Analytics.DeviceEvent[] devices = new Analytics.DeviceEvent[deviceEventsArray.length()];
+        for(int i = 0; i < deviceEventsArray.length(); i++ ){
+            if(deviceEventsArray.getInt(i) == 0){
+                devices[i] = Analytics.DeviceEvent.NONE;
+            } else if(deviceEventsArray.getInt(i) == 1){
+                devices[i] = Analytics.DeviceEvent.ALL;
+            } else if(deviceEventsArray.getInt(i) == 2){
+                devices[i] = Analytics.DeviceEvent.LIFECYCLE;
+            } else if(deviceEventsArray.getInt(i) == 3){
+                devices[i] = Analytics.DeviceEvent.NETWORK;
+            }
+        }
+
+        final AnalyticsPipeline currentPipeline = getPipeline(app);
+        synchronized (CDVBMSAnalytics.class) {
+            deferredInitArgs = null;
+            deferredInitApplication = null;
+            if (initState == INIT_DONE) {
+                listener.onInitialized(initResult);
+                return;
+            }
+            pendingInitListeners.add(listener);
+            if (initState == INIT_RUNNING) {
+                return;
+            }
+            initState = INIT_RUNNING;
+            // Replayed in order once Analytics.init completes
+            currentPipeline.setPaused(true);
         }
 
+        executor.execute(new Runnable() {
+            public void run() {
+                long start = System.nanoTime();
+                RuntimeException failure = null;
+                try {
+                    Analytics.init(app, applicationName, clientApiKey, hasContext, collectLocation, devices);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                InitListener[] listeners;
+                JSONObject result = null;
+                synchronized (CDVBMSAnalytics.class) {
+                    listeners = pendingInitListeners.toArray(new InitListener[pendingInitListeners.size()]);
+                    pendingInitListeners.clear();
+                    if (failure == null) {
+                        // Resumed under the class lock, so no event reaches Analytics.log before this count is taken
+                        int replayedEvents = currentPipeline.resume();
+                        result = new JSONObject();
+                        try {
+                            result.put("durationMillis", durationMillis);
+                            result.put("replayedEvents", replayedEvents);
+                        } catch (JSONException e) {
+                            // Values above are always valid JSON
+                        }
+                        initResult = result;
+                        initDurationMillis = durationMillis;
+                        initState = INIT_DONE;
+                    } else {
+                        // Allow the application to retry
+                        initState = INIT_NOT_STARTED;
+                    }
+                }
+
+                if (failure == null) {
+                    analyticsLogger.debug("init :: Analytics initialized in " + durationMillis + " ms");
+                    for (InitListener listener : listeners) {
+                        listener.onInitialized(result);
+                    }
+                } else {
+                    // Do not hold events until a retry that may never come
+                    currentPipeline.setPaused(false);
+                    analyticsLogger.error("init :: Analytics failed to initialize. " + failure.getMessage());
+                    for (InitListener listener : listeners) {
+                        listener.onInitFailed(String.valueOf(failure.getMessage()));
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -184,17 +398,192 @@ public class CDVBMSAnalytics extends CordovaPlugin {
      */
 
     public void log(final JSONArray args, final CallbackContext callbackContext){
-        cordova.getThreadPool().execute(new Runnable() {
-            public void run() {
+        try {
+            JSONObject meta = args.getJSONObject(0);
+            if (getPipeline().offer(meta)) {
+                callbackContext.success();
+            } else {
+                callbackContext.error("log :: Analytics event queue is full");
+            }
+        } catch (JSONException e) {
+            analyticsLogger.error("log :: " + errorEmptyArg);
+            callbackContext.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Log a batch of analytics events in one call. Events are logged in array order.
+     * @param args  JSONArray that contains a JSONArray of event descriptions
+     * @param callbackContext Callback that receives {accepted, dropped}
+     */
+    public void logBatch(final JSONArray args, final CallbackContext callbackContext) {
+        try {
+            JSONArray events = args.getJSONArray(0);
+            int accepted = getPipeline().offerAll(events);
+
+            JSONObject result = new JSONObject();
+            result.put("accepted", accepted);
+            result.put("dropped", events.length() - accepted);
+            callbackContext.success(result);
+        } catch (JSONException e) {
+            analyticsLogger.error("logBatch :: Expected an array of events.");
+            callbackContext.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the analytics pipeline counters
+     * @param callbackContext Callback that receives {depth, capacity, accepted, logged, dropped, initialized, initDurationMillis}
+     */
+    public void getPipelineStats(final CallbackContext callbackContext) throws JSONException {
+        AnalyticsPipeline currentPipeline = getPipeline();
+        JSONObject stats = new JSONObject();
+
+        stats.put("depth", currentPipeline.getDepth());
+        stats.put("capacity", currentPipeline.getCapacity());
+        stats.put("accepted", currentPipeline.getAcceptedCount());
+        stats.put("logged", currentPipeline.getLoggedCount());
+        stats.put("dropped", currentPipeline.getDroppedCount());
+        synchronized (CDVBMSAnalytics.class) {
+            stats.put("initialized", initState == INIT_DONE);
+            stats.put("initDurationMillis", initDurationMillis);
+        }
+        callbackContext.success(stats);
+    }
+
+    /**
+     * Records counters, gauges and timers. They are aggregated natively and summarized into one event per interval.
+     * @param args  JSONArray that contains a JSONArray of [type, name, value, dimensions] records
+     * @param callbackContext Callback that receives the number of records that were aggregated
+     */
+    public void recordMetrics(final JSONArray args, final CallbackContext callbackContext) {
+        try {
+            JSONArray records = args.getJSONArray(0);
+            AnalyticsAggregator currentAggregator = getAggregator();
+            int recorded = 0;
+
+            for (int i = 0; i < records.length(); i++) {
+                JSONArray record = records.getJSONArray(i);
                 try {
-                    JSONObject meta = args.getJSONObject(0);
-                    Analytics.log(meta);
-                } catch (JSONException e) {
-                    analyticsLogger.error("log :: " + errorEmptyArg);
-                    callbackContext.error(e.getMessage());
+                    if (currentAggregator.record(record.getString(0), record.getString(1), record.optDouble(2, 1),
+                            record.optJSONObject(3))) {
+                        recorded++;
+                    }
+                } catch (IllegalArgumentException e) {
+                    analyticsLogger.debug("recordMetrics :: " + e.getMessage());
                 }
             }
-        });
+            callbackContext.success(recorded);
+        } catch (JSONException e) {
+            analyticsLogger.error("recordMetrics :: Expected an array of metric records.");
+            callbackContext.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Summarizes the metrics recorded so far into one event and queues it in the analytics pipeline
+     */
+    public void flushAggregates() {
+        AnalyticsAggregator currentAggregator;
+        synchronized (CDVBMSAnalytics.class) {
+            currentAggregator = aggregator;
+        }
+        if (currentAggregator == null) {
+            return;
+        }
+
+        try {
+            JSONObject summary = currentAggregator.flush(System.currentTimeMillis());
+            if (summary != null) {
+                getPipeline().offer(summary);
+            }
+        } catch (JSONException e) {
+            analyticsLogger.error("flushAggregates :: failed to build the summary event");
+        }
+    }
+
+    /**
+     * Sets how often aggregated metrics are summarized into an event
+     * @param intervalMillis The flush interval in milliseconds
+     */
+    public void setAggregationInterval(long intervalMillis) {
+        synchronized (CDVBMSAnalytics.class) {
+            getAggregator();
+            scheduleAggregationFlush(intervalMillis > 0 ? intervalMillis : DEFAULT_AGGREGATION_INTERVAL);
+        }
+    }
+
+    private AnalyticsAggregator getAggregator() {
+        synchronized (CDVBMSAnalytics.class) {
+            if (aggregator == null) {
+                aggregator = new AnalyticsAggregator(AnalyticsAggregator.DEFAULT_MAX_METRICS, System.currentTimeMillis());
+                scheduleAggregationFlush(DEFAULT_AGGREGATION_INTERVAL);
+            }
+            return aggregator;
+        }
+    }
+
+    private void scheduleAggregationFlush(long intervalMillis) {
+        if (aggregationExecutor == null) {
+            aggregationExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CDVBMSAnalytics-aggregation");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        if (aggregationFlush != null) {
+            aggregationFlush.cancel(false);
+        }
+        aggregationFlush = aggregationExecutor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                flushAggregates();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the process-wide analytics pipeline, creating it on first use
+     */
+    private AnalyticsPipeline getPipeline() {
+        return getPipeline(cordova.getActivity());
+    }
+
+    /**
+     * @return The process-wide analytics pipeline, or null if it was not created yet
+     */
+    static AnalyticsPipeline getExistingPipeline() {
+        synchronized (CDVBMSAnalytics.class) {
+            return pipeline;
+        }
+    }
+
+    /**
+     * Returns the process-wide analytics pipeline, creating it on first use.
+     * Plugins that only add events natively should use getExistingPipeline instead.
+     */
+    static AnalyticsPipeline getPipeline(Context context) {
+        synchronized (CDVBMSAnalytics.class) {
+            if (pipeline == null) {
+                pipeline = new AnalyticsPipeline(AnalyticsPipeline.DEFAULT_CAPACITY, AnalyticsPipeline.DEFAULT_CHUNK_SIZE, analyticsSink);
+                // Buffer events until the plugin's Analytics.init completes, so events logged before it are replayed
+                // to an initialized SDK. If the plugin does not start Analytics.init within INIT_WAIT_MILLIS, Analytics
+                // may have been initialized natively, and events go straight to Analytics.log as before the pipeline.
+                if (initState == INIT_RUNNING) {
+                    pipeline.setPaused(true);
+                } else if (initState == INIT_NOT_STARTED) {
+                    pipeline.pauseFor(INIT_WAIT_MILLIS);
+                }
+                pipeline.start();
+
+                File statsFile = new File(context.getFilesDir(), CrashFlushHandler.STATS_FILE_NAME);
+                CrashFlushHandler.install(statsFile, CrashFlushHandler.DEFAULT_BUDGET_MILLIS).register(pipeline);
+                MemoryTrimmer.install(context).register("analytics", pipeline);
+            }
+            return pipeline;
+        }
     }
 
 }
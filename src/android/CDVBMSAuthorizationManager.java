@@ -33,6 +33,8 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.List;
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 
 public class CDVBMSAuthorizationManager extends CordovaPlugin {
@@ -43,9 +45,17 @@ public class CDVBMSAuthorizationManager extends CordovaPlugin {
     private static final String PersistencePolicyNever = "NEVER";
     private static final String WWW_AUTHENTICATE_HEADER_NAME = "Www-Authenticate";
 
+    // Longest time a stream waits for the authorization flow after a 401
+    static final long AUTHORIZATION_TIMEOUT = 60000;
+
+    private static volatile String deferredTenantId;
+
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
         boolean ans = true;
+        if (!"initialize".equals(action)) {
+            ensureInitialized(this.cordova.getActivity());
+        }
         if ("initialize".equals(action)) {
             this.initialize(args, callbackContext);
         } else if ("obtainAuthorizationHeader".equals(action)) {
@@ -74,6 +84,81 @@ public class CDVBMSAuthorizationManager extends CordovaPlugin {
         return ans;
     }
 
+    /**
+     * Remembers the tenantId and creates the authorization manager the first time authorization is used
+     *
+     * @param tenantId MCA service tenantId
+     */
+    static void initializeOnFirstUse(String tenantId) {
+        deferredTenantId = tenantId;
+    }
+
+    /**
+     * Creates the authorization manager if its initialization was deferred by initializeOnFirstUse
+     */
+    static void ensureInitialized(Context context) {
+        if (deferredTenantId == null) {
+            return;
+        }
+        synchronized (CDVBMSAuthorizationManager.class) {
+            String tenantId = deferredTenantId;
+            if (tenantId != null) {
+                MCAAuthorizationManager.createInstance(context.getApplicationContext(), tenantId);
+                deferredTenantId = null;
+                amLogger.debug("Authorization Manager initialized on first use with tenantId: " + tenantId);
+            }
+        }
+    }
+
+    /**
+     * Returns the cached authorization header for connections that do not go through the native Request,
+     * or null if the authorization manager was not initialized or holds no token
+     */
+    static String getCachedAuthorizationHeader(Context context) {
+        ensureInitialized(context);
+        MCAAuthorizationManager manager = MCAAuthorizationManager.getInstance();
+        return manager != null ? manager.getCachedAuthorizationHeader() : null;
+    }
+
+    /**
+     * Obtains a new authorization header after a connection that does not go through the native Request was refused.
+     * Runs the authorization flow, including any challenge handler, and waits for it at most AUTHORIZATION_TIMEOUT.
+     *
+     * @return The new header, or null if the response does not require MCA authorization or none could be obtained
+     */
+    static String refreshAuthorizationHeader(Context context, int status, Map<String, List<String>> responseHeaders) {
+        ensureInitialized(context);
+        final MCAAuthorizationManager manager = MCAAuthorizationManager.getInstance();
+        if (manager == null || !manager.isAuthorizationRequired(status, responseHeaders)) {
+            return null;
+        }
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final boolean[] succeeded = new boolean[1];
+        manager.obtainAuthorization(context, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                succeeded[0] = true;
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Response response, Throwable t, JSONObject extendedInfo) {
+                amLogger.error("refreshAuthorizationHeader :: Failed to obtain authorization. " + (t != null ? t.getMessage() : ""));
+                done.countDown();
+            }
+        });
+        try {
+            if (!done.await(AUTHORIZATION_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return succeeded[0] ? manager.getCachedAuthorizationHeader() : null;
+    }
+
     /**
      * Use the native SDK API to initialize the authorization manager with tenantId.
      *
@@ -92,6 +177,7 @@ public class CDVBMSAuthorizationManager extends CordovaPlugin {
                     amLogger.error("Error in parsing the tenantId");
                     callbackContext.error("The specified tenantId cant be parse as String.");
                 }
+                deferredTenantId = null;
                 MCAAuthorizationManager.createInstance(currentContext, tenantId);
                 amLogger.debug("Authorization Manager initialize with tenantId: " + tenantId.toString());
                 callbackContext.success();
@@ -113,7 +199,7 @@ public class CDVBMSAuthorizationManager extends CordovaPlugin {
                     @Override
                     public void onSuccess(Response response) {
                         try {
-                            PluginResult result = new PluginResult(PluginResult.Status.OK, CDVBMSRequest.packJavaResponseToJSON(response));
+                            PluginResult result = new PluginResult(PluginResult.Status.OK, RequestMarshaller.packJavaResponseToJSON(response));
                             amLogger.debug("ObtainAuthorizationHeader: request successful.");
                             callbackContext.sendPluginResult(result);
                         } catch (JSONException e) {
@@ -124,7 +210,7 @@ public class CDVBMSAuthorizationManager extends CordovaPlugin {
                     @Override
                     public void onFailure(Response response, Throwable t, JSONObject extendedInfo) {
                         try {
-                            PluginResult result = new PluginResult(PluginResult.Status.ERROR, CDVBMSRequest.packJavaResponseToJSON(response));
+                            PluginResult result = new PluginResult(PluginResult.Status.ERROR, RequestMarshaller.packJavaResponseToJSON(response));
                             amLogger.error("Failed to send request obtainAuthorizationHeader.");
                             callbackContext.sendPluginResult(result);
                         } catch (JSONException e) {
@@ -302,7 +388,7 @@ public class CDVBMSAuthorizationManager extends CordovaPlugin {
                     @Override
                     public void onSuccess(Response response) {
                         try {
-                            PluginResult result = new PluginResult(PluginResult.Status.OK, CDVBMSRequest.packJavaResponseToJSON(response));
+                            PluginResult result = new PluginResult(PluginResult.Status.OK, RequestMarshaller.packJavaResponseToJSON(response));
                             amLogger.debug("Logout: request successful.");
                             callbackContext.sendPluginResult(result);
                         } catch (JSONException e) {
@@ -313,7 +399,7 @@ public class CDVBMSAuthorizationManager extends CordovaPlugin {
                     @Override
                     public void onFailure(Response failResponse, Throwable t, JSONObject extendedInfo) {
                         try {
-                            PluginResult result = new PluginResult(PluginResult.Status.ERROR, CDVBMSRequest.packJavaResponseToJSON(failResponse));
+                            PluginResult result = new PluginResult(PluginResult.Status.ERROR, RequestMarshaller.packJavaResponseToJSON(failResponse));
                             amLogger.error("Failed to logout.");
                             callbackContext.sendPluginResult(result);
                         } catch (JSONException e) {
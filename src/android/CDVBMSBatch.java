@@ -0,0 +1,251 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs several calls to the other BMS plugins in one bridge crossing and returns all their results in one PluginResult.
+ * The dispatch table maps plugin names to plugin instances, each plugin still selects the action in its own execute().
+ * Those chains cost a few string comparisons, which is small next to the bridge crossing that a batch saves.
+ */
+public class CDVBMSBatch extends CordovaPlugin {
+
+    private static final Logger batchLogger = Logger.getLogger(Logger.INTERNAL_PREFIX + "CDVBMSBatch");
+
+    /**
+     * Plugins that can be called from a batch. They are resolved once, on the first batch.
+     */
+    private static final String[] SERVICES = {
+            "BMSClient", "BMSRequest", "BMSLogger", "BMSAnalytics", "BMSAuthorizationManager"
+    };
+
+    /**
+     * Longest time a batched call may take before it is answered with an error, so that a call whose background
+     * task failed without calling back cannot hold up the whole batch
+     */
+    static final long CALL_TIMEOUT = 30000;
+
+    private static ScheduledExecutorService timeoutExecutor;
+
+    private final Map<String, CordovaPlugin> dispatchTable = new HashMap<String, CordovaPlugin>();
+
+    @Override
+    public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+        if ("execute".equals(action)) {
+            this.executeBatch(args, callbackContext);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Executes the calls in array order. The batch callback receives one result per call, in the same order,
+     * once every call has answered.
+     *
+     * @param args            JSONArray that contains a JSONArray of {plugin, action, args} calls
+     * @param callbackContext Callback that receives a JSONArray of {status: "ok"|"error", result}
+     */
+    public void executeBatch(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONArray calls = args.getJSONArray(0);
+        final Batch batch = new Batch(calls.length(), callbackContext);
+
+        for (int i = 0; i < calls.length(); i++) {
+            JSONObject call = calls.optJSONObject(i);
+            String service = call != null ? call.optString("plugin", "") : "";
+            String callAction = call != null ? call.optString("action", "") : "";
+            JSONArray callArgs = call != null && call.optJSONArray("args") != null ? call.optJSONArray("args") : new JSONArray();
+
+            CordovaPlugin plugin = resolve(service);
+            if (plugin == null) {
+                batch.complete(i, false, "Unknown plugin: " + service);
+                continue;
+            }
+
+            BatchCallbackContext callContext = new BatchCallbackContext(batch, i, callbackContext);
+            batch.calls[i] = callContext;
+            try {
+                if (!plugin.execute(callAction, callArgs, callContext)) {
+                    callContext.complete(false, "Unknown action: " + service + "." + callAction);
+                }
+            } catch (JSONException e) {
+                callContext.complete(false, String.valueOf(e.getMessage()));
+            } catch (RuntimeException e) {
+                batchLogger.error("executeBatch :: " + service + "." + callAction + " failed. " + e.getMessage());
+                callContext.complete(false, String.valueOf(e.getMessage()));
+            }
+        }
+
+        if (!batch.isDone()) {
+            batch.timeout = getTimeoutExecutor().schedule(new Runnable() {
+                public void run() {
+                    batch.expire();
+                }
+            }, CALL_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getTimeoutExecutor() {
+        if (timeoutExecutor == null) {
+            timeoutExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CDVBMSBatch-timeout");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return timeoutExecutor;
+    }
+
+    private synchronized CordovaPlugin resolve(String service) {
+        if (dispatchTable.isEmpty()) {
+            for (String name : SERVICES) {
+                CordovaPlugin plugin = webView.getPluginManager().getPlugin(name);
+                if (plugin != null) {
+                    dispatchTable.put(name, plugin);
+                }
+            }
+        }
+        return dispatchTable.get(service);
+    }
+
+    /**
+     * Collects the results of one batch and answers the batch callback when the last call completes
+     */
+    private static final class Batch {
+        final BatchCallbackContext[] calls;
+        volatile ScheduledFuture<?> timeout;
+        private final Object[] results;
+        private final boolean[] succeeded;
+        private final CallbackContext callbackContext;
+        private int remaining;
+
+        Batch(int size, CallbackContext callbackContext) {
+            this.calls = new BatchCallbackContext[size];
+            this.results = new Object[size];
+            this.succeeded = new boolean[size];
+            this.callbackContext = callbackContext;
+            this.remaining = size;
+            if (size == 0) {
+                callbackContext.success(new JSONArray());
+            }
+        }
+
+        void complete(int index, boolean success, Object result) {
+            synchronized (this) {
+                results[index] = result != null ? result : JSONObject.NULL;
+                succeeded[index] = success;
+                if (--remaining > 0) {
+                    return;
+                }
+            }
+            ScheduledFuture<?> pending = timeout;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+
+            JSONArray response = new JSONArray();
+            for (int i = 0; i < results.length; i++) {
+                JSONObject entry = new JSONObject();
+                try {
+                    entry.put("status", succeeded[i] ? "ok" : "error");
+                    entry.put("result", results[i]);
+                } catch (JSONException e) {
+                    // Values above are always valid JSON
+                }
+                response.put(entry);
+            }
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, response));
+        }
+
+        synchronized boolean isDone() {
+            return remaining == 0;
+        }
+
+        /**
+         * Answers every call that has not completed with an error
+         */
+        void expire() {
+            for (BatchCallbackContext call : calls) {
+                if (call != null) {
+                    call.complete(false, "No result within " + CALL_TIMEOUT + " ms");
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the result of one call in a batch. Only the first result is used, later results of kept callbacks are dropped.
+     */
+    private static final class BatchCallbackContext extends CallbackContext {
+        private final Batch batch;
+        private final int index;
+        private boolean completed;
+
+        BatchCallbackContext(Batch batch, int index, CallbackContext batchContext) {
+            super(batchContext.getCallbackId(), null);
+            this.batch = batch;
+            this.index = index;
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            if (pluginResult.getStatus() == PluginResult.Status.NO_RESULT.ordinal()) {
+                return;
+            }
+            complete(pluginResult.getStatus() == PluginResult.Status.OK.ordinal(), decode(pluginResult));
+        }
+
+        void complete(boolean success, Object result) {
+            synchronized (this) {
+                if (completed) {
+                    return;
+                }
+                completed = true;
+            }
+            batch.complete(index, success, result);
+        }
+
+        private static Object decode(PluginResult pluginResult) {
+            int type = pluginResult.getMessageType();
+            if (type == PluginResult.MESSAGE_TYPE_ARRAYBUFFER || type == PluginResult.MESSAGE_TYPE_BINARYSTRING
+                    || type == PluginResult.MESSAGE_TYPE_MULTIPART) {
+                return "Binary results are not supported in a batch";
+            }
+            try {
+                // getMessage() is the JSON encoding the bridge would have sent for this result
+                return new JSONTokener(pluginResult.getMessage()).nextValue();
+            } catch (JSONException e) {
+                return pluginResult.getStrMessage();
+            }
+        }
+    }
+}
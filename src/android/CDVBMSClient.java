@@ -29,6 +29,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CDVBMSClient extends CordovaPlugin {
     private String errorEmptyArg = "Expected non-empty string argument.";
@@ -41,6 +43,8 @@ public class CDVBMSClient extends CordovaPlugin {
         boolean ans = true;
         if ("initialize".equals(action)) {
             this.initialize(args, callbackContext);
+        } else if ("bootstrap".equals(action)) {
+            this.bootstrap(args, callbackContext);
         } else if ("registerAuthenticationListener".equals(action)) {
             this.registerAuthenticationListener(args, callbackContext);
         } else if ("unregisterAuthenticationListener".equals(action)) {
@@ -51,6 +55,12 @@ public class CDVBMSClient extends CordovaPlugin {
             this.getBluemixAppRoute(callbackContext);
         } else if ("getBluemixAppGUID".equals(action)) {
             this.getBluemixAppGUID(callbackContext);
+        } else if ("setMemoryBudgets".equals(action)) {
+            JSONObject options = args.optJSONObject(0);
+            MemoryTrimmer.install(cordova.getActivity()).configure(options != null ? options : new JSONObject());
+            callbackContext.success();
+        } else if ("getMemoryStatus".equals(action)) {
+            callbackContext.success(MemoryTrimmer.install(cordova.getActivity()).getStatus());
         } else {
             ans = false;
         }
@@ -76,6 +86,123 @@ public class CDVBMSClient extends CordovaPlugin {
         }
     }
 
+    /**
+     * Initializes the client, the authorization manager and analytics in parallel on native threads, in a single call.
+     * Authorization and analytics can instead be deferred until their first use with lazyAuthorization and lazyAnalytics.
+     *
+     * @param args            JSONArray that contains {region, tenantId, lazyAuthorization, analytics, lazyAnalytics},
+     *                        where analytics holds the BMSAnalytics initialize arguments. Each component is optional.
+     * @param callbackContext Callback that receives {totalMillis, components: {client, authorization, analytics}},
+     *                        each component reporting {status, durationMillis, error}
+     */
+    public void bootstrap(JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        JSONObject options = args.getJSONObject(0);
+        final Context appContext = this.cordova.getActivity().getApplicationContext();
+        final String region = options.optString("region", "");
+        final String tenantId = options.optString("tenantId", "");
+        final JSONArray analyticsArgs = options.optJSONArray("analytics");
+
+        final long start = System.nanoTime();
+        final JSONObject components = new JSONObject();
+        final AtomicInteger remaining = new AtomicInteger(3);
+
+        final BootstrapListener listener = new BootstrapListener() {
+            @Override
+            public void onComponentDone(String component, String status, long componentStart, String error) {
+                JSONObject timing = new JSONObject();
+                try {
+                    timing.put("status", status);
+                    timing.put("durationMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - componentStart));
+                    if (error != null) {
+                        timing.put("error", error);
+                    }
+                    synchronized (components) {
+                        components.put(component, timing);
+                    }
+                } catch (JSONException e) {
+                    // Values above are always valid JSON
+                }
+                if (remaining.decrementAndGet() > 0) {
+                    return;
+                }
+
+                JSONObject result = new JSONObject();
+                try {
+                    result.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    result.put("components", components);
+                } catch (JSONException e) {
+                    // Values above are always valid JSON
+                }
+                bmsLogger.debug("bootstrap :: " + result.toString());
+                callbackContext.success(result);
+            }
+        };
+
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                long componentStart = System.nanoTime();
+                if (region.length() == 0) {
+                    listener.onComponentDone("client", "skipped", componentStart, null);
+                    return;
+                }
+                try {
+                    BMSClient.getInstance().initialize(appContext, region);
+                    listener.onComponentDone("client", "initialized", componentStart, null);
+                } catch (RuntimeException e) {
+                    listener.onComponentDone("client", "failed", componentStart, String.valueOf(e.getMessage()));
+                }
+            }
+        });
+
+        if (tenantId.length() == 0) {
+            listener.onComponentDone("authorization", "skipped", System.nanoTime(), null);
+        } else if (options.optBoolean("lazyAuthorization", false)) {
+            CDVBMSAuthorizationManager.initializeOnFirstUse(tenantId);
+            listener.onComponentDone("authorization", "deferred", System.nanoTime(), null);
+        } else {
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    long componentStart = System.nanoTime();
+                    try {
+                        MCAAuthorizationManager.createInstance(appContext, tenantId);
+                        listener.onComponentDone("authorization", "initialized", componentStart, null);
+                    } catch (RuntimeException e) {
+                        listener.onComponentDone("authorization", "failed", componentStart, String.valueOf(e.getMessage()));
+                    }
+                }
+            });
+        }
+
+        final long analyticsStart = System.nanoTime();
+        if (analyticsArgs == null) {
+            listener.onComponentDone("analytics", "skipped", analyticsStart, null);
+        } else if (options.optBoolean("lazyAnalytics", false)) {
+            CDVBMSAnalytics.initializeOnFirstUse(cordova.getActivity().getApplication(), analyticsArgs);
+            listener.onComponentDone("analytics", "deferred", analyticsStart, null);
+        } else {
+            try {
+                CDVBMSAnalytics.initialize(cordova.getActivity().getApplication(), analyticsArgs, cordova.getThreadPool(),
+                        new CDVBMSAnalytics.InitListener() {
+                            @Override
+                            public void onInitialized(JSONObject result) {
+                                listener.onComponentDone("analytics", "initialized", analyticsStart, null);
+                            }
+
+                            @Override
+                            public void onInitFailed(String error) {
+                                listener.onComponentDone("analytics", "failed", analyticsStart, error);
+                            }
+                        });
+            } catch (JSONException e) {
+                listener.onComponentDone("analytics", "failed", analyticsStart, e.getMessage());
+            }
+        }
+    }
+
+    private interface BootstrapListener {
+        void onComponentDone(String component, String status, long componentStart, String error);
+    }
+
     /**
      * Use the native SDK API to registers authentication listener for specified realm.
      *
@@ -89,6 +216,7 @@ public class CDVBMSClient extends CordovaPlugin {
                 try {
                     realm = args.getString(0);
                     if (realm != null && realm.length() > 0) {
+                        CDVBMSAuthorizationManager.ensureInitialized(cordova.getActivity());
                         MCAAuthorizationManager.createInstance(cordova.getActivity().getApplicationContext()).
                                 registerAuthenticationListener(realm, new AuthenticationListener() {
                                     @Override
@@ -134,6 +262,7 @@ public class CDVBMSClient extends CordovaPlugin {
                 try {
                     realm = args.getString(0);
                     if (realm != null && realm.length() > 0) {
+                        CDVBMSAuthorizationManager.ensureInitialized(cordova.getActivity());
                         MCAAuthorizationManager.createInstance(cordova.getActivity().getApplicationContext())
                             .unregisterAuthenticationListener(realm);
                         bmsLogger.debug("Called unregisterAuthenticationListener");
@@ -12,6 +12,8 @@
 */
 package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
 
+import android.content.Context;
+
 import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.*;
 import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Response;
 import com.ibm.mobilefirstplatform.clientsdk.android.core.api.ResponseListener;
@@ -19,28 +21,106 @@ import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger.LEVEL;
 
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONException;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class CDVBMSLogger extends CordovaPlugin {
 
     private static final Logger mfpLogger = Logger.getLogger(Logger.INTERNAL_PREFIX + "CDVBMSLogger");
 
+    private CallbackContext logLevelCallbackContext;
+
+    private static volatile AsyncLogWriter asyncLogWriter;
+    private static volatile SegmentLogStore segmentLogStore;
+    private static volatile String segmentUploadUrl;
+    private static volatile LogRateLimiter logRateLimiter;
+    private static ScheduledExecutorService summaryExecutor;
+    private static ScheduledFuture<?> summaryFlush;
+
+    // Shortest interval between suppression summaries
+    static final long MIN_SUMMARY_INTERVAL = 1000;
+    private static volatile LogUploadScheduler logUploadScheduler;
+
+    private static final CrashFlushHandler.Flushable logFlushable = new CrashFlushHandler.Flushable() {
+        @Override
+        public void flushOnCrash(long deadlineNanos, long[] counts) {
+            AsyncLogWriter writer = asyncLogWriter;
+            SegmentLogStore store = segmentLogStore;
+            if (writer != null) {
+                writer.drainOnCrash(deadlineNanos, store, counts);
+            }
+            if (store != null) {
+                store.force();
+            }
+        }
+    };
+
+    private static final MemoryTrimmer.Trimmable logTrimmable = new MemoryTrimmer.Trimmable() {
+        @Override
+        public long getRetainedBytes() {
+            AsyncLogWriter writer = asyncLogWriter;
+            return writer != null ? writer.getRetainedBytes() : 0;
+        }
+
+        @Override
+        public long trimTo(long targetBytes) {
+            AsyncLogWriter writer = asyncLogWriter;
+            return writer != null ? writer.trimTo(targetBytes) : 0;
+        }
+    };
+
+    private static final LogRateLimiter.SummaryVisitor suppressionSummaryWriter = new LogRateLimiter.SummaryVisitor() {
+        @Override
+        public void visit(String loggerName, long suppressed) {
+            enqueueLogEntry("warn", loggerName, suppressed + " messages suppressed", System.currentTimeMillis());
+        }
+    };
+
+    private static final UploadPolicy.Uploader loggerUploader = new UploadPolicy.Uploader() {
+        @Override
+        public void send(ResponseListener listener) {
+            Logger.send(listener);
+        }
+    };
+
+    private static final AsyncLogWriter.Sink loggerSink = new AsyncLogWriter.Sink() {
+        @Override
+        public void write(String level, String loggerName, String message, long timestamp) {
+            persistLogEntry(level, loggerName, message, timestamp);
+        }
+    };
+
+    @Override
+    protected void pluginInitialize() {
+        File statsFile = new File(cordova.getActivity().getFilesDir(), CrashFlushHandler.STATS_FILE_NAME);
+        CrashFlushHandler.install(statsFile, CrashFlushHandler.DEFAULT_BUDGET_MILLIS).register(logFlushable);
+        MemoryTrimmer.install(cordova.getActivity()).register("logger", logTrimmable);
+    }
+
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
         mfpLogger.debug("execute :: action = " + action);
         if("storeLogs".equals(action)) {
             boolean shouldStoreLogs = args.getBoolean(0);
             Logger.storeLogs(shouldStoreLogs);
+            callbackContext.success();
             return true;
         }  else if("isStoringLogs".equals(action)) {
             this.isStoringLogs(callbackContext);
@@ -59,13 +139,58 @@ public class CDVBMSLogger extends CordovaPlugin {
         } else if("setLogLevel".equals(action)) {
             LEVEL newLevel = LEVEL.fromString(args.getString(0));
             Logger.setLogLevel(newLevel);
+            this.publishLogLevel();
             callbackContext.success();
             return true;
         } else if("setSDKDebugLoggingEnabled".equals(action)) {
             boolean debugEnabled = args.getBoolean(0);
             Logger.setSDKDebugLoggingEnabled(debugEnabled);
+            this.publishLogLevel();
+            callbackContext.success();
+            return true;
+        } else if("setAsyncLoggingEnabled".equals(action)) {
+            this.setAsyncLoggingEnabled(args, callbackContext);
+            return true;
+        } else if("getAsyncLoggingStats".equals(action)) {
+            this.getAsyncLoggingStats(callbackContext);
+            return true;
+        } else if("setSegmentedLogStoreEnabled".equals(action)) {
+            this.setSegmentedLogStoreEnabled(args, callbackContext);
+            return true;
+        } else if("getSegmentedLogStoreStats".equals(action)) {
+            this.getSegmentedLogStoreStats(callbackContext);
+            return true;
+        } else if("sendLogSegments".equals(action)) {
+            this.sendLogSegments(callbackContext);
+            return true;
+        } else if("getCrashFlushStats".equals(action)) {
+            this.getCrashFlushStats(callbackContext);
+            return true;
+        } else if("setCrashFlushBudget".equals(action)) {
+            CrashFlushHandler handler = CrashFlushHandler.getInstance();
+            if (handler != null) {
+                handler.setBudget(args.getLong(0));
+            }
             callbackContext.success();
             return true;
+        } else if("queryLogs".equals(action)) {
+            this.queryLogs(args, callbackContext);
+            return true;
+        } else if("setLogUploadSchedule".equals(action)) {
+            this.setLogUploadSchedule(args, callbackContext);
+            return true;
+        } else if("getLogUploadStatus".equals(action)) {
+            this.getLogUploadStatus(callbackContext);
+            return true;
+        } else if("setLogRateLimits".equals(action)) {
+            this.setLogRateLimits(args, callbackContext);
+            return true;
+        } else if("getLogRateLimitStats".equals(action)) {
+            this.getLogRateLimitStats(callbackContext);
+            return true;
+        } else if("subscribeLogLevel".equals(action)) {
+            this.subscribeLogLevel(callbackContext);
+            return true;
         }  else if("isSDKDebugLoggingEnabled".equals(action)) {
             this.isSDKDebugLoggingEnabled(callbackContext);
             return true;
@@ -73,59 +198,494 @@ public class CDVBMSLogger extends CordovaPlugin {
             String uncaughtExceptionFlag = String.valueOf(Logger.isUnCaughtExceptionDetected());
             callbackContext.success(uncaughtExceptionFlag);
             return true;
+        } else if("setUploadPolicy".equals(action)) {
+            UploadPolicy.getInstance(cordova.getActivity()).configure(args.getJSONObject(0));
+            callbackContext.success();
+            return true;
+        } else if("getUploadPolicyStatus".equals(action)) {
+            callbackContext.success(UploadPolicy.getInstance(cordova.getActivity()).getStatus());
+            return true;
         }  else if("send".equals(action)) {
             this.send(callbackContext);
             return true;
 
-        } else if("fatal".equals(action)) {
+        } else if("logBatch".equals(action)) {
+            this.logBatch(args, callbackContext);
+            return true;
+        } else if(isLogLevelAction(action)) {
             String packageName = args.getString(0);
             String message = args.getString(1);
 
-            Logger instance = Logger.getLogger(packageName);
-            instance.fatal(message);
+            writeLogEntry(action, packageName, message, System.currentTimeMillis());
 
             callbackContext.success();
             return true;
-        } else if("error".equals(action)) {
-            String packageName = args.getString(0);
-            String message = args.getString(1);
+        }
+        return false;
+    }
 
-            Logger instance = Logger.getLogger(packageName);
-            instance.error(message);
 
-            callbackContext.success();
-            return true;
-        } else if("warn".equals(action)) {
-            String packageName = args.getString(0);
-            String message = args.getString(1);
+    /**
+     * Writes a batch of log entries recorded by the Javascript layer in a single bridge crossing.
+     * Entries are written in the order they were logged in Javascript.
+     *
+     * @param args JSONArray that contains a JSONArray of [level, loggerName, message, timestamp] entries
+     * @param callbackContext Callback that receives the number of entries written
+     */
+    public void logBatch(final JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        JSONArray entries = args.getJSONArray(0);
+        int written = 0;
+
+        for (int i = 0; i < entries.length(); i++) {
+            LogEntry entry = LogEntry.fromJSON(entries.getJSONArray(i));
+            if (!isLogLevelAction(entry.level)) {
+                mfpLogger.debug("logBatch :: skipping entry with unknown level " + entry.level);
+                continue;
+            }
+            writeLogEntry(entry.level, entry.loggerName, entry.message, entry.timestamp);
+            written++;
+        }
 
-            Logger instance = Logger.getLogger(packageName);
-            instance.warn(message);
+        callbackContext.success(written);
+    }
 
-            callbackContext.success();
-            return true;
-        } else if("info".equals(action)) {
-            String packageName = args.getString(0);
-            String message = args.getString(1);
+    static boolean isLogLevelAction(String action) {
+        return "fatal".equals(action) || "error".equals(action) || "warn".equals(action)
+                || "info".equals(action) || "debug".equals(action);
+    }
 
-            Logger instance = Logger.getLogger(packageName);
-            instance.info(message);
+    /**
+     * Writes a single message, either inline or through the asynchronous writer when it is enabled.
+     * Messages rejected by the rate limiter are only counted.
+     *
+     * @param level One of fatal, error, warn, info or debug
+     * @param packageName The name of the Logger instance
+     * @param message The message to log
+     * @param timestamp The time the message was logged
+     */
+    static void writeLogEntry(String level, String packageName, String message, long timestamp) {
+        LogRateLimiter limiter = logRateLimiter;
+        if (limiter != null && !limiter.tryAcquire(level, packageName, System.currentTimeMillis())) {
+            return;
+        }
+        enqueueLogEntry(level, packageName, message, timestamp);
+    }
 
-            callbackContext.success();
-            return true;
-        } else if("debug".equals(action)) {
-            String packageName = args.getString(0);
-            String message = args.getString(1);
+    private static void enqueueLogEntry(String level, String packageName, String message, long timestamp) {
+        AsyncLogWriter writer = asyncLogWriter;
+        if (writer != null) {
+            writer.offer(level, packageName, message, timestamp);
+        } else {
+            persistLogEntry(level, packageName, message, timestamp);
+        }
+    }
 
-            Logger instance = Logger.getLogger(packageName);
+    /**
+     * Writes a single message to the segmented log store when it is enabled, or to the native Logger otherwise
+     */
+    static void persistLogEntry(String level, String packageName, String message, long timestamp) {
+        SegmentLogStore store = segmentLogStore;
+        if (store == null) {
+            writeToLogger(level, packageName, message);
+            return;
+        }
+        if (!isLoggable(level)) {
+            return;
+        }
+
+        try {
+            store.append(level, packageName, message, timestamp);
+        } catch (IOException e) {
+            writeToLogger(level, packageName, message);
+        }
+    }
+
+    /**
+     * Applies the native log level to messages that bypass the native Logger
+     */
+    static boolean isLoggable(String level) {
+        int threshold = levelPriority(String.valueOf(Logger.getLogLevel()));
+        int priority = levelPriority(level);
+        return threshold < 0 || priority < 0 || priority <= threshold;
+    }
+
+    private static int levelPriority(String level) {
+        if ("fatal".equalsIgnoreCase(level)) {
+            return 50;
+        } else if ("error".equalsIgnoreCase(level)) {
+            return 100;
+        } else if ("warn".equalsIgnoreCase(level)) {
+            return 200;
+        } else if ("info".equalsIgnoreCase(level)) {
+            return 300;
+        } else if ("debug".equalsIgnoreCase(level)) {
+            return 500;
+        }
+        return -1;
+    }
+
+    /**
+     * Writes a single message through the native Logger instance for the given package name
+     */
+    static void writeToLogger(String level, String packageName, String message) {
+        Logger instance = Logger.getLogger(packageName);
+
+        if ("fatal".equals(level)) {
+            instance.fatal(message);
+        } else if ("error".equals(level)) {
+            instance.error(message);
+        } else if ("warn".equals(level)) {
+            instance.warn(message);
+        } else if ("info".equals(level)) {
+            instance.info(message);
+        } else {
             instance.debug(message);
+        }
+    }
 
-            callbackContext.success();
-            return true;
+    /**
+     * Enables or disables asynchronous logging. When enabled, log messages are queued in a bounded ring buffer
+     * and written by a single background thread, so file I/O never runs on the thread that services plugin calls.
+     * Disabling it writes the entries still queued before returning to inline logging.
+     *
+     * @param args JSONArray that contains the enabled flag and optional {capacity, batchSize, overflowPolicy} options
+     * @param callbackContext
+     */
+    public void setAsyncLoggingEnabled(final JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        boolean enabled = args.getBoolean(0);
+        JSONObject options = args.optJSONObject(1);
+        if (options == null) {
+            options = new JSONObject();
         }
-        return false;
+
+        AsyncLogWriter previous;
+        synchronized (CDVBMSLogger.class) {
+            previous = asyncLogWriter;
+            if (enabled) {
+                AsyncLogWriter writer = new AsyncLogWriter(
+                        options.optInt("capacity", AsyncLogWriter.DEFAULT_CAPACITY),
+                        AsyncLogWriter.OverflowPolicy.fromString(options.optString("overflowPolicy", null)),
+                        options.optInt("batchSize", AsyncLogWriter.DEFAULT_BATCH_SIZE),
+                        loggerSink);
+                writer.start();
+                asyncLogWriter = writer;
+            } else {
+                asyncLogWriter = null;
+            }
+        }
+
+        if (previous != null) {
+            previous.shutdown();
+        }
+        callbackContext.success();
+    }
+
+    /**
+     * Returns the state of the asynchronous writer
+     * @param callbackContext Callback that receives {enabled, capacity, queued, written, dropped, overflowPolicy}
+     */
+    public void getAsyncLoggingStats(final CallbackContext callbackContext) throws JSONException {
+        AsyncLogWriter writer = asyncLogWriter;
+        JSONObject stats = new JSONObject();
+
+        stats.put("enabled", writer != null);
+        if (writer != null) {
+            stats.put("capacity", writer.capacity());
+            stats.put("queued", writer.size());
+            stats.put("written", writer.getWrittenCount());
+            stats.put("dropped", writer.getDroppedCount());
+            stats.put("overflowPolicy", writer.getOverflowPolicy().name());
+        }
+        callbackContext.success(stats);
+    }
+
+    /**
+     * Enables or disables the segmented log store. When enabled, messages logged from Javascript are appended to
+     * fixed-size memory-mapped segment files instead of the native Logger store.
+     *
+     * @param args JSONArray that contains the enabled flag and optional {segmentSize, maxSegments, uploadUrl} options
+     * @param callbackContext
+     */
+    public void setSegmentedLogStoreEnabled(final JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        boolean enabled = args.getBoolean(0);
+        JSONObject options = args.optJSONObject(1);
+        if (options == null) {
+            options = new JSONObject();
+        }
+
+        synchronized (CDVBMSLogger.class) {
+            SegmentLogStore previous = segmentLogStore;
+            segmentLogStore = null;
+            stopLogUploadScheduler();
+            if (previous != null) {
+                // Closed before a new store opens the same directory, appends still holding it fail from now on
+                previous.close();
+            }
+            if (enabled) {
+                File directory = new File(cordova.getActivity().getFilesDir(), "bmslogsegments");
+                try {
+                    segmentLogStore = new SegmentLogStore(directory,
+                            options.optInt("segmentSize", SegmentLogStore.DEFAULT_SEGMENT_SIZE),
+                            options.optInt("maxSegments", SegmentLogStore.DEFAULT_MAX_SEGMENTS));
+                    segmentUploadUrl = options.optString("uploadUrl", null);
+                } catch (IOException e) {
+                    mfpLogger.error("setSegmentedLogStoreEnabled :: failed to open log store. " + e.getMessage());
+                    callbackContext.error(e.getMessage());
+                    return;
+                }
+            }
+        }
+        callbackContext.success();
+    }
+
+    /**
+     * Returns the size of the segmented log store
+     * @param callbackContext Callback that receives {enabled, segments, sealedSegments, storedBytes, segmentSize, maxSegments}
+     */
+    public void getSegmentedLogStoreStats(final CallbackContext callbackContext) throws JSONException {
+        SegmentLogStore store = segmentLogStore;
+        JSONObject stats = new JSONObject();
+
+        stats.put("enabled", store != null);
+        if (store != null) {
+            stats.put("segments", store.getSegmentCount());
+            stats.put("sealedSegments", store.getSealedSegments().size());
+            stats.put("storedBytes", store.getStoredBytes());
+            stats.put("segmentSize", store.getSegmentSize());
+            stats.put("maxSegments", store.getMaxSegments());
+        }
+        callbackContext.success(stats);
+    }
+
+    /**
+     * Seals the active segment and uploads the sealed segments to the configured URL, one request per segment
+     * @param callbackContext Callback that receives {sentSegments, sentBytes}
+     */
+    public void sendLogSegments(final CallbackContext callbackContext) {
+        final SegmentLogStore store = segmentLogStore;
+        if (store == null) {
+            callbackContext.error("sendLogSegments(): Segmented log store is not enabled");
+            return;
+        }
+
+        final Context currentContext = cordova.getActivity();
+        final LogUploadScheduler scheduler = logUploadScheduler;
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                LogSegmentUploader.Listener listener = new LogSegmentUploader.Listener() {
+                    @Override
+                    public void onComplete(int sentSegments, long sentBytes) {
+                        try {
+                            JSONObject result = new JSONObject();
+                            result.put("sentSegments", sentSegments);
+                            result.put("sentBytes", sentBytes);
+                            callbackContext.success(result);
+                        } catch (JSONException e) {
+                            callbackContext.error(e.getMessage());
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(int sentSegments, long sentBytes, String error) {
+                        callbackContext.error("sendLogSegments(): Failed to send logs. " + error);
+                    }
+                };
+
+                if (scheduler != null) {
+                    scheduler.uploadNow(listener);
+                } else {
+                    new LogSegmentUploader(store, segmentUploadUrl).upload(currentContext, listener);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the result of the last crash-time flush of the native log and analytics buffers, and clears it
+     * @param callbackContext Callback that receives {timestamp, saved, dropped, durationMillis}, or null if no crash was recorded since the last call
+     */
+    public void getCrashFlushStats(final CallbackContext callbackContext) throws JSONException {
+        CrashFlushHandler handler = CrashFlushHandler.getInstance();
+        JSONObject stats = handler != null ? handler.takeLastFlushStats() : null;
+
+        if (stats != null) {
+            callbackContext.success(stats);
+        } else {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, (String) null));
+        }
+    }
+
+    /**
+     * Searches the segmented log store and returns one page of matching entries
+     *
+     * @param args JSONArray that contains {from, to, levels, logger, contains, pageSize, cursor}
+     * @param callbackContext Callback that receives {entries: [{timestamp, level, pkg, msg}], nextCursor}
+     */
+    public void queryLogs(final JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        final SegmentLogStore store = segmentLogStore;
+        if (store == null) {
+            callbackContext.error("queryLogs(): Segmented log store is not enabled");
+            return;
+        }
+
+        final JSONObject query = args.optJSONObject(0) != null ? args.getJSONObject(0) : new JSONObject();
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    callbackContext.success(new LogQuery(query).execute(store));
+                } catch (JSONException e) {
+                    callbackContext.error(e.getMessage());
+                } catch (IOException e) {
+                    mfpLogger.error("queryLogs :: failed to read log store. " + e.getMessage());
+                    callbackContext.error(e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules background uploads of the segmented log store. Uploads start when the store reaches thresholdBytes
+     * or its oldest entry is older than maxAge, are gzip-compressed, and back off exponentially after failures.
+     * Passing null stops the scheduled uploads.
+     *
+     * @param args JSONArray that contains {thresholdBytes, maxAge, checkInterval, compress, initialBackoff, maxBackoff} or null
+     * @param callbackContext
+     */
+    public void setLogUploadSchedule(final JSONArray args, final CallbackContext callbackContext) {
+        JSONObject options = args.optJSONObject(0);
+
+        synchronized (CDVBMSLogger.class) {
+            stopLogUploadScheduler();
+            if (options != null) {
+                SegmentLogStore store = segmentLogStore;
+                if (store == null) {
+                    callbackContext.error("setLogUploadSchedule(): Segmented log store is not enabled");
+                    return;
+                }
+                LogUploadScheduler scheduler = new LogUploadScheduler(cordova.getActivity().getApplicationContext(),
+                        store, segmentUploadUrl, options);
+                scheduler.start();
+                logUploadScheduler = scheduler;
+            }
+        }
+        callbackContext.success();
     }
 
+    /**
+     * Returns the state of the scheduled uploads
+     * @param callbackContext Callback that receives {scheduled, uploading, pendingBytes, consecutiveFailures, nextAttemptTime, lastUpload}
+     */
+    public void getLogUploadStatus(final CallbackContext callbackContext) throws JSONException {
+        LogUploadScheduler scheduler = logUploadScheduler;
+        JSONObject status = scheduler != null ? scheduler.getStatus() : new JSONObject();
+
+        status.put("scheduled", scheduler != null);
+        callbackContext.success(status);
+    }
+
+    private static void stopLogUploadScheduler() {
+        LogUploadScheduler scheduler = logUploadScheduler;
+        if (scheduler != null) {
+            scheduler.stop();
+            logUploadScheduler = null;
+        }
+    }
+
+    /**
+     * Configures per-logger rate limits and per-level sampling for messages logged from Javascript.
+     * Summaries of the suppressed messages are written every summaryInterval on a background thread.
+     * Passing null disables both and writes a final summary.
+     *
+     * @param args JSONArray that contains {ratePerSecond, burst, summaryInterval, loggers: {name: {ratePerSecond, burst}}, sampling: {level: rate}} or null
+     * @param callbackContext
+     */
+    public void setLogRateLimits(final JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        JSONObject config = args.optJSONObject(0);
+        LogRateLimiter limiter = config != null ? new LogRateLimiter(config, System.currentTimeMillis()) : null;
+        LogRateLimiter previous;
+        synchronized (CDVBMSLogger.class) {
+            previous = logRateLimiter;
+            logRateLimiter = limiter;
+            scheduleSummaries(limiter);
+        }
+        if (previous != null) {
+            previous.drainSummaries(System.currentTimeMillis(), true, suppressionSummaryWriter);
+        }
+        callbackContext.success();
+    }
+
+    /**
+     * Must be called while holding the class lock
+     */
+    private static void scheduleSummaries(final LogRateLimiter limiter) {
+        if (summaryFlush != null) {
+            summaryFlush.cancel(false);
+            summaryFlush = null;
+        }
+        if (limiter == null) {
+            return;
+        }
+        if (summaryExecutor == null) {
+            summaryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CDVBMSLogger-summaries");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        long interval = Math.max(limiter.getSummaryInterval(), MIN_SUMMARY_INTERVAL);
+        summaryFlush = summaryExecutor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                limiter.drainSummaries(System.currentTimeMillis(), true, suppressionSummaryWriter);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of suppressed messages, in total and per logger
+     * @param callbackContext Callback that receives {enabled, suppressed, loggers: {name: count}}
+     */
+    public void getLogRateLimitStats(final CallbackContext callbackContext) throws JSONException {
+        LogRateLimiter limiter = logRateLimiter;
+        JSONObject stats = limiter != null ? limiter.getStats() : new JSONObject();
+
+        stats.put("enabled", limiter != null);
+        callbackContext.success(stats);
+    }
+
+    /**
+     * Keeps the callback so the current log level and SDK debug flag can be pushed to the Javascript layer,
+     * which uses them to drop filtered messages before they cross the bridge.
+     * The current values are sent immediately.
+     *
+     * @param callbackContext Callback that receives {level, sdkDebugLoggingEnabled, internalPrefix} on every change
+     */
+    public void subscribeLogLevel(final CallbackContext callbackContext) {
+        logLevelCallbackContext = callbackContext;
+        this.publishLogLevel();
+    }
+
+    private void publishLogLevel() {
+        final CallbackContext subscriber = logLevelCallbackContext;
+        if (subscriber == null) {
+            return;
+        }
+
+        try {
+            JSONObject levelInfo = new JSONObject();
+            levelInfo.put("level", String.valueOf(Logger.getLogLevel()));
+            levelInfo.put("sdkDebugLoggingEnabled", Logger.isSDKDebugLoggingEnabled());
+            levelInfo.put("internalPrefix", Logger.INTERNAL_PREFIX);
+
+            PluginResult result = new PluginResult(PluginResult.Status.OK, levelInfo);
+            result.setKeepCallback(true);
+            subscriber.sendPluginResult(result);
+        } catch (JSONException e) {
+            mfpLogger.debug("publishLogLevel :: failed to generate JSON response");
+        }
+    }
 
     public void getMaxLogStoreSize(final CallbackContext callbackContext) {
         final int maxStoreSize = Logger.getMaxLogStoreSize();
@@ -174,9 +734,10 @@ public class CDVBMSLogger extends CordovaPlugin {
      * @param callbackContext Callback that will indicate whether the request succeeded or failed
      */
     public void send(final CallbackContext callbackContext) {
+        final UploadPolicy policy = UploadPolicy.getInstance(cordova.getActivity());
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
-                Logger.send(new ResponseListener() {
+                policy.submit("logger", loggerUploader, new ResponseListener() {
                     @Override
                     public void onSuccess(Response r) {
                         callbackContext.success("send(): Successfully sent logs");
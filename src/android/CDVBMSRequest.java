@@ -25,21 +25,98 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Map;
-import java.util.HashMap;
-import java.util.List;
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CDVBMSRequest extends CordovaPlugin {
 
     private static final Logger mfpRequestLogger = Logger.getLogger(Logger.INTERNAL_PREFIX + "CDVBMSRequest");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final AtomicLong deferredRequestSequence = new AtomicLong();
+    private static final AtomicLong expiredRequests = new AtomicLong();
+    private static final AtomicLong droppedRequests = new AtomicLong();
+    private static ConcurrencyLimiter limiter;
+    private static final Map<String, RequestTemplate> templates = new ConcurrentHashMap<String, RequestTemplate>();
+    private static final ConcurrentMap<String, EventStream> streams = new ConcurrentHashMap<String, EventStream>();
+
+    @Override
+    protected void pluginInitialize() {
+        MemoryTrimmer.install(cordova.getActivity()).register("trace", TraceRecorder.trimmable);
+    }
 
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
         if ("send".equals(action)) {
             this.send(args, callbackContext);
             return true;
+        } else if ("sendTemplate".equals(action)) {
+            this.sendTemplate(args, callbackContext);
+            return true;
+        } else if ("registerTemplate".equals(action)) {
+            templates.put(args.getString(0), RequestTemplate.compile(args.getJSONObject(1)));
+            callbackContext.success();
+            return true;
+        } else if ("configureInterceptors".equals(action)) {
+            JSONObject options = args.optJSONObject(0);
+            RequestInterceptors.configure(options != null ? options : new JSONObject());
+            callbackContext.success();
+            return true;
+        } else if ("setNetworkAnalytics".equals(action)) {
+            JSONObject options = args.optJSONObject(0);
+            NetworkEventRecorder.configure(options != null ? options : new JSONObject());
+            callbackContext.success();
+            return true;
+        } else if ("setConcurrencyLimit".equals(action)) {
+            JSONObject options = args.optJSONObject(0);
+            getLimiter().configure(options != null ? options : new JSONObject());
+            callbackContext.success();
+            return true;
+        } else if ("getConcurrencyStats".equals(action)) {
+            JSONObject stats = getLimiter().getStats();
+            stats.put("expired", expiredRequests.get());
+            stats.put("dropped", droppedRequests.get());
+            callbackContext.success(stats);
+            return true;
+        } else if ("stream".equals(action)) {
+            this.stream(args, callbackContext);
+            return true;
+        } else if ("pauseStream".equals(action) || "resumeStream".equals(action) || "closeStream".equals(action)) {
+            EventStream stream = streams.get(args.getString(0));
+            if (stream != null) {
+                if ("pauseStream".equals(action)) {
+                    stream.pause();
+                } else if ("resumeStream".equals(action)) {
+                    stream.resume();
+                } else {
+                    stream.close();
+                }
+            }
+            callbackContext.success();
+            return true;
+        } else if ("setTracing".equals(action)) {
+            JSONObject options = args.optJSONObject(0);
+            TraceRecorder.configure(options != null ? options : new JSONObject());
+            callbackContext.success();
+            return true;
+        } else if ("recordSpans".equals(action)) {
+            callbackContext.success(TraceRecorder.recordAll(args.getJSONArray(0)));
+            return true;
+        } else if ("exportSpans".equals(action)) {
+            this.exportSpans(args, callbackContext);
+            return true;
+        } else if ("flushSpansToLogger".equals(action)) {
+            callbackContext.success(flushSpansToLogger());
+            return true;
         }
         return false;
     }
@@ -48,24 +125,76 @@ public class CDVBMSRequest extends CordovaPlugin {
      * Responsible for converting a JSON request to a Bluemix Request, sending the request, receiving a Response, and converting it to a
      * JSON object that is sent back to the Javascript layer.
      *
+     * Requests marked deferrable are handed to the UploadPolicy and may wait for a better radio window.
+     * When the concurrency limiter is enabled, requests wait for a permit for their host and may be shed by priority.
+     * Traced requests carry a traceparent header and record their native spans in the TraceRecorder.
+     * Every request goes through the RequestInterceptors chain before it is sent and when it completes.
+     * A request with a deadline or maxQueueAge that cannot start in time fails without being sent, and its timeout
+     * is shortened to the time left before the deadline.
+     *
      * @param args            A JSONArray that contains the JSONObject with the request
      * @param callbackContext Callback that will indicate whether the request succeeded or failed
      */
     public void send(JSONArray args, final CallbackContext callbackContext) throws JSONException {
         JSONObject myrequest = args.getJSONObject(0);
+        TraceRecorder.RequestTrace trace = TraceRecorder.start(myrequest.optString("traceparent", null));
+        Request nativeRequest = RequestMarshaller.unpackJSONRequest(myrequest);
+        this.dispatch(myrequest, nativeRequest, trace, callbackContext);
+    }
 
+    /**
+     * Sends a request built from a registered template. Only the per-call parts are parsed.
+     *
+     * @param args            A JSONArray that contains the template name and a JSONObject with the optional
+     *                        pathParams, query, headers, body, priority, deferrable and traceparent of this call
+     * @param callbackContext Callback that will indicate whether the request succeeded or failed
+     */
+    public void sendTemplate(JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        String name = args.getString(0);
+        JSONObject call = args.optJSONObject(1) != null ? args.getJSONObject(1) : new JSONObject();
+        RequestTemplate template = templates.get(name);
+        if (template == null) {
+            callbackContext.error("Unknown request template: " + name);
+            return;
+        }
+        TraceRecorder.RequestTrace trace = TraceRecorder.start(call.optString("traceparent", null));
+        Request nativeRequest = template.newRequest(call);
+        this.dispatch(call, nativeRequest, trace, callbackContext);
+    }
+
+    private void dispatch(JSONObject myrequest, final Request nativeRequest, final TraceRecorder.RequestTrace trace,
+                          final CallbackContext callbackContext) {
         final Context currentContext = this.cordova.getActivity();
-        final Request nativeRequest = unpackJSONRequest(myrequest);
+        if (trace != null) {
+            nativeRequest.addHeader(TraceRecorder.TRACEPARENT_HEADER, trace.traceparent());
+            trace.unpacked();
+        }
         final String bodyText = myrequest.optString("body", "");
+        final boolean recordNetworkEvent = NetworkEventRecorder.shouldRecord();
+        final long startTime = System.currentTimeMillis();
+        final RequestDeadline deadline = RequestDeadline.fromRequest(myrequest, startTime);
+
+        final boolean deferrable = myrequest.optBoolean("deferrable", false);
+        final int priority = parsePriority(myrequest.optString("priority", "normal"));
+        final UploadPolicy policy = UploadPolicy.getInstance(currentContext);
 
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
-
-                nativeRequest.send(currentContext, bodyText, new ResponseListener() {
+                ResponseListener listener = new ResponseListener() {
                     @Override
                     public void onSuccess(Response response) {
+                        if (trace != null) {
+                            trace.received();
+                        }
+                        RequestInterceptors.onResponse(nativeRequest, response, null);
+                        if (recordNetworkEvent) {
+                            recordNetworkEvent(nativeRequest, bodyText, response, startTime, "success");
+                        }
                         try {
-                            PluginResult result = new PluginResult(PluginResult.Status.OK, packJavaResponseToJSON(response));
+                            PluginResult result = new PluginResult(PluginResult.Status.OK, RequestMarshaller.packJavaResponseToJSON(response));
+                            if (trace != null) {
+                                trace.finish(nativeRequest.getMethod(), nativeRequest.getUrl(), response.getStatus(), "success");
+                            }
                             mfpRequestLogger.debug("Request successful.");
                             callbackContext.sendPluginResult(result);
                         } catch (JSONException e) {
@@ -75,164 +204,434 @@ public class CDVBMSRequest extends CordovaPlugin {
 
                     @Override
                     public void onFailure(Response failResponse, Throwable t, JSONObject extendedInfo) {
+                        if (trace != null) {
+                            trace.received();
+                        }
+                        RequestInterceptors.onResponse(nativeRequest, failResponse, t);
+                        String outcome = failureOutcome(failResponse, t);
+                        if (recordNetworkEvent) {
+                            recordNetworkEvent(nativeRequest, bodyText, failResponse, startTime, outcome);
+                        }
                         try {
-                            PluginResult result = new PluginResult(PluginResult.Status.ERROR, packJavaResponseToJSON(failResponse, t, extendedInfo));
+                            PluginResult result = new PluginResult(PluginResult.Status.ERROR, RequestMarshaller.packJavaResponseToJSON(failResponse, t, extendedInfo));
+                            if (trace != null) {
+                                trace.finish(nativeRequest.getMethod(), nativeRequest.getUrl(),
+                                        failResponse != null ? failResponse.getStatus() : 0, outcome);
+                            }
                             mfpRequestLogger.error("Failed to send request.");
                             callbackContext.sendPluginResult(result);
                         } catch (JSONException e) {
                             callbackContext.error(e.getMessage());
                         }
                     }
-                });
+                };
+
+                if (!startsBeforeDeadline(nativeRequest, deadline, listener)) {
+                    return;
+                }
+                // The request may be challenged, so a deferred authorization manager must exist before it is sent
+                CDVBMSAuthorizationManager.ensureInitialized(currentContext);
+                RequestInterceptors.onRequest(currentContext, nativeRequest);
 
+                if (deferrable) {
+                    policy.submit("request-" + deferredRequestSequence.incrementAndGet(), new UploadPolicy.Uploader() {
+                        @Override
+                        public void send(ResponseListener listener) {
+                            sendThroughLimiter(nativeRequest, currentContext, bodyText, priority, deadline, trace, listener);
+                        }
+                    }, listener);
+                } else {
+                    sendThroughLimiter(nativeRequest, currentContext, bodyText, priority, deadline, trace, listener);
+                    // The radio is awake for this request, so deferred background traffic can ride along
+                    policy.onForegroundRequest();
+                }
             }
         });
     }
 
+    private ConcurrencyLimiter getLimiter() {
+        return getLimiter(cordova.getThreadPool());
+    }
 
     /**
-     * Unpacks a JSONObject to create a native Bluemix Request
-     *
-     * @param jsRequest JSON request that will be converted to a native Bluemix Request Object
-     * @return nativeRequest The converted Bluemix Request Object
+     * Returns the process-wide limiter, so every plugin instance shares the per-host limits and stats
      */
-    @SuppressWarnings("unchecked")
-    private Request unpackJSONRequest(JSONObject jsRequest) throws JSONException {
-        //Parse request from Javascript
-        String url = jsRequest.getString("url");
-        String method = jsRequest.getString("method");
-        int timeout = jsRequest.optInt("timeout", Request.DEFAULT_TIMEOUT);
+    private static synchronized ConcurrencyLimiter getLimiter(Executor executor) {
+        if (limiter == null) {
+            limiter = new ConcurrencyLimiter(executor, ConcurrencyLimiter.SYSTEM_CLOCK);
+        }
+        return limiter;
+    }
 
-        //Build request using the native Android SDK
-        Request nativeRequest = new Request(url, method, timeout);
+    private static int parsePriority(String priority) {
+        if ("high".equals(priority)) {
+            return ConcurrencyLimiter.PRIORITY_HIGH;
+        } else if ("low".equals(priority)) {
+            return ConcurrencyLimiter.PRIORITY_LOW;
+        }
+        return ConcurrencyLimiter.PRIORITY_NORMAL;
+    }
 
-        if (jsRequest.has("headers") && !jsRequest.isNull("headers")) {
-            Map<String, List<String>> headers = convertJSONtoHashMap(jsRequest.getJSONObject("headers"), true);
-            nativeRequest.setHeaders(headers);
+    /**
+     * Sends the request, after waiting for a permit from the concurrency limiter when it is enabled.
+     * Timeouts, connection failures and 429 or 503 responses tell the limiter that the path is overloaded.
+     */
+    private void sendThroughLimiter(final Request nativeRequest, final Context context, final String bodyText, int priority,
+                                    final RequestDeadline deadline, final TraceRecorder.RequestTrace trace,
+                                    final ResponseListener listener) {
+        // Deferred requests may have waited for a radio window since the deadline was last checked
+        if (!startsBeforeDeadline(nativeRequest, deadline, listener)) {
+            return;
         }
-        if (jsRequest.has("queryParameters") && !jsRequest.isNull("queryParameters")) {
-            Map<String, String> queryParameters = convertJSONtoHashMap(jsRequest.getJSONObject("queryParameters"), false);
-            nativeRequest.setQueryParameters(queryParameters);
+        ConcurrencyLimiter currentLimiter = getLimiter();
+        if (!currentLimiter.isEnabled()) {
+            if (trace != null) {
+                trace.sent();
+            }
+            nativeRequest.send(context, bodyText, listener);
+            return;
         }
 
-        return nativeRequest;
+        String host;
+        try {
+            host = String.valueOf(new URI(nativeRequest.getUrl()).getHost());
+        } catch (URISyntaxException e) {
+            host = "";
+        }
+
+        long startWithin = deadline.nanosUntilStart(System.currentTimeMillis());
+        currentLimiter.submit(host, priority, startWithin == RequestDeadline.NONE ? ConcurrencyLimiter.NO_DEADLINE : startWithin,
+                new ConcurrencyLimiter.Task() {
+            @Override
+            public void run(final ConcurrencyLimiter.Permit permit) {
+                if (!startsBeforeDeadline(nativeRequest, deadline, listener)) {
+                    permit.abandon();
+                    return;
+                }
+                if (trace != null) {
+                    trace.sent();
+                }
+                nativeRequest.send(context, bodyText, new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        permit.release(isOverloaded(response));
+                        listener.onSuccess(response);
+                    }
+
+                    @Override
+                    public void onFailure(Response response, Throwable t, JSONObject extendedInfo) {
+                        permit.release(response == null || isOverloaded(response));
+                        listener.onFailure(response, t, extendedInfo);
+                    }
+                });
+            }
+
+            @Override
+            public void onShed(String reason, boolean expired) {
+                mfpRequestLogger.debug("sendThroughLimiter :: " + reason);
+                if (expired) {
+                    expiredRequests.incrementAndGet();
+                    listener.onFailure(null, new RequestDeadline.ExceededException(reason), null);
+                } else {
+                    droppedRequests.incrementAndGet();
+                    listener.onFailure(null, new ConcurrencyLimiter.ShedException(reason), null);
+                }
+            }
+        });
     }
 
     /**
-     * Overloading, Handles the case of a failure and response is null.
+     * Fails the request if it can no longer start before its deadline, otherwise shortens its timeout to the time left
      *
-     * @param response The native Bluemix Response that will be converted to a JSONObject, May be null if the request did not reach the server.
-     * @param t        Exception that could have caused the request to fail. null if no Exception thrown.
-     * @param extendedInfo Contains details regarding operational failure. null if no operational failure occurred.
-     * @return The String representation of the JSONObject
+     * @return false if the request expired and must not be sent
      */
-
-    private String packJavaResponseToJSON(Response response, Throwable t, JSONObject extendedInfo) throws JSONException {
-        if (response != null)
-            return packJavaResponseToJSON(response);
-        if (extendedInfo != null){
-            //extendedinfo contains errorCode and msg, converting that into errorCode and errorDescription according to the format we use.
-            JSONObject jsonResponse = new JSONObject();
-            jsonResponse.put("errorCode", extendedInfo.get("errorCode"));
-            jsonResponse.put("errorDescription",extendedInfo.get("msg"));
-            return jsonResponse.toString();
+    private static boolean startsBeforeDeadline(Request nativeRequest, RequestDeadline deadline, ResponseListener listener) {
+        if (!deadline.isBounded()) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (!deadline.canStart(now)) {
+            expiredRequests.incrementAndGet();
+            mfpRequestLogger.debug("startsBeforeDeadline :: dropping expired request to " + nativeRequest.getUrl());
+            listener.onFailure(null, new RequestDeadline.ExceededException("Request deadline passed before the request could be sent"), null);
+            return false;
         }
-        if (t != null)
-            return packJavaThrowableToJSON(t);
-        return null;
+        nativeRequest.setTimeout(deadline.timeoutFor(nativeRequest.getTimeout(), now));
+        return true;
+    }
+
+    private static boolean isOverloaded(Response response) {
+        return response != null && (response.getStatus() == 429 || response.getStatus() == 503);
     }
+
     /**
-     * Packs a exception into a JSONObject
+     * Opens a long-lived streaming request. Every frame is sent to the same kept callback:
+     * {type: "open", status}, {type: "events", events: [{id, event, data}]}, {type: "error", message, reconnectIn},
+     * and finally {type: "closed"}. Every connection attempt goes through the request interceptors and carries the trace header.
+     * Unless the request sets its own, an Authorization header is added from the authorization manager cache, and refreshed
+     * once when the server answers 401.
      *
-     * @param t Exception that could have caused the request to fail. null if no Exception thrown.
-     * @return jsonException The String representation of the JSONObject
+     * @param args            JSONArray that contains the streamId and the JSONObject with the request, whose "stream" member holds the
+     *                        format ("sse" or "ndjson"), bufferSize, retry, reconnect, idleTimeout and lastEventId
+     * @param callbackContext Callback that receives the stream frames
      */
-    private String packJavaThrowableToJSON(Throwable t) throws JSONException{
-        mfpRequestLogger.debug("packJavaThrowableToJSON");
-        JSONObject jsonException = new JSONObject();
-        jsonException.put("errorCode", "Exception: request failure");
-        if(t.getMessage() != null)
-            jsonException.put("errorDescription", t.getMessage());
-        else
-            jsonException.put("errorDescription",t.toString());
+    public void stream(JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        final String streamId = args.getString(0);
+        final JSONObject myrequest = args.getJSONObject(1);
+        final Context currentContext = this.cordova.getActivity();
+
+        JSONObject headers = myrequest.optJSONObject("headers");
+        TraceRecorder.RequestTrace trace = TraceRecorder.start(myrequest.optString("traceparent", null));
+        boolean managedAuthorization = headers == null || !StreamConnector.hasHeader(headers.keys(), "Authorization");
+        StreamConnector connector = new StreamConnector(currentContext, trace, managedAuthorization);
+        StreamCallback listener = new StreamCallback(streamId, callbackContext);
+        final EventStream stream = new EventStream(myrequest, listener, connector);
+        listener.stream = stream;
+
+        EventStream previous = streams.put(streamId, stream);
+        if (previous != null) {
+            previous.close();
+        }
 
-        return jsonException.toString();
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                stream.start(streamId);
+            }
+        });
     }
 
     /**
-     * Packs a Bluemix Response object into a JSONObject
-     *
-     * @param response The native Bluemix Response that will be converted to a JSONObject
-     * @return jsonResponse The String representation of the JSONObject
+     * Gives every connection attempt of a stream the headers a BMSRequest would get. The stream reads its response
+     * incrementally, which the native Request cannot do, so the interceptors run on a Request that is never sent
+     * and its headers are copied to the connection. Interceptors see a null response for a stream.
      */
-    static String packJavaResponseToJSON(Response response) throws JSONException {
-        mfpRequestLogger.debug("packJavaResponseToJSON");
-        if (response != null) {
-            JSONObject jsonResponse = new JSONObject();
+    private static final class StreamConnector implements EventStream.Connector {
+        private final Context context;
+        private final TraceRecorder.RequestTrace trace;
+        private final boolean managedAuthorization;
+        private Request request;
+
+        StreamConnector(Context context, TraceRecorder.RequestTrace trace, boolean managedAuthorization) {
+            this.context = context;
+            this.trace = trace;
+            this.managedAuthorization = managedAuthorization;
+        }
+
+        @Override
+        public void beforeConnect(String url, String method, Map<String, String> headers) {
+            if (managedAuthorization && !hasHeader(headers.keySet().iterator(), "Authorization")) {
+                String authorization = CDVBMSAuthorizationManager.getCachedAuthorizationHeader(context);
+                if (authorization != null) {
+                    headers.put("Authorization", authorization);
+                }
+            }
+            if (trace != null) {
+                headers.put(TraceRecorder.TRACEPARENT_HEADER, trace.traceparent());
+            }
+
+            request = new Request(url, method);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.addHeader(header.getKey(), header.getValue());
+            }
+            RequestInterceptors.onRequest(context, request);
+            Map<String, List<String>> intercepted = request.getAllHeaders();
+            if (intercepted == null) {
+                return;
+            }
+            for (Map.Entry<String, List<String>> header : intercepted.entrySet()) {
+                List<String> values = header.getValue();
+                if (header.getKey() != null && values != null && !values.isEmpty()) {
+                    // A connection sends one value per header, repeated headers are combined as HTTP allows
+                    StringBuilder value = new StringBuilder(values.get(0));
+                    for (int i = 1; i < values.size(); i++) {
+                        value.append(", ").append(values.get(i));
+                    }
+                    headers.put(header.getKey(), value.toString());
+                }
+            }
+        }
+
+        /**
+         * Header names are case-insensitive
+         */
+        static boolean hasHeader(Iterator<?> names, String name) {
+            while (names.hasNext()) {
+                if (name.equalsIgnoreCase(String.valueOf(names.next()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
 
-            int status = (response.getStatus() != 0) ? response.getStatus() : 0;
-            String responseText = (response.getResponseText() != null) ? response.getResponseText() : "";
-            JSONObject responseHeaders = (response.getHeaders() != null) ? convertHashMaptoJSON(response.getHeaders()) : null;
+        @Override
+        public void afterConnect(int status, Throwable failure) {
+            Request current = request;
+            if (current != null) {
+                RequestInterceptors.onResponse(current, null, failure);
+            }
+        }
 
-            if (response.getStatus() == 0 || response.getStatus() >= 400) {
-                jsonResponse.put("errorCode", status);
-                jsonResponse.put("errorDescription", responseText);
-            } else {
-                jsonResponse.put("status", status);
-                jsonResponse.put("responseText", responseText);
+        @Override
+        public String refreshAuthorization(int status, Map<String, List<String>> responseHeaders) {
+            if (!managedAuthorization) {
+                return null;
             }
-            jsonResponse.put("responseHeaders", responseHeaders);
-            return jsonResponse.toString();
-        } else {
-            return null;
+            return CDVBMSAuthorizationManager.refreshAuthorizationHeader(context, status, responseHeaders);
         }
     }
 
     /**
-     * Converts a HashMap<String, List<String>> to a JSONObject
-     *
-     * @param originalMap A hashmap that will be converted to a JSONObject
-     * @return convertedJSON The converted JSONObject
+     * Forwards the frames of one stream to its kept callback
      */
-    private static JSONObject convertHashMaptoJSON(Map<String, List<String>> originalMap) throws JSONException {
-        JSONObject convertedJSON = new JSONObject();
-        Iterator<Map.Entry<String, List<String>>> it = originalMap.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, List<String>> pair = it.next();
-            String key = pair.getKey();
-            List<String> headerValuesList = pair.getValue();
-            for (String headerValue : headerValuesList) {
-                convertedJSON.put(key, headerValue);
+    private static final class StreamCallback implements EventStream.Listener {
+        private final String streamId;
+        private final CallbackContext callbackContext;
+        EventStream stream;
+
+        StreamCallback(String streamId, CallbackContext callbackContext) {
+            this.streamId = streamId;
+            this.callbackContext = callbackContext;
+        }
+
+        @Override
+        public void onOpen(int status) {
+            send(frame("open", "status", status), true);
+        }
+
+        @Override
+        public void onEvents(JSONArray events) {
+            send(frame("events", "events", events), true);
+        }
+
+        @Override
+        public void onError(String message, long reconnectIn) {
+            mfpRequestLogger.debug("stream :: " + streamId + " " + message + ", reconnecting in " + reconnectIn + " ms");
+            send(frame("error", "message", message, "reconnectIn", reconnectIn), true);
+        }
+
+        @Override
+        public void onClosed() {
+            // A stream opened again with the same id replaces this one in the map
+            streams.remove(streamId, stream);
+            send(frame("closed"), false);
+        }
+
+        /**
+         * @param members Alternating names and values
+         */
+        private static JSONObject frame(String type, Object... members) {
+            JSONObject frame = new JSONObject();
+            try {
+                frame.put("type", type);
+                for (int i = 0; i + 1 < members.length; i += 2) {
+                    frame.put((String) members[i], members[i + 1]);
+                }
+            } catch (JSONException e) {
+                // Values above are always valid JSON
             }
+            return frame;
+        }
+
+        private void send(JSONObject frame, boolean keepCallback) {
+            PluginResult result = new PluginResult(PluginResult.Status.OK, frame);
+            result.setKeepCallback(keepCallback);
+            callbackContext.sendPluginResult(result);
         }
-        return convertedJSON;
     }
 
     /**
-     * Converts a JSONObject to a HashMap
+     * Closes the open streams when the page is reloaded, their callbacks belong to the previous page
+     */
+    @Override
+    public void onReset() {
+        for (EventStream stream : streams.values()) {
+            stream.close();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        onReset();
+    }
+
+    /**
+     * Exports the buffered spans as a JSON array, either to a file in the application files directory or to the callback
      *
-     * @param originalJSON A JSONObject that will be converted to a Hashmap
-     * @return convertedMap The converted HashMap
+     * @param args            JSONArray that contains an optional JSONObject {fileName, clear}
+     * @param callbackContext Callback that receives {count, dropped, path} when a file was written, or {count, dropped, spans}
      */
-    private static Map convertJSONtoHashMap(JSONObject originalJSON, boolean wrapInList) throws JSONException {
-        Map<String, Object> convertedMap = new HashMap<String, Object>();
-
-        Iterator<?> keys = originalJSON.keys();
-        while (keys.hasNext()) {
-            String key = (String) keys.next();
-            // Detects String => [List of Strings]
-            if (originalJSON.get(key) instanceof String) {
-                if(wrapInList) {
-                    // For headers, we will wrap the string value in an arraylist
-                    // since the Android SDK takes in a <String, List<String>> to set its headers.
-                    ArrayList<String> headerValue = new ArrayList<String>();
-                    headerValue.add(originalJSON.getString(key));
-                    convertedMap.put(key, headerValue);
-                } else {
-                    convertedMap.put(key, originalJSON.getString(key));
+    public void exportSpans(JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        JSONObject options = args.optJSONObject(0);
+        final String fileName = options != null ? options.optString("fileName", "") : "";
+        final boolean clear = options != null && options.optBoolean("clear", false);
+
+        if (fileName.length() > 0 && (fileName.contains("/") || fileName.contains(".."))) {
+            callbackContext.error("Invalid span export file name: " + fileName);
+            return;
+        }
+
+        final Context currentContext = this.cordova.getActivity();
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    JSONArray spans = TraceRecorder.export(clear);
+                    JSONObject result = new JSONObject();
+                    result.put("count", spans.length());
+                    result.put("dropped", TraceRecorder.getDroppedCount());
+                    if (fileName.length() > 0) {
+                        File file = new File(currentContext.getFilesDir(), fileName);
+                        TraceRecorder.exportToFile(file, spans);
+                        result.put("path", file.getAbsolutePath());
+                    } else {
+                        result.put("spans", spans);
+                    }
+                    callbackContext.success(result);
+                } catch (JSONException e) {
+                    callbackContext.error(e.getMessage());
+                } catch (IOException e) {
+                    mfpRequestLogger.error("exportSpans :: Failed to write " + fileName + ". " + e.getMessage());
+                    callbackContext.error(e.getMessage());
                 }
             }
+        });
+    }
+
+    /**
+     * Writes the buffered spans to the log store, one info message per span, and clears the buffer
+     *
+     * @return the number of spans written
+     */
+    private static int flushSpansToLogger() throws JSONException {
+        JSONArray spans = TraceRecorder.export(true);
+        for (int i = 0; i < spans.length(); i++) {
+            JSONObject span = spans.getJSONObject(i);
+            CDVBMSLogger.writeLogEntry("info", TraceRecorder.LOGGER_NAME, span.toString(), span.getLong("startTime"));
         }
-        return convertedMap;
+        return spans.length();
+    }
+
+    /**
+     * @return "failure" for an HTTP error status, "expired" or "shed" for a request dropped before it was sent,
+     * otherwise "error"
+     */
+    private static String failureOutcome(Response failResponse, Throwable t) {
+        if (failResponse != null) {
+            return "failure";
+        } else if (t instanceof RequestDeadline.ExceededException) {
+            return "expired";
+        } else if (t instanceof ConcurrencyLimiter.ShedException) {
+            return "shed";
+        }
+        return "error";
+    }
+
+    private static void recordNetworkEvent(Request request, String bodyText, Response response,
+                                           long startTime, String outcome) {
+        long duration = System.currentTimeMillis() - startTime;
+        int status = response != null ? response.getStatus() : 0;
+        byte[] responseBytes = response != null ? response.getResponseBytes() : null;
+
+        NetworkEventRecorder.record(request.getUrl(), request.getMethod(), status,
+                bodyText.getBytes(UTF_8).length, responseBytes != null ? responseBytes.length : 0, duration, outcome);
     }
-}
\ No newline at end of file
+}
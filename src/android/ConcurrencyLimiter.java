@@ -0,0 +1,514 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of in-flight requests per host with a limit driven by the observed round trip time.
+ * A short-term RTT average is compared with a long-term one: while they agree the limit grows by about sqrt(limit)
+ * per update, and when requests start queueing on the path the short-term RTT rises and the limit shrinks in
+ * proportion, down to half per update. A request that times out or is rejected with 429 or 503 cuts the limit by
+ * backoffRatio, at most once per RTT. Requests over the limit wait in a per-host queue ordered by priority.
+ * When the queue is full the newest request of the lowest priority is shed. A queued request whose start deadline
+ * passes is removed from the queue without taking a permit, by a timer set for the earliest queued deadline.
+ *
+ * Kept free of Cordova and Android dependencies, the clock, executor and timer are injected so the limiter can be driven
+ * by a simulated latency source.
+ */
+final class ConcurrencyLimiter {
+
+    static final int PRIORITY_LOW = 0;
+    static final int PRIORITY_NORMAL = 1;
+    static final int PRIORITY_HIGH = 2;
+
+    static final int DEFAULT_INITIAL_LIMIT = 4;
+    static final int DEFAULT_MIN_LIMIT = 1;
+    static final int DEFAULT_MAX_LIMIT = 32;
+    static final int DEFAULT_MAX_QUEUE = 64;
+    static final double DEFAULT_BACKOFF_RATIO = 0.75;
+    static final double DEFAULT_RTT_TOLERANCE = 1.5;
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final int SHORT_RTT_WINDOW = 8;
+    private static final int LONG_RTT_WINDOW = 100;
+    private static final double LIMIT_SMOOTHING = 0.2;
+
+    interface Clock {
+        long nanoTime();
+    }
+
+    interface Timer {
+        /**
+         * Runs the task once, delayNanos from now on the clock of the limiter
+         */
+        void schedule(Runnable task, long delayNanos);
+    }
+
+    /**
+     * Passed to the failure callback of a request shed from a full queue
+     */
+    static final class ShedException extends Exception {
+        ShedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A request waiting for a permit. Exactly one of the two methods is called.
+     */
+    interface Task {
+        /**
+         * Called from the executor. The task must release the permit when its request completes.
+         */
+        void run(Permit permit);
+
+        /**
+         * Called when the request is shed from a full queue, or when its start deadline passed while it was queued
+         *
+         * @param expired true if the start deadline passed
+         */
+        void onShed(String reason, boolean expired);
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    static final Timer SYSTEM_TIMER = new Timer() {
+        private ScheduledExecutorService scheduler;
+
+        @Override
+        public synchronized void schedule(Runnable task, long delayNanos) {
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "CDVBMSRequest-limiter-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    };
+
+    private final Executor executor;
+    private final Clock clock;
+    private final Timer timer;
+    private final Map<String, HostLimit> hosts = new HashMap<String, HostLimit>();
+
+    // Time of the earliest scheduled expiry check, NO_DEADLINE if none is scheduled
+    private long reapAtNanos = NO_DEADLINE;
+
+    private final Runnable reaper = new Runnable() {
+        public void run() {
+            reapExpired();
+        }
+    };
+
+    private volatile boolean enabled;
+    private int initialLimit = DEFAULT_INITIAL_LIMIT;
+    private int minLimit = DEFAULT_MIN_LIMIT;
+    private int maxLimit = DEFAULT_MAX_LIMIT;
+    private int maxQueue = DEFAULT_MAX_QUEUE;
+    private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+    private double rttTolerance = DEFAULT_RTT_TOLERANCE;
+
+    ConcurrencyLimiter(Executor executor, Clock clock) {
+        this(executor, clock, SYSTEM_TIMER);
+    }
+
+    ConcurrencyLimiter(Executor executor, Clock clock, Timer timer) {
+        this.executor = executor;
+        this.clock = clock;
+        this.timer = timer;
+    }
+
+    /**
+     * @param options {enabled, initialLimit, minLimit, maxLimit, maxQueue, backoffRatio, rttTolerance}
+     */
+    synchronized void configure(JSONObject options) {
+        enabled = options.optBoolean("enabled", enabled);
+        minLimit = Math.max(options.optInt("minLimit", minLimit), 1);
+        maxLimit = Math.max(options.optInt("maxLimit", maxLimit), minLimit);
+        initialLimit = Math.min(Math.max(options.optInt("initialLimit", initialLimit), minLimit), maxLimit);
+        maxQueue = Math.max(options.optInt("maxQueue", maxQueue), 0);
+        backoffRatio = Math.min(Math.max(options.optDouble("backoffRatio", backoffRatio), 0.1), 1.0);
+        rttTolerance = Math.max(options.optDouble("rttTolerance", rttTolerance), 1.0);
+        for (HostLimit host : hosts.values()) {
+            host.limit = Math.min(Math.max(host.limit, minLimit), maxLimit);
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs the task as soon as the host has a free permit
+     *
+     * @param priority One of PRIORITY_LOW, PRIORITY_NORMAL or PRIORITY_HIGH
+     */
+    void submit(String host, int priority, Task task) {
+        submit(host, priority, NO_DEADLINE, task);
+    }
+
+    /**
+     * Runs the task as soon as the host has a free permit, or sheds it if no permit is free within startWithinNanos
+     *
+     * @param priority         One of PRIORITY_LOW, PRIORITY_NORMAL or PRIORITY_HIGH
+     * @param startWithinNanos Longest time the task may wait for a permit, NO_DEADLINE to wait forever
+     */
+    void submit(String host, int priority, long startWithinNanos, Task task) {
+        priority = Math.min(Math.max(priority, PRIORITY_LOW), PRIORITY_HIGH);
+        List<Permit> granted = null;
+        List<Queued> expired = new ArrayList<Queued>(0);
+        Queued shed = null;
+        synchronized (this) {
+            HostLimit limit = hostLimit(host);
+            long now = clock.nanoTime();
+            long deadline = startWithinNanos == NO_DEADLINE || now + startWithinNanos < now ? NO_DEADLINE : now + startWithinNanos;
+            limit.queues[priority].addLast(new Queued(task, now, deadline));
+            limit.queued++;
+            limit.maxQueued = Math.max(limit.maxQueued, limit.queued);
+
+            limit.removeExpired(now, expired);
+            if (limit.queued > maxQueue && limit.inFlight >= (int) limit.limit) {
+                shed = limit.shedLowest();
+            }
+            granted = grant(limit, expired);
+            if (deadline != NO_DEADLINE && limit.queued > 0) {
+                scheduleReap(now, deadline);
+            }
+        }
+        if (shed != null) {
+            shed.task.onShed("Request shed by the concurrency limiter, too many requests queued for " + host, false);
+        }
+        notifyExpired(host, expired);
+        run(granted);
+    }
+
+    /**
+     * Permit for one in-flight request
+     */
+    final class Permit {
+        private final HostLimit limit;
+        private final Task task;
+        private final long startNanos;
+        private boolean released;
+
+        Permit(HostLimit limit, Task task, long startNanos) {
+            this.limit = limit;
+            this.task = task;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * @param overloaded true if the request timed out, failed to connect or was rejected with 429 or 503
+         */
+        void release(boolean overloaded) {
+            release(overloaded, true);
+        }
+
+        /**
+         * Releases the permit of a request that was not sent, without taking an RTT sample
+         */
+        void abandon() {
+            release(false, false);
+        }
+
+        private void release(boolean overloaded, boolean sample) {
+            List<Permit> granted;
+            List<Queued> expired = new ArrayList<Queued>(0);
+            synchronized (ConcurrencyLimiter.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                long now = clock.nanoTime();
+                limit.inFlight--;
+                if (sample) {
+                    limit.onSample(now, now - startNanos, overloaded);
+                }
+                limit.removeExpired(now, expired);
+                granted = grant(limit, expired);
+            }
+            notifyExpired(limit.host, expired);
+            run(granted);
+        }
+    }
+
+    /**
+     * @return {enabled, hosts: {host: {limit, inFlight, queued, maxQueued, shortRttMillis, longRttMillis, completed,
+     * overloaded, shed, expired, averageQueueMillis}}}
+     */
+    synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("enabled", enabled);
+        JSONObject hostStats = new JSONObject();
+        for (Map.Entry<String, HostLimit> entry : hosts.entrySet()) {
+            HostLimit limit = entry.getValue();
+            JSONObject host = new JSONObject();
+            host.put("limit", (int) limit.limit);
+            host.put("inFlight", limit.inFlight);
+            host.put("queued", limit.queued);
+            host.put("maxQueued", limit.maxQueued);
+            host.put("shortRttMillis", limit.shortRttNanos / 1e6);
+            host.put("longRttMillis", limit.longRttNanos / 1e6);
+            host.put("completed", limit.completed);
+            host.put("overloaded", limit.overloaded);
+            host.put("shed", limit.shed);
+            host.put("expired", limit.expired);
+            host.put("averageQueueMillis", limit.dequeued == 0 ? 0 : limit.queueNanos / limit.dequeued / 1e6);
+            hostStats.put(entry.getKey(), host);
+        }
+        stats.put("hosts", hostStats);
+        return stats;
+    }
+
+    /**
+     * Current limit for the host, for tests and simulations
+     */
+    synchronized int getLimit(String host) {
+        HostLimit limit = hosts.get(host);
+        return limit != null ? (int) limit.limit : initialLimit;
+    }
+
+    /**
+     * Must be called while holding the lock
+     */
+    private HostLimit hostLimit(String host) {
+        HostLimit limit = hosts.get(host);
+        if (limit == null) {
+            limit = new HostLimit(host, initialLimit);
+            hosts.put(host, limit);
+        }
+        return limit;
+    }
+
+    /**
+     * Must be called while holding the lock
+     */
+    private List<Permit> grant(HostLimit limit, List<Queued> expired) {
+        List<Permit> granted = null;
+        long now = clock.nanoTime();
+        while (limit.inFlight < (int) limit.limit && limit.queued > 0) {
+            Queued next = limit.pollHighest();
+            if (next.deadlineNanos <= now) {
+                limit.expired++;
+                expired.add(next);
+                continue;
+            }
+            limit.inFlight++;
+            limit.dequeued++;
+            limit.queueNanos += now - next.enqueuedNanos;
+
+            Permit permit = new Permit(limit, next.task, now);
+            if (granted == null) {
+                granted = new ArrayList<Permit>();
+            }
+            granted.add(permit);
+        }
+        return granted;
+    }
+
+    /**
+     * Must be called while holding the lock
+     */
+    private void scheduleReap(long now, long deadline) {
+        if (deadline >= reapAtNanos) {
+            return;
+        }
+        reapAtNanos = deadline;
+        timer.schedule(reaper, Math.max(deadline - now, 0));
+    }
+
+    /**
+     * Fails the queued requests whose start deadline passed, even while every permit of their host is held by slow
+     * requests, then sets the timer for the next queued deadline
+     */
+    private void reapExpired() {
+        Map<String, List<Queued>> expiredByHost = new HashMap<String, List<Queued>>();
+        synchronized (this) {
+            long now = clock.nanoTime();
+            reapAtNanos = NO_DEADLINE;
+            long next = NO_DEADLINE;
+            for (Map.Entry<String, HostLimit> entry : hosts.entrySet()) {
+                List<Queued> expired = new ArrayList<Queued>(0);
+                entry.getValue().removeExpired(now, expired);
+                if (!expired.isEmpty()) {
+                    expiredByHost.put(entry.getKey(), expired);
+                }
+                next = Math.min(next, entry.getValue().earliestDeadline());
+            }
+            if (next != NO_DEADLINE) {
+                scheduleReap(now, next);
+            }
+        }
+        for (Map.Entry<String, List<Queued>> entry : expiredByHost.entrySet()) {
+            notifyExpired(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void notifyExpired(String host, List<Queued> expired) {
+        for (Queued queued : expired) {
+            queued.task.onShed("Request deadline passed while waiting for the concurrency limiter for " + host, true);
+        }
+    }
+
+    private void run(List<Permit> granted) {
+        if (granted == null) {
+            return;
+        }
+        for (final Permit permit : granted) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    permit.task.run(permit);
+                }
+            });
+        }
+    }
+
+    private static final class Queued {
+        final Task task;
+        final long enqueuedNanos;
+        final long deadlineNanos;
+
+        Queued(Task task, long enqueuedNanos, long deadlineNanos) {
+            this.task = task;
+            this.enqueuedNanos = enqueuedNanos;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    private final class HostLimit {
+        @SuppressWarnings("unchecked")
+        final ArrayDeque<Queued>[] queues = new ArrayDeque[]{new ArrayDeque<Queued>(), new ArrayDeque<Queued>(), new ArrayDeque<Queued>()};
+        final String host;
+        double limit;
+        int inFlight;
+        int queued;
+        int maxQueued;
+
+        long shortRttNanos;
+        long longRttNanos;
+        long lastDecreaseNanos;
+
+        long completed;
+        long overloaded;
+        long shed;
+        long expired;
+        long dequeued;
+        long queueNanos;
+
+        HostLimit(String host, int initialLimit) {
+            this.host = host;
+            this.limit = initialLimit;
+        }
+
+        void onSample(long now, long rttNanos, boolean overload) {
+            completed++;
+            if (overload) {
+                overloaded++;
+                if (now - lastDecreaseNanos >= shortRttNanos) {
+                    lastDecreaseNanos = now;
+                    limit = Math.max(limit * backoffRatio, minLimit);
+                }
+                return;
+            }
+
+            shortRttNanos = shortRttNanos == 0 ? rttNanos : shortRttNanos + (rttNanos - shortRttNanos) / SHORT_RTT_WINDOW;
+            longRttNanos = longRttNanos == 0 ? rttNanos : longRttNanos + (rttNanos - longRttNanos) / LONG_RTT_WINDOW;
+            if (longRttNanos > shortRttNanos * 2) {
+                // The path got faster, let the long-term average catch up
+                longRttNanos = longRttNanos * 95 / 100;
+            }
+
+            if (inFlight + 1 < limit / 2) {
+                // A limit that is not used says nothing about the capacity of the path
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRttNanos / shortRttNanos));
+            double target = Math.min(Math.max(limit * gradient + Math.sqrt(limit), minLimit), maxLimit);
+            limit = limit * (1 - LIMIT_SMOOTHING) + target * LIMIT_SMOOTHING;
+        }
+
+        Queued pollHighest() {
+            for (int priority = PRIORITY_HIGH; priority >= PRIORITY_LOW; priority--) {
+                Queued next = queues[priority].pollFirst();
+                if (next != null) {
+                    queued--;
+                    return next;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Moves the queued requests whose start deadline passed to expired
+         */
+        void removeExpired(long now, List<Queued> expiredOut) {
+            for (ArrayDeque<Queued> queue : queues) {
+                for (Iterator<Queued> it = queue.iterator(); it.hasNext(); ) {
+                    Queued queued = it.next();
+                    if (queued.deadlineNanos <= now) {
+                        it.remove();
+                        this.queued--;
+                        expired++;
+                        expiredOut.add(queued);
+                    }
+                }
+            }
+        }
+
+        long earliestDeadline() {
+            long earliest = NO_DEADLINE;
+            for (ArrayDeque<Queued> queue : queues) {
+                for (Queued queued : queue) {
+                    earliest = Math.min(earliest, queued.deadlineNanos);
+                }
+            }
+            return earliest;
+        }
+
+        Queued shedLowest() {
+            for (int priority = PRIORITY_LOW; priority <= PRIORITY_HIGH; priority++) {
+                Queued last = queues[priority].pollLast();
+                if (last != null) {
+                    queued--;
+                    shed++;
+                    return last;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uncaught exception hook that synchronously flushes the plugin's in-memory buffers to durable storage
+ * before the process dies, then hands the exception to the previously installed handler.
+ *
+ * Everything the flush path needs (handler list, counters, the stats file mapping) is allocated when the
+ * handler is installed, so the flush itself does not allocate.
+ */
+final class CrashFlushHandler implements Thread.UncaughtExceptionHandler {
+
+    /**
+     * A buffer that can be flushed on the crashing thread
+     */
+    interface Flushable {
+        /**
+         * Writes pending entries until done or until System.nanoTime() passes deadlineNanos.
+         * Must not allocate, unless the only durable destination is an SDK API that does, in which case the
+         * implementation says so. Must not block on locks held by other threads.
+         * Adds the number of saved entries to counts[SAVED] and dropped entries to counts[DROPPED].
+         */
+        void flushOnCrash(long deadlineNanos, long[] counts);
+    }
+
+    static final int SAVED = 0;
+    static final int DROPPED = 1;
+
+    static final long DEFAULT_BUDGET_MILLIS = 500;
+    static final String STATS_FILE_NAME = "bmscrashflush.stats";
+
+    private static final int MAX_FLUSHABLES = 8;
+    private static final int STATS_MAGIC = 0x43465354; // "CFST"
+    private static final int STATS_SIZE = 4 + 8 + 8 + 8 + 8;
+
+    private static CrashFlushHandler installed;
+
+    private final Thread.UncaughtExceptionHandler previousHandler;
+    private final Flushable[] flushables = new Flushable[MAX_FLUSHABLES];
+    private final long[] counts = new long[2];
+    private final File statsFile;
+    private MappedByteBuffer stats;
+    private volatile long budgetNanos;
+
+    private CrashFlushHandler(Thread.UncaughtExceptionHandler previousHandler, File statsFile, long budgetMillis) {
+        this.previousHandler = previousHandler;
+        this.statsFile = statsFile;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    /**
+     * Installs the handler once per process, chaining to the current default handler
+     */
+    static synchronized CrashFlushHandler install(File statsFile, long budgetMillis) {
+        if (installed == null) {
+            installed = new CrashFlushHandler(Thread.getDefaultUncaughtExceptionHandler(), statsFile, budgetMillis);
+            installed.mapStats();
+            Thread.setDefaultUncaughtExceptionHandler(installed);
+        }
+        return installed;
+    }
+
+    static synchronized CrashFlushHandler getInstance() {
+        return installed;
+    }
+
+    void setBudget(long budgetMillis) {
+        budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    synchronized void register(Flushable flushable) {
+        for (int i = 0; i < MAX_FLUSHABLES; i++) {
+            if (flushables[i] == flushable) {
+                return;
+            }
+        }
+        for (int i = 0; i < MAX_FLUSHABLES; i++) {
+            if (flushables[i] == null) {
+                flushables[i] = flushable;
+                return;
+            }
+        }
+    }
+
+    synchronized void unregister(Flushable flushable) {
+        for (int i = 0; i < MAX_FLUSHABLES; i++) {
+            if (flushables[i] == flushable) {
+                flushables[i] = null;
+            }
+        }
+    }
+
+    @Override
+    public void uncaughtException(Thread thread, Throwable throwable) {
+        try {
+            flush();
+        } catch (Throwable t) {
+            // Never let the flush hide the original crash
+        }
+
+        if (previousHandler != null) {
+            previousHandler.uncaughtException(thread, throwable);
+        }
+    }
+
+    private void flush() {
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+        counts[SAVED] = 0;
+        counts[DROPPED] = 0;
+
+        for (int i = 0; i < MAX_FLUSHABLES; i++) {
+            Flushable flushable = flushables[i];
+            if (flushable != null) {
+                flushable.flushOnCrash(deadline, counts);
+            }
+        }
+
+        MappedByteBuffer buffer = stats;
+        if (buffer != null) {
+            buffer.putLong(4, System.currentTimeMillis());
+            buffer.putLong(12, counts[SAVED]);
+            buffer.putLong(20, counts[DROPPED]);
+            buffer.putLong(28, System.nanoTime() - start);
+            buffer.putInt(0, STATS_MAGIC);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Returns the result of the last crash-time flush and clears it, so each crash is reported once
+     *
+     * @return {timestamp, saved, dropped, durationMillis}, or null if no crash was recorded since the last call
+     */
+    synchronized JSONObject takeLastFlushStats() throws JSONException {
+        MappedByteBuffer buffer = stats;
+        if (buffer == null || buffer.getInt(0) != STATS_MAGIC) {
+            return null;
+        }
+        buffer.putInt(0, 0);
+        buffer.force();
+        JSONObject result = new JSONObject();
+        result.put("timestamp", buffer.getLong(4));
+        result.put("saved", buffer.getLong(12));
+        result.put("dropped", buffer.getLong(20));
+        result.put("durationMillis", TimeUnit.NANOSECONDS.toMillis(buffer.getLong(28)));
+        return result;
+    }
+
+    private void mapStats() {
+        try {
+            RandomAccessFile file = new RandomAccessFile(statsFile, "rw");
+            try {
+                if (file.length() < STATS_SIZE) {
+                    file.setLength(STATS_SIZE);
+                }
+                stats = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, STATS_SIZE);
+            } finally {
+                // The mapping stays valid after the file is closed
+                file.close();
+            }
+        } catch (IOException e) {
+            stats = null;
+        }
+    }
+}
@@ -0,0 +1,520 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One long-lived streaming request. The response is read incrementally and parsed as Server-Sent Events
+ * or newline-delimited JSON. Frames go through a bounded buffer: while the Javascript layer has paused the stream,
+ * or is slower than the server, the buffer fills and the reader stops reading the socket, so TCP flow control
+ * pushes back on the server instead of frames piling up in memory.
+ * Dropped connections are reopened after the retry delay with the Last-Event-ID header.
+ * Each connection attempt goes through the Connector, which applies the same headers as other requests.
+ */
+final class EventStream {
+
+    static final String FORMAT_SSE = "sse";
+    static final String FORMAT_NDJSON = "ndjson";
+    static final int DEFAULT_BUFFER_SIZE = 64;
+    static final long DEFAULT_RETRY = 3000;
+    static final long MAX_RETRY = 60000;
+
+    private static final int MAX_EVENTS_PER_MESSAGE = 32;
+    private static final long POLL_INTERVAL = 250;
+
+    // Lifecycle frames share the buffer with the events so they reach the listener in order
+    private static final String TYPE_OPEN = "\0open";
+    private static final String TYPE_ERROR = "\0error";
+
+    /**
+     * Applies the plugin's request pipeline to each connection attempt. Called from the reader thread.
+     */
+    interface Connector {
+        /**
+         * Called before each connection attempt
+         *
+         * @param headers The request headers, which the connector may add to or change
+         */
+        void beforeConnect(String url, String method, Map<String, String> headers);
+
+        /**
+         * Called once per attempt, when the response status was read or the attempt failed without one
+         *
+         * @param status The response status, 0 if there is none
+         */
+        void afterConnect(int status, Throwable failure);
+
+        /**
+         * Called when the server answered 401
+         *
+         * @return The new Authorization header, or null if the authorization could not be refreshed
+         */
+        String refreshAuthorization(int status, Map<String, List<String>> responseHeaders);
+    }
+
+    /**
+     * Receives the stream lifecycle and the parsed events, always from the dispatcher thread
+     */
+    interface Listener {
+        void onOpen(int status);
+
+        /**
+         * @param events JSONArray of {id, event, data}
+         */
+        void onEvents(JSONArray events);
+
+        /**
+         * @param reconnectIn Milliseconds until the next connection attempt, or -1 if the stream ends
+         */
+        void onError(String message, long reconnectIn);
+
+        /**
+         * Last call for this stream
+         */
+        void onClosed();
+    }
+
+    private final String url;
+    private final String method;
+    private final Map<String, String> headers;
+    private final String body;
+    private final int connectTimeout;
+    private final int idleTimeout;
+    private final String format;
+    private final boolean reconnect;
+    private final BlockingQueue<JSONObject> buffer;
+    private final Listener listener;
+    private final Connector connector;
+
+    private final Object pauseLock = new Object();
+    // Written under pauseLock, volatile so the dispatcher can check it between events
+    private volatile boolean paused;
+    private volatile boolean closed;
+    private volatile boolean readerDone;
+    private volatile HttpURLConnection connection;
+
+    private String lastEventId;
+    private long retry;
+
+    /**
+     * @param request {url, method, headers, queryParameters, body, timeout, stream: {format, bufferSize, retry, reconnect, idleTimeout, lastEventId}}
+     */
+    @SuppressWarnings("unchecked")
+    EventStream(JSONObject request, Listener listener, Connector connector) throws JSONException {
+        JSONObject options = request.optJSONObject("stream");
+        if (options == null) {
+            options = new JSONObject();
+        }
+
+        this.url = buildUrl(request.getString("url"), request.optJSONObject("queryParameters"));
+        this.method = request.optString("method", "GET");
+        this.headers = request.optJSONObject("headers") != null
+                ? RequestMarshaller.convertJSONtoHashMap(request.getJSONObject("headers"), false) : new HashMap<String, String>();
+        this.body = request.optString("body", "");
+        this.connectTimeout = request.optInt("timeout", 30000);
+        this.idleTimeout = Math.max(options.optInt("idleTimeout", 0), 0);
+        this.format = FORMAT_NDJSON.equals(options.optString("format")) ? FORMAT_NDJSON : FORMAT_SSE;
+        this.reconnect = options.optBoolean("reconnect", true);
+        this.retry = Math.max(options.optLong("retry", DEFAULT_RETRY), 0);
+        this.lastEventId = options.optString("lastEventId", "").length() > 0 ? options.optString("lastEventId") : null;
+        this.buffer = new ArrayBlockingQueue<JSONObject>(Math.max(options.optInt("bufferSize", DEFAULT_BUFFER_SIZE), 1));
+        this.listener = listener;
+        this.connector = connector;
+    }
+
+    /**
+     * Starts the reader and dispatcher threads
+     *
+     * @param name Used in the thread names
+     */
+    void start(String name) {
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    readLoop();
+                } finally {
+                    readerDone = true;
+                }
+            }
+        }, "CDVBMS-stream-read-" + name);
+        Thread dispatcher = new Thread(new Runnable() {
+            public void run() {
+                dispatchLoop();
+            }
+        }, "CDVBMS-stream-dispatch-" + name);
+        reader.setDaemon(true);
+        dispatcher.setDaemon(true);
+        reader.start();
+        dispatcher.start();
+    }
+
+    /**
+     * Stops delivering events. The buffer fills up and then the connection stops being read.
+     */
+    void pause() {
+        synchronized (pauseLock) {
+            paused = true;
+        }
+    }
+
+    void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Closes the connection. Buffered events are discarded and onClosed() is called once the dispatcher stops.
+     */
+    void close() {
+        closed = true;
+        HttpURLConnection current = connection;
+        if (current != null) {
+            current.disconnect();
+        }
+        resume();
+    }
+
+    private void readLoop() {
+        int failures = 0;
+        boolean authorizationRefreshed = false;
+        while (!closed) {
+            HttpURLConnection current = null;
+            String failure;
+            int status = 0;
+            try {
+                current = open();
+                status = current.getResponseCode();
+                connector.afterConnect(status, null);
+                if (status == HttpURLConnection.HTTP_UNAUTHORIZED && !authorizationRefreshed) {
+                    // Retried once at once with a fresh token, a second 401 ends the stream below
+                    authorizationRefreshed = true;
+                    String authorization = connector.refreshAuthorization(status, responseHeaders(current));
+                    if (authorization != null) {
+                        headers.put("Authorization", authorization);
+                        continue;
+                    }
+                }
+                if (status == HttpURLConnection.HTTP_NO_CONTENT) {
+                    // The server asks the client not to reconnect
+                    return;
+                }
+                if (status < 200 || status >= 300) {
+                    if (status < 500) {
+                        error("HTTP " + status, -1);
+                        return;
+                    }
+                    throw new IOException("HTTP " + status);
+                }
+                failures = 0;
+                authorizationRefreshed = false;
+                enqueue(TYPE_OPEN, status);
+
+                BufferedReader reader = new BufferedReader(new InputStreamReader(current.getInputStream(), "UTF-8"));
+                if (FORMAT_NDJSON.equals(format)) {
+                    readNdjson(reader);
+                } else {
+                    readSse(reader);
+                }
+                if (!reconnect) {
+                    return;
+                }
+                failure = "Stream ended";
+            } catch (IOException e) {
+                if (status == 0) {
+                    connector.afterConnect(0, e);
+                }
+                failure = String.valueOf(e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                if (current != null) {
+                    current.disconnect();
+                }
+                connection = null;
+            }
+
+            if (closed) {
+                return;
+            }
+            // Back off exponentially from the retry delay, which the server may have changed
+            long delay = reconnect ? Math.min(retry << Math.min(failures++, 5), MAX_RETRY) : -1;
+            try {
+                error(failure, delay);
+                if (delay < 0) {
+                    return;
+                }
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private HttpURLConnection open() throws IOException {
+        Map<String, String> requestHeaders = new HashMap<String, String>(headers);
+        connector.beforeConnect(url, method, requestHeaders);
+
+        HttpURLConnection current = (HttpURLConnection) new URL(url).openConnection();
+        connection = current;
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        current.setRequestMethod(method);
+        current.setConnectTimeout(connectTimeout);
+        current.setReadTimeout(idleTimeout);
+        current.setUseCaches(false);
+        current.setRequestProperty("Accept", FORMAT_NDJSON.equals(format) ? "application/x-ndjson" : "text/event-stream");
+        current.setRequestProperty("Cache-Control", "no-cache");
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            current.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (lastEventId != null) {
+            current.setRequestProperty("Last-Event-ID", lastEventId);
+        }
+        if (body.length() > 0) {
+            byte[] bytes = body.getBytes("UTF-8");
+            current.setDoOutput(true);
+            current.setFixedLengthStreamingMode(bytes.length);
+            OutputStream out = current.getOutputStream();
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return The response headers without the status line, which HttpURLConnection lists under a null name
+     */
+    private static Map<String, List<String>> responseHeaders(HttpURLConnection connection) {
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() != null) {
+                headers.put(header.getKey(), header.getValue());
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Parses the event stream format from the Server-Sent Events specification
+     */
+    private void readSse(BufferedReader reader) throws IOException, InterruptedException {
+        StringBuilder data = new StringBuilder();
+        String eventType = null;
+        boolean firstLine = true;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            if (firstLine && line.length() > 0 && line.charAt(0) == '\uFEFF') {
+                line = line.substring(1);
+            }
+            firstLine = false;
+
+            if (line.length() == 0) {
+                if (data.length() > 0) {
+                    data.setLength(data.length() - 1);
+                    enqueue(eventType != null ? eventType : "message", data.toString());
+                }
+                data.setLength(0);
+                eventType = null;
+                continue;
+            }
+            if (line.charAt(0) == ':') {
+                continue;
+            }
+
+            int colon = line.indexOf(':');
+            String field = colon < 0 ? line : line.substring(0, colon);
+            String value = colon < 0 ? "" : line.substring(colon + 1);
+            if (value.length() > 0 && value.charAt(0) == ' ') {
+                value = value.substring(1);
+            }
+
+            if ("data".equals(field)) {
+                data.append(value).append('\n');
+            } else if ("event".equals(field)) {
+                eventType = value;
+            } else if ("id".equals(field)) {
+                if (value.indexOf('\0') < 0) {
+                    lastEventId = value;
+                }
+            } else if ("retry".equals(field)) {
+                try {
+                    retry = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    // Ignored, as the specification requires
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses one JSON value per line. An "id" member of an object is used as the Last-Event-ID.
+     */
+    private void readNdjson(BufferedReader reader) throws IOException, InterruptedException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().length() == 0) {
+                continue;
+            }
+            Object value;
+            try {
+                value = new JSONTokener(line).nextValue();
+            } catch (JSONException e) {
+                value = line;
+            }
+            if (value instanceof JSONObject && ((JSONObject) value).has("id")) {
+                lastEventId = ((JSONObject) value).optString("id");
+            }
+            enqueue("message", value);
+        }
+    }
+
+    private void enqueue(String eventType, Object data) throws InterruptedException {
+        JSONObject event = new JSONObject();
+        try {
+            event.put("id", lastEventId != null ? lastEventId : JSONObject.NULL);
+            event.put("event", eventType);
+            event.put("data", data);
+        } catch (JSONException e) {
+            // Values above are always valid JSON
+        }
+        // Waits while the buffer is full, which stops reading from the connection
+        while (!buffer.offer(event, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+            if (closed) {
+                throw new InterruptedException("Stream closed");
+            }
+        }
+    }
+
+    private void error(String message, long reconnectIn) throws InterruptedException {
+        JSONObject error = new JSONObject();
+        try {
+            error.put("message", message);
+            error.put("reconnectIn", reconnectIn);
+        } catch (JSONException e) {
+            // Values above are always valid JSON
+        }
+        enqueue(TYPE_ERROR, error);
+    }
+
+    /**
+     * Delivers buffered frames in order, several events per message. The pause flag is checked before every frame,
+     * so no event is delivered once the stream was paused, even in the middle of a burst.
+     */
+    private void dispatchLoop() {
+        JSONArray events = new JSONArray();
+        try {
+            while (!closed) {
+                synchronized (pauseLock) {
+                    while (paused && !closed) {
+                        pauseLock.wait();
+                    }
+                }
+                if (closed) {
+                    break;
+                }
+
+                JSONObject frame = buffer.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    if (readerDone && buffer.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+
+                do {
+                    String type = frame.optString("event");
+                    if (TYPE_OPEN.equals(type) || TYPE_ERROR.equals(type)) {
+                        events = deliver(events);
+                        if (TYPE_OPEN.equals(type)) {
+                            listener.onOpen(frame.optInt("data"));
+                        } else {
+                            JSONObject error = frame.optJSONObject("data");
+                            listener.onError(error.optString("message"), error.optLong("reconnectIn"));
+                        }
+                    } else {
+                        events.put(frame);
+                        if (events.length() >= MAX_EVENTS_PER_MESSAGE) {
+                            events = deliver(events);
+                        }
+                    }
+                } while (!closed && !paused && (frame = buffer.poll()) != null);
+                events = deliver(events);
+            }
+        } catch (InterruptedException e) {
+            // Closing
+        } finally {
+            closed = true;
+            HttpURLConnection current = connection;
+            if (current != null) {
+                current.disconnect();
+            }
+            buffer.clear();
+            listener.onClosed();
+        }
+    }
+
+    private JSONArray deliver(JSONArray events) {
+        if (events.length() == 0 || closed) {
+            return events;
+        }
+        listener.onEvents(events);
+        return new JSONArray();
+    }
+
+    private static String buildUrl(String url, JSONObject queryParameters) throws JSONException {
+        if (queryParameters == null || queryParameters.length() == 0) {
+            return url;
+        }
+        StringBuilder builder = new StringBuilder(url);
+        char separator = url.indexOf('?') < 0 ? '?' : '&';
+        JSONArray names = queryParameters.names();
+        try {
+            for (int i = 0; i < names.length(); i++) {
+                String name = names.getString(i);
+                builder.append(separator)
+                        .append(URLEncoder.encode(name, "UTF-8"))
+                        .append('=')
+                        .append(URLEncoder.encode(queryParameters.optString(name), "UTF-8"));
+                separator = '&';
+            }
+        } catch (java.io.UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+        }
+        return builder.toString();
+    }
+}
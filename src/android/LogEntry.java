@@ -0,0 +1,49 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * A single log message as recorded by the Javascript layer.
+ * The timestamp is the time the message was logged in Javascript, not the time it reached native code.
+ */
+final class LogEntry {
+
+    final String level;
+    final String loggerName;
+    final String message;
+    final long timestamp;
+
+    LogEntry(String level, String loggerName, String message, long timestamp) {
+        this.level = level;
+        this.loggerName = loggerName;
+        this.message = message;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Unpacks a batched entry sent by BMSLogger.js in the form [level, loggerName, message, timestamp]
+     *
+     * @param jsEntry JSONArray that contains one log entry
+     * @return The converted LogEntry
+     */
+    static LogEntry fromJSON(JSONArray jsEntry) throws JSONException {
+        String level = jsEntry.getString(0);
+        String loggerName = jsEntry.getString(1);
+        String message = jsEntry.getString(2);
+        long timestamp = jsEntry.optLong(3, System.currentTimeMillis());
+        return new LogEntry(level, loggerName, message, timestamp);
+    }
+}
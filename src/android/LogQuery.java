@@ -0,0 +1,141 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Paginated search over a SegmentLogStore by time range, level, logger name and message substring.
+ * Segments whose timestamp range or level bitmap cannot match are skipped without being read,
+ * and records of other levels are skipped without being decoded.
+ */
+final class LogQuery {
+
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private final long from;
+    private final long to;
+    private final int levelMask;
+    private final String loggerName;
+    private final String contains;
+    private final int pageSize;
+
+    private final long cursorSequence;
+    private final int cursorOffset;
+
+    /**
+     * @param query {from, to, levels: [String], logger, contains, pageSize, cursor}
+     */
+    LogQuery(JSONObject query) throws JSONException {
+        from = query.optLong("from", Long.MIN_VALUE);
+        to = query.optLong("to", Long.MAX_VALUE);
+        loggerName = query.isNull("logger") ? null : query.optString("logger", null);
+        contains = query.isNull("contains") ? null : query.optString("contains", null);
+        pageSize = Math.max(1, Math.min(query.optInt("pageSize", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE));
+
+        JSONArray levels = query.optJSONArray("levels");
+        if (levels == null || levels.length() == 0) {
+            levelMask = SegmentLogStore.ALL_LEVELS;
+        } else {
+            int mask = 0;
+            for (int i = 0; i < levels.length(); i++) {
+                mask |= 1 << SegmentLogStore.levelToByte(levels.getString(i));
+            }
+            levelMask = mask;
+        }
+
+        String cursor = query.isNull("cursor") ? null : query.optString("cursor", null);
+        if (cursor != null && cursor.indexOf(':') > 0) {
+            try {
+                cursorSequence = Long.parseLong(cursor.substring(0, cursor.indexOf(':')));
+                cursorOffset = Integer.parseInt(cursor.substring(cursor.indexOf(':') + 1));
+            } catch (NumberFormatException e) {
+                throw new JSONException("Invalid cursor: " + cursor);
+            }
+        } else {
+            cursorSequence = Long.MIN_VALUE;
+            cursorOffset = 0;
+        }
+    }
+
+    /**
+     * Runs the query and returns one page of results
+     *
+     * @return {entries: [{timestamp, level, pkg, msg}], nextCursor}, where nextCursor is null on the last page
+     */
+    JSONObject execute(SegmentLogStore store) throws IOException, JSONException {
+        final JSONArray entries = new JSONArray();
+        String nextCursor = null;
+
+        List<SegmentLogStore.Segment> segments = store.getAllSegments();
+        for (SegmentLogStore.Segment segment : segments) {
+            if (segment.sequence < cursorSequence || !store.mayContain(segment, from, to, levelMask)) {
+                continue;
+            }
+
+            int startOffset = segment.sequence == cursorSequence ? cursorOffset : 0;
+            final int remaining = pageSize - entries.length();
+            int stoppedAt = store.readSegment(segment, startOffset, levelMask, new SegmentLogStore.RecordVisitor() {
+                int added;
+
+                @Override
+                public boolean visit(int offset, long timestamp, String level, String pkg, String message) {
+                    if (!matches(timestamp, pkg, message)) {
+                        return true;
+                    }
+                    if (added == remaining) {
+                        return false;
+                    }
+                    try {
+                        JSONObject entry = new JSONObject();
+                        entry.put("timestamp", timestamp);
+                        entry.put("level", level.toUpperCase());
+                        entry.put("pkg", pkg);
+                        entry.put("msg", message);
+                        entries.put(entry);
+                        added++;
+                    } catch (JSONException e) {
+                        // Skip entries that cannot be represented as JSON
+                    }
+                    return true;
+                }
+            });
+
+            if (stoppedAt >= 0) {
+                nextCursor = segment.sequence + ":" + stoppedAt;
+                break;
+            }
+        }
+
+        JSONObject page = new JSONObject();
+        page.put("entries", entries);
+        page.put("nextCursor", nextCursor != null ? nextCursor : JSONObject.NULL);
+        return page;
+    }
+
+    private boolean matches(long timestamp, String pkg, String message) {
+        if (timestamp < from || timestamp > to) {
+            return false;
+        }
+        if (loggerName != null && !loggerName.equals(pkg)) {
+            return false;
+        }
+        return contains == null || message.contains(contains);
+    }
+}
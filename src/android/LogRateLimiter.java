@@ -0,0 +1,186 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Per-logger token bucket rate limiting combined with per-level probabilistic sampling.
+ * Suppressed messages are counted per logger so that periodic summaries can be written to the log store.
+ * Summaries are drained on a timer by the owner, so they are written even if the logger goes quiet.
+ */
+final class LogRateLimiter {
+
+    static final double DEFAULT_RATE_PER_SECOND = 50;
+    static final double DEFAULT_BURST = 200;
+    static final long DEFAULT_SUMMARY_INTERVAL = 60000;
+
+    private final double defaultRatePerSecond;
+    private final double defaultBurst;
+    private final Map<String, double[]> loggerLimits = new HashMap<String, double[]>();
+    private final Map<String, Double> samplingRates = new HashMap<String, Double>();
+    private final long summaryInterval;
+
+    private final Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+    private final Random random = new Random();
+
+    private long lastSummaryTime;
+    private long totalSuppressed;
+
+    private static final class Bucket {
+        final double ratePerSecond;
+        final double burst;
+        double tokens;
+        long lastRefill;
+        long suppressedSinceSummary;
+        long suppressedTotal;
+
+        Bucket(double ratePerSecond, double burst, long now) {
+            this.ratePerSecond = ratePerSecond;
+            this.burst = burst;
+            this.tokens = burst;
+            this.lastRefill = now;
+        }
+    }
+
+    /**
+     * Receives one summary per logger that had messages suppressed since the previous summary
+     */
+    interface SummaryVisitor {
+        void visit(String loggerName, long suppressed);
+    }
+
+    /**
+     * @param config {ratePerSecond, burst, summaryInterval, loggers: {name: {ratePerSecond, burst}}, sampling: {level: rate}}
+     */
+    LogRateLimiter(JSONObject config, long now) throws JSONException {
+        defaultRatePerSecond = config.optDouble("ratePerSecond", DEFAULT_RATE_PER_SECOND);
+        defaultBurst = config.optDouble("burst", Math.max(DEFAULT_BURST, defaultRatePerSecond));
+        summaryInterval = config.optLong("summaryInterval", DEFAULT_SUMMARY_INTERVAL);
+        lastSummaryTime = now;
+
+        JSONObject loggers = config.optJSONObject("loggers");
+        if (loggers != null) {
+            Iterator<?> names = loggers.keys();
+            while (names.hasNext()) {
+                String name = (String) names.next();
+                JSONObject limit = loggers.getJSONObject(name);
+                double rate = limit.optDouble("ratePerSecond", defaultRatePerSecond);
+                loggerLimits.put(name, new double[]{rate, limit.optDouble("burst", Math.max(rate, 1))});
+            }
+        }
+
+        JSONObject sampling = config.optJSONObject("sampling");
+        if (sampling != null) {
+            Iterator<?> levels = sampling.keys();
+            while (levels.hasNext()) {
+                String level = (String) levels.next();
+                double rate = Math.max(0, Math.min(1, sampling.getDouble(level)));
+                samplingRates.put(level.toLowerCase(), rate);
+            }
+        }
+    }
+
+    /**
+     * Decides whether a message may be logged. Sampling is applied first, then the logger's token bucket.
+     *
+     * @return false if the message must be suppressed
+     */
+    synchronized boolean tryAcquire(String level, String loggerName, long now) {
+        Bucket bucket = buckets.get(loggerName);
+        if (bucket == null) {
+            double[] limit = loggerLimits.get(loggerName);
+            bucket = limit != null ? new Bucket(limit[0], limit[1], now) : new Bucket(defaultRatePerSecond, defaultBurst, now);
+            buckets.put(loggerName, bucket);
+        }
+
+        Double samplingRate = samplingRates.get(level);
+        if (samplingRate != null && random.nextDouble() >= samplingRate) {
+            suppress(bucket);
+            return false;
+        }
+
+        long elapsed = now - bucket.lastRefill;
+        if (elapsed > 0) {
+            bucket.tokens = Math.min(bucket.burst, bucket.tokens + elapsed * bucket.ratePerSecond / 1000.0);
+            bucket.lastRefill = now;
+        }
+        if (bucket.tokens < 1) {
+            suppress(bucket);
+            return false;
+        }
+        bucket.tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Reports the loggers with suppressed messages once the summary interval has elapsed, then resets their counts
+     *
+     * @param force report even if the interval has not elapsed yet
+     */
+    void drainSummaries(long now, boolean force, SummaryVisitor visitor) {
+        Map<String, Long> summaries = null;
+        synchronized (this) {
+            if (!force && now - lastSummaryTime < summaryInterval) {
+                return;
+            }
+            lastSummaryTime = now;
+            for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+                Bucket bucket = entry.getValue();
+                if (bucket.suppressedSinceSummary > 0) {
+                    if (summaries == null) {
+                        summaries = new HashMap<String, Long>();
+                    }
+                    summaries.put(entry.getKey(), bucket.suppressedSinceSummary);
+                    bucket.suppressedSinceSummary = 0;
+                }
+            }
+        }
+
+        // Visit outside the lock since the visitor writes back through the logging path
+        if (summaries != null) {
+            for (Map.Entry<String, Long> summary : summaries.entrySet()) {
+                visitor.visit(summary.getKey(), summary.getValue());
+            }
+        }
+    }
+
+    long getSummaryInterval() {
+        return summaryInterval;
+    }
+
+    synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        JSONObject perLogger = new JSONObject();
+        for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+            if (entry.getValue().suppressedTotal > 0) {
+                perLogger.put(entry.getKey(), entry.getValue().suppressedTotal);
+            }
+        }
+        stats.put("suppressed", totalSuppressed);
+        stats.put("loggers", perLogger);
+        return stats;
+    }
+
+    private void suppress(Bucket bucket) {
+        bucket.suppressedSinceSummary++;
+        bucket.suppressedTotal++;
+        totalSuppressed++;
+    }
+}
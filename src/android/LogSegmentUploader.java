@@ -0,0 +1,145 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import android.content.Context;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Request;
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Response;
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.ResponseListener;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Uploads the sealed segments of a SegmentLogStore one at a time, oldest first.
+ * A segment is deleted only after the server accepted it; the first failure stops the upload.
+ * Payloads are optionally gzip-compressed.
+ */
+class LogSegmentUploader {
+
+    /**
+     * Receives the outcome of an upload
+     */
+    interface Listener {
+        void onComplete(int sentSegments, long sentBytes);
+        void onFailure(int sentSegments, long sentBytes, String error);
+    }
+
+    private final SegmentLogStore store;
+    private final String uploadUrl;
+    private final boolean compress;
+
+    LogSegmentUploader(SegmentLogStore store, String uploadUrl) {
+        this(store, uploadUrl, false);
+    }
+
+    LogSegmentUploader(SegmentLogStore store, String uploadUrl, boolean compress) {
+        this.store = store;
+        this.uploadUrl = uploadUrl;
+        this.compress = compress;
+    }
+
+    /**
+     * Seals the active segment and uploads every sealed segment
+     */
+    void upload(Context context, Listener listener) {
+        if (uploadUrl == null || uploadUrl.length() == 0) {
+            listener.onFailure(0, 0, "No upload URL configured for the segmented log store");
+            return;
+        }
+        try {
+            store.sealActiveSegment();
+        } catch (IOException e) {
+            listener.onFailure(0, 0, e.getMessage());
+            return;
+        }
+        sendNext(context, store.getSealedSegments().iterator(), 0, 0, listener);
+    }
+
+    /**
+     * Builds the request used to upload one segment. The payload is the JSON array of the segment's entries.
+     */
+    protected Request buildRequest(byte[] payload) {
+        Request request = new Request(uploadUrl, Request.POST);
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        headers.put("Content-Type", singleValue("application/json"));
+        if (compress) {
+            headers.put("Content-Encoding", singleValue("gzip"));
+        }
+        request.setHeaders(headers);
+        return request;
+    }
+
+    protected byte[] encodePayload(SegmentLogStore.Segment segment) throws IOException {
+        byte[] json = store.readSegmentAsJSON(segment).toString().getBytes("UTF-8");
+        if (!compress) {
+            return json;
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        try {
+            gzip.write(json);
+        } finally {
+            gzip.close();
+        }
+        return compressed.toByteArray();
+    }
+
+    static List<String> singleValue(String value) {
+        List<String> values = new ArrayList<String>();
+        values.add(value);
+        return values;
+    }
+
+    private void sendNext(final Context context, final Iterator<SegmentLogStore.Segment> segments,
+                          final int sentSegments, final long sentBytes, final Listener listener) {
+        if (!segments.hasNext()) {
+            listener.onComplete(sentSegments, sentBytes);
+            return;
+        }
+
+        final SegmentLogStore.Segment segment = segments.next();
+        final byte[] payload;
+        try {
+            payload = encodePayload(segment);
+        } catch (IOException e) {
+            listener.onFailure(sentSegments, sentBytes, e.getMessage());
+            return;
+        }
+
+        buildRequest(payload).send(context, payload, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                store.deleteSegment(segment);
+                sendNext(context, segments, sentSegments + 1, sentBytes + payload.length, listener);
+            }
+
+            @Override
+            public void onFailure(Response response, Throwable t, JSONObject extendedInfo) {
+                String error = response != null ? "HTTP " + response.getStatus()
+                        : (t != null ? String.valueOf(t.getMessage()) : "Failed to send log segment");
+                listener.onFailure(sentSegments, sentBytes, error);
+            }
+        });
+    }
+}
@@ -0,0 +1,184 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import android.content.Context;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads the segmented log store in the background once it holds thresholdBytes or its oldest record is older than maxAge.
+ * At most one upload runs at a time, and failed uploads are retried with exponential backoff.
+ */
+final class LogUploadScheduler {
+
+    static final long DEFAULT_THRESHOLD_BYTES = 128 * 1024;
+    static final long DEFAULT_MAX_AGE = TimeUnit.HOURS.toMillis(1);
+    static final long DEFAULT_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    static final long DEFAULT_INITIAL_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+    static final long DEFAULT_MAX_BACKOFF = TimeUnit.HOURS.toMillis(1);
+
+    private final Context context;
+    private final SegmentLogStore store;
+    private final LogSegmentUploader uploader;
+
+    private final long thresholdBytes;
+    private final long maxAge;
+    private final long checkInterval;
+    private final long initialBackoff;
+    private final long maxBackoff;
+
+    private ScheduledExecutorService executor;
+
+    private boolean uploading;
+    private int consecutiveFailures;
+    private long nextAttemptTime;
+    private JSONObject lastResult;
+
+    /**
+     * @param options {thresholdBytes, maxAge, checkInterval, compress, initialBackoff, maxBackoff}
+     */
+    LogUploadScheduler(Context context, SegmentLogStore store, String uploadUrl, JSONObject options) {
+        this.context = context;
+        this.store = store;
+        this.uploader = new LogSegmentUploader(store, uploadUrl, options.optBoolean("compress", true));
+        this.thresholdBytes = options.optLong("thresholdBytes", DEFAULT_THRESHOLD_BYTES);
+        this.maxAge = options.optLong("maxAge", DEFAULT_MAX_AGE);
+        this.checkInterval = Math.max(options.optLong("checkInterval", DEFAULT_CHECK_INTERVAL), 1000);
+        this.initialBackoff = options.optLong("initialBackoff", DEFAULT_INITIAL_BACKOFF);
+        this.maxBackoff = Math.max(options.optLong("maxBackoff", DEFAULT_MAX_BACKOFF), initialBackoff);
+    }
+
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CDVBMSLogger-upload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                checkAndUpload();
+            }
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Starts an upload if the store crossed the size or age threshold and no backoff is pending
+     */
+    void checkAndUpload() {
+        long now = System.currentTimeMillis();
+        long pendingBytes = store.getStoredBytes();
+        long oldest = store.getOldestTimestamp();
+
+        synchronized (this) {
+            if (uploading || now < nextAttemptTime || pendingBytes == 0) {
+                return;
+            }
+            if (pendingBytes < thresholdBytes && (oldest == Long.MAX_VALUE || now - oldest < maxAge)) {
+                return;
+            }
+        }
+        uploadNow(null);
+    }
+
+    /**
+     * Uploads the store immediately unless an upload is already running
+     *
+     * @param listener Receives the result, may be null
+     */
+    void uploadNow(final LogSegmentUploader.Listener listener) {
+        synchronized (this) {
+            if (uploading) {
+                if (listener != null) {
+                    listener.onFailure(0, 0, "An upload is already in progress");
+                }
+                return;
+            }
+            uploading = true;
+        }
+
+        uploader.upload(context, new LogSegmentUploader.Listener() {
+            @Override
+            public void onComplete(int sentSegments, long sentBytes) {
+                synchronized (LogUploadScheduler.this) {
+                    uploading = false;
+                    consecutiveFailures = 0;
+                    nextAttemptTime = 0;
+                    lastResult = result(true, sentSegments, sentBytes, null);
+                }
+                if (listener != null) {
+                    listener.onComplete(sentSegments, sentBytes);
+                }
+            }
+
+            @Override
+            public void onFailure(int sentSegments, long sentBytes, String error) {
+                synchronized (LogUploadScheduler.this) {
+                    uploading = false;
+                    consecutiveFailures++;
+                    long backoff = initialBackoff << Math.min(consecutiveFailures - 1, 20);
+                    nextAttemptTime = System.currentTimeMillis() + Math.min(backoff, maxBackoff);
+                    lastResult = result(false, sentSegments, sentBytes, error);
+                }
+                if (listener != null) {
+                    listener.onFailure(sentSegments, sentBytes, error);
+                }
+            }
+        });
+    }
+
+    synchronized JSONObject getStatus() throws JSONException {
+        JSONObject status = new JSONObject();
+        status.put("uploading", uploading);
+        status.put("pendingBytes", store.getStoredBytes());
+        status.put("consecutiveFailures", consecutiveFailures);
+        status.put("nextAttemptTime", nextAttemptTime);
+        status.put("lastUpload", lastResult != null ? lastResult : JSONObject.NULL);
+        return status;
+    }
+
+    private static JSONObject result(boolean success, int sentSegments, long sentBytes, String error) {
+        JSONObject result = new JSONObject();
+        try {
+            result.put("time", System.currentTimeMillis());
+            result.put("success", success);
+            result.put("sentSegments", sentSegments);
+            result.put("sentBytes", sentBytes);
+            if (error != null) {
+                result.put("error", error);
+            }
+        } catch (JSONException e) {
+            // Values above are always valid JSON
+        }
+        return result;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shrinks the plugin's in-memory buffers when Android signals memory pressure.
+ * Each buffer has a budget in bytes. A trim keeps at most the whole budget for the mild trim levels, half of it for
+ * TRIM_MEMORY_RUNNING_LOW and TRIM_MEMORY_MODERATE, and nothing for TRIM_MEMORY_RUNNING_CRITICAL, TRIM_MEMORY_COMPLETE
+ * and onLowMemory. Budgets do not cap the buffers otherwise.
+ *
+ * Trims run on a background thread because buffers may wait briefly for their consumer thread to drain them.
+ */
+final class MemoryTrimmer implements ComponentCallbacks2 {
+
+    /**
+     * A buffer or cache that can give memory back
+     */
+    interface Trimmable {
+        /**
+         * @return Estimated heap bytes held by the buffer
+         */
+        long getRetainedBytes();
+
+        /**
+         * Releases entries, oldest first, until at most targetBytes are retained.
+         * Where the buffer has a durable destination, its own consumer thread should drain it first so entries keep
+         * their order. Entries still over the target are dropped and counted.
+         *
+         * @return Estimated bytes released
+         */
+        long trimTo(long targetBytes);
+    }
+
+    static final long DEFAULT_BUDGET = 256 * 1024;
+
+    private static final Logger memoryLogger = Logger.getLogger(Logger.INTERNAL_PREFIX + "CDVBMSMemoryTrimmer");
+
+    private static MemoryTrimmer installed;
+
+    private final Map<String, Trimmable> trimmables = new LinkedHashMap<String, Trimmable>();
+    private final Map<String, Long> budgets = new LinkedHashMap<String, Long>();
+    private final Map<String, Long> reclaimed = new LinkedHashMap<String, Long>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CDVBMS-memory-trim");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private long trimCount;
+    private int lastLevel = -1;
+    private long lastTrimTime;
+
+    private MemoryTrimmer() {
+    }
+
+    /**
+     * Registers the trimmer with the application once per process
+     */
+    static synchronized MemoryTrimmer install(Context context) {
+        if (installed == null) {
+            installed = new MemoryTrimmer();
+            context.getApplicationContext().registerComponentCallbacks(installed);
+        }
+        return installed;
+    }
+
+    static synchronized MemoryTrimmer getInstance() {
+        return installed;
+    }
+
+    /**
+     * @param name Buffer name used for its budget, e.g. "analytics", "logger" or "trace"
+     */
+    synchronized void register(String name, Trimmable trimmable) {
+        trimmables.put(name, trimmable);
+    }
+
+    /**
+     * @param options {budgets: {name: bytes}}
+     */
+    synchronized void configure(JSONObject options) {
+        JSONObject newBudgets = options.optJSONObject("budgets");
+        if (newBudgets == null) {
+            return;
+        }
+        for (Iterator<?> names = newBudgets.keys(); names.hasNext(); ) {
+            String name = (String) names.next();
+            budgets.put(name, Math.max(newBudgets.optLong(name, DEFAULT_BUDGET), 0));
+        }
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        final double fraction;
+        if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            fraction = 0;
+        } else if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_LOW) {
+            fraction = 0.5;
+        } else {
+            fraction = 1;
+        }
+        executor.execute(new Runnable() {
+            public void run() {
+                trim(level, fraction);
+            }
+        });
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Trims every registered buffer to the given fraction of its budget and logs the bytes reclaimed
+     */
+    void trim(int level, double fraction) {
+        Map<String, Trimmable> current;
+        Map<String, Long> currentBudgets;
+        synchronized (this) {
+            current = new LinkedHashMap<String, Trimmable>(trimmables);
+            currentBudgets = new LinkedHashMap<String, Long>(budgets);
+        }
+
+        long total = 0;
+        StringBuilder details = new StringBuilder();
+        for (Map.Entry<String, Trimmable> entry : current.entrySet()) {
+            Long budget = currentBudgets.get(entry.getKey());
+            long target = (long) ((budget != null ? budget : DEFAULT_BUDGET) * fraction);
+            long bytes;
+            try {
+                bytes = entry.getValue().trimTo(target);
+            } catch (RuntimeException e) {
+                memoryLogger.error("trim :: " + entry.getKey() + " failed. " + e.getMessage());
+                continue;
+            }
+            total += bytes;
+            details.append(details.length() > 0 ? ", " : "").append(entry.getKey()).append('=').append(bytes);
+
+            synchronized (this) {
+                Long previous = reclaimed.get(entry.getKey());
+                reclaimed.put(entry.getKey(), (previous != null ? previous : 0) + bytes);
+            }
+        }
+
+        synchronized (this) {
+            trimCount++;
+            lastLevel = level;
+            lastTrimTime = System.currentTimeMillis();
+        }
+        memoryLogger.info("onTrimMemory(" + level + ") reclaimed " + total + " bytes (" + details + ")");
+    }
+
+    /**
+     * @return {trims, lastLevel, lastTrimTime, buffers: {name: {budget, retained, reclaimed}}}
+     */
+    synchronized JSONObject getStatus() throws JSONException {
+        JSONObject status = new JSONObject();
+        status.put("trims", trimCount);
+        status.put("lastLevel", lastLevel);
+        status.put("lastTrimTime", lastTrimTime);
+        JSONObject buffers = new JSONObject();
+        for (Map.Entry<String, Trimmable> entry : trimmables.entrySet()) {
+            Long budget = budgets.get(entry.getKey());
+            Long total = reclaimed.get(entry.getKey());
+            JSONObject buffer = new JSONObject();
+            buffer.put("budget", budget != null ? budget : DEFAULT_BUDGET);
+            buffer.put("retained", entry.getValue().getRetainedBytes());
+            buffer.put("reclaimed", total != null ? total : 0);
+            buffers.put(entry.getKey(), buffer);
+        }
+        status.put("buffers", buffers);
+        return status;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Records a compact analytics event for requests sent through CDVBMSRequest, when enabled.
+ * Path segments that look like identifiers are replaced with ":id" so events from the same endpoint group together.
+ */
+final class NetworkEventRecorder {
+
+    private static final Pattern ID_SEGMENT = Pattern.compile(
+            "\\d+|[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}|[0-9a-fA-F]{16,}");
+
+    private static volatile boolean enabled;
+    private static volatile double sampleRate = 1.0;
+    private static final Random random = new Random();
+
+    private NetworkEventRecorder() {
+    }
+
+    /**
+     * @param options {enabled, sampleRate}
+     */
+    static void configure(JSONObject options) {
+        enabled = options.optBoolean("enabled", true);
+        sampleRate = Math.max(0, Math.min(1, options.optDouble("sampleRate", 1.0)));
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Decides up front whether the request will be recorded, so unsampled requests pay no further cost
+     */
+    static boolean shouldRecord() {
+        if (!enabled) {
+            return false;
+        }
+        double rate = sampleRate;
+        if (rate >= 1) {
+            return true;
+        }
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    /**
+     * Queues a network event in the analytics pipeline. The event is skipped if analytics was never set up, since
+     * there is nothing to send it.
+     * The outcome only reflects what this plugin sees. Cache hits and the retries done by the native SDK, e.g. after
+     * an authorization challenge, are not exposed by its Response, so a cached or retried request is reported like any
+     * other.
+     *
+     * @param outcome "success", "failure" (HTTP error status), "error" (no response), "expired" (deadline passed
+     *                before the request was sent) or "shed" (dropped from a full concurrency limiter queue)
+     */
+    static void record(String url, String method, int status, long requestBytes, long responseBytes,
+                       long durationMillis, String outcome) {
+        AnalyticsPipeline pipeline = CDVBMSAnalytics.getExistingPipeline();
+        if (pipeline == null) {
+            return;
+        }
+        try {
+            JSONObject event = new JSONObject();
+            event.put("category", "network");
+            event.put("method", method);
+            event.put("status", status);
+            event.put("requestBytes", requestBytes);
+            event.put("responseBytes", responseBytes);
+            event.put("duration", durationMillis);
+            event.put("outcome", outcome);
+
+            try {
+                URI uri = new URI(url);
+                event.put("host", uri.getHost());
+                event.put("path", pathTemplate(uri.getRawPath()));
+            } catch (URISyntaxException e) {
+                event.put("host", JSONObject.NULL);
+                event.put("path", JSONObject.NULL);
+            }
+
+            pipeline.offer(event);
+        } catch (JSONException e) {
+            // Network events are best effort
+        }
+    }
+
+    static String pathTemplate(String path) {
+        if (path == null || path.length() == 0) {
+            return "/";
+        }
+        StringBuilder template = new StringBuilder(path.length());
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            String segment = path.substring(start, end);
+            template.append(segment.length() > 0 && ID_SEGMENT.matcher(segment).matches() ? ":id" : segment);
+            if (end < path.length()) {
+                template.append('/');
+            }
+            start = end + 1;
+        }
+        return template.toString();
+    }
+}
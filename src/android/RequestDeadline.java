@@ -0,0 +1,85 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONObject;
+
+/**
+ * When a request must start, and when it must complete, in wall clock milliseconds.
+ * A request that has not started by startBy is never sent. Once started, its timeout is shortened so that it
+ * gives up by finishBy. The Javascript deadline is an absolute Date.now() time, maxQueueAge only limits how long
+ * the request may wait before it starts.
+ */
+final class RequestDeadline {
+
+    static final long NONE = Long.MAX_VALUE;
+
+    static final RequestDeadline UNBOUNDED = new RequestDeadline(NONE, NONE);
+
+    /**
+     * Passed to the failure callback of a request that was dropped because its deadline passed
+     */
+    static final class ExceededException extends Exception {
+        ExceededException(String message) {
+            super(message);
+        }
+    }
+
+    final long startBy;
+    final long finishBy;
+
+    private RequestDeadline(long startBy, long finishBy) {
+        this.startBy = startBy;
+        this.finishBy = finishBy;
+    }
+
+    /**
+     * @param request  JSONObject with the optional deadline and maxQueueAge members
+     * @param received Time the request reached native code
+     */
+    static RequestDeadline fromRequest(JSONObject request, long received) {
+        long deadline = request.optLong("deadline", 0);
+        long maxQueueAge = request.optLong("maxQueueAge", 0);
+        if (deadline <= 0 && maxQueueAge <= 0) {
+            return UNBOUNDED;
+        }
+        long finishBy = deadline > 0 ? deadline : NONE;
+        long startBy = maxQueueAge > 0 ? Math.min(received + maxQueueAge, finishBy) : finishBy;
+        return new RequestDeadline(startBy, finishBy);
+    }
+
+    boolean isBounded() {
+        return startBy != NONE;
+    }
+
+    boolean canStart(long now) {
+        return now < startBy;
+    }
+
+    /**
+     * @return The timeout to use for an attempt starting now, never longer than the time left before finishBy
+     */
+    int timeoutFor(int timeout, long now) {
+        if (finishBy == NONE) {
+            return timeout;
+        }
+        return (int) Math.max(Math.min(timeout, finishBy - now), 1);
+    }
+
+    /**
+     * @return Nanoseconds from now until startBy, NONE if the request can wait forever
+     */
+    long nanosUntilStart(long now) {
+        return startBy == NONE ? NONE : Math.max(startBy - now, 0) * 1000000L;
+    }
+}
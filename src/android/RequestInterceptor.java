@@ -0,0 +1,39 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Request;
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Response;
+
+import android.content.Context;
+
+/**
+ * Native hook around every request sent by BMSRequest. Other plugins can register their own with
+ * RequestInterceptors.register, interceptors run in registration order on a background thread.
+ */
+public interface RequestInterceptor {
+
+    /**
+     * Called before the request is sent. Typically adds headers.
+     */
+    void onRequest(Context context, Request request);
+
+    /**
+     * Called when the request completes, before the response is sent to the Javascript layer.
+     * Also called for a request that was dropped because its deadline passed, possibly without a call to onRequest.
+     *
+     * @param response The response, null if the request failed without one
+     * @param t        The failure, null if the request succeeded
+     */
+    void onResponse(Request request, Response response, Throwable t);
+}
@@ -0,0 +1,197 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Request;
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Response;
+import com.ibm.mobilefirstplatform.clientsdk.android.logger.api.Logger;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * The interceptor chain applied to every request sent by BMSRequest.
+ * The built-in header interceptor always runs first. It adds the static headers configured once from Javascript,
+ * converted to the native header type a single time, and the dynamic correlation id, app version and locale headers.
+ * Headers set on the request itself take precedence over the static headers, whatever the case of their names.
+ */
+public final class RequestInterceptors {
+
+    static final String HEADERS_INTERCEPTOR = "bms.headers";
+
+    private static final Logger interceptorLogger = Logger.getLogger(Logger.INTERNAL_PREFIX + "CDVBMSRequestInterceptors");
+
+    private static final HeaderInterceptor headerInterceptor = new HeaderInterceptor();
+    private static final Map<String, RequestInterceptor> registered = new LinkedHashMap<String, RequestInterceptor>();
+    private static volatile RequestInterceptor[] chain = {headerInterceptor};
+
+    private RequestInterceptors() {
+    }
+
+    /**
+     * Adds an interceptor at the end of the chain, or replaces the interceptor already registered with that name
+     */
+    public static void register(String name, RequestInterceptor interceptor) {
+        if (HEADERS_INTERCEPTOR.equals(name)) {
+            throw new IllegalArgumentException("The interceptor name " + name + " is reserved");
+        }
+        synchronized (registered) {
+            registered.put(name, interceptor);
+            rebuildChain();
+        }
+    }
+
+    public static void unregister(String name) {
+        synchronized (registered) {
+            registered.remove(name);
+            rebuildChain();
+        }
+    }
+
+    /**
+     * Must be called while holding the registered lock
+     */
+    private static void rebuildChain() {
+        RequestInterceptor[] newChain = new RequestInterceptor[registered.size() + 1];
+        newChain[0] = headerInterceptor;
+        int i = 1;
+        for (RequestInterceptor interceptor : registered.values()) {
+            newChain[i++] = interceptor;
+        }
+        chain = newChain;
+    }
+
+    /**
+     * @param options {headers, correlationIdHeader, appVersionHeader, localeHeader}. Omitted members are left unchanged,
+     *                an empty header name turns the dynamic header off.
+     */
+    @SuppressWarnings("unchecked")
+    static void configure(JSONObject options) throws JSONException {
+        JSONObject headers = options.optJSONObject("headers");
+        if (headers != null) {
+            headerInterceptor.staticHeaders = Collections.unmodifiableMap(
+                    (Map<String, List<String>>) RequestMarshaller.convertJSONtoHashMap(headers, true));
+        }
+        headerInterceptor.correlationIdHeader = headerName(options, "correlationIdHeader", headerInterceptor.correlationIdHeader);
+        headerInterceptor.appVersionHeader = headerName(options, "appVersionHeader", headerInterceptor.appVersionHeader);
+        headerInterceptor.localeHeader = headerName(options, "localeHeader", headerInterceptor.localeHeader);
+    }
+
+    private static String headerName(JSONObject options, String key, String current) {
+        if (!options.has(key)) {
+            return current;
+        }
+        String name = options.optString(key, "");
+        return name.length() > 0 ? name : null;
+    }
+
+    static void onRequest(Context context, Request request) {
+        for (RequestInterceptor interceptor : chain) {
+            try {
+                interceptor.onRequest(context, request);
+            } catch (RuntimeException e) {
+                // A failing interceptor must not stop the request
+                interceptorLogger.error("onRequest :: " + interceptor.getClass().getName() + " failed. " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs the chain in reverse order, so the first interceptor sees the response last
+     */
+    static void onResponse(Request request, Response response, Throwable t) {
+        RequestInterceptor[] current = chain;
+        for (int i = current.length - 1; i >= 0; i--) {
+            try {
+                current[i].onResponse(request, response, t);
+            } catch (RuntimeException e) {
+                interceptorLogger.error("onResponse :: " + current[i].getClass().getName() + " failed. " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class HeaderInterceptor implements RequestInterceptor {
+        volatile Map<String, List<String>> staticHeaders = Collections.emptyMap();
+        volatile String correlationIdHeader;
+        volatile String appVersionHeader;
+        volatile String localeHeader;
+
+        private volatile String appVersion;
+
+        @Override
+        public void onRequest(Context context, Request request) {
+            Map<String, List<String>> headers = staticHeaders;
+            String correlationId = correlationIdHeader;
+            String version = appVersionHeader;
+            String locale = localeHeader;
+            if (headers.isEmpty() && correlationId == null && version == null && locale == null) {
+                return;
+            }
+
+            // Header names are case-insensitive, a request header "content-type" overrides a static "Content-Type"
+            Map<String, List<String>> existing = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+            Map<String, List<String>> requestHeaders = request.getAllHeaders();
+            if (requestHeaders != null) {
+                existing.putAll(requestHeaders);
+            }
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (!existing.containsKey(header.getKey())) {
+                    for (String value : header.getValue()) {
+                        request.addHeader(header.getKey(), value);
+                    }
+                }
+            }
+            if (correlationId != null && !existing.containsKey(correlationId)) {
+                request.addHeader(correlationId, UUID.randomUUID().toString());
+            }
+            if (version != null && !existing.containsKey(version)) {
+                String value = getAppVersion(context);
+                if (value != null) {
+                    request.addHeader(version, value);
+                }
+            }
+            if (locale != null && !existing.containsKey(locale)) {
+                // Read on every request, the user can change the locale while the app runs
+                Locale current = Locale.getDefault();
+                request.addHeader(locale, current.getCountry().length() > 0
+                        ? current.getLanguage() + "-" + current.getCountry() : current.getLanguage());
+            }
+        }
+
+        @Override
+        public void onResponse(Request request, Response response, Throwable t) {
+        }
+
+        private String getAppVersion(Context context) {
+            if (appVersion == null && context != null) {
+                try {
+                    appVersion = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionName;
+                } catch (PackageManager.NameNotFoundException e) {
+                    // The running package is always installed
+                }
+            }
+            return appVersion;
+        }
+    }
+}
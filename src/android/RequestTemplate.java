@@ -0,0 +1,137 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Request;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A request registered once by name. The URL is split around its {pathParam} placeholders and the headers are converted
+ * to the native SDK types when the template is compiled, so each call only parses its own path parameters, query, extra headers and body.
+ * Kept free of Cordova and Android dependencies so it can be benchmarked with RequestMarshaller.
+ */
+final class RequestTemplate {
+
+    private final String method;
+    private final int timeout;
+
+    // Literal parts at even indices, path parameter names at odd indices
+    private final String[] urlParts;
+    private final Map<String, List<String>> headers;
+    private final Map<String, String> queryParameters;
+
+    private RequestTemplate(String method, int timeout, String[] urlParts, Map<String, List<String>> headers,
+                            Map<String, String> queryParameters) {
+        this.method = method;
+        this.timeout = timeout;
+        this.urlParts = urlParts;
+        this.headers = headers;
+        this.queryParameters = queryParameters;
+    }
+
+    /**
+     * @param template {url, method, headers, queryParameters, timeout}, the url may contain {name} path parameters
+     */
+    @SuppressWarnings("unchecked")
+    static RequestTemplate compile(JSONObject template) throws JSONException {
+        String url = template.getString("url");
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        int open;
+        while ((open = url.indexOf('{', start)) >= 0) {
+            int close = url.indexOf('}', open);
+            if (close < 0) {
+                throw new JSONException("Unterminated path parameter in template url: " + url);
+            }
+            parts.add(url.substring(start, open));
+            parts.add(url.substring(open + 1, close));
+            start = close + 1;
+        }
+        parts.add(url.substring(start));
+
+        Map<String, List<String>> headers = template.optJSONObject("headers") != null
+                ? RequestMarshaller.convertJSONtoHashMap(template.getJSONObject("headers"), true)
+                : new HashMap<String, List<String>>();
+        Map<String, String> queryParameters = template.optJSONObject("queryParameters") != null
+                ? RequestMarshaller.convertJSONtoHashMap(template.getJSONObject("queryParameters"), false)
+                : new HashMap<String, String>();
+
+        return new RequestTemplate(template.optString("method", "GET"), template.optInt("timeout", Request.DEFAULT_TIMEOUT),
+                parts.toArray(new String[parts.size()]), Collections.unmodifiableMap(headers),
+                Collections.unmodifiableMap(queryParameters));
+    }
+
+    /**
+     * Builds the native Request for one call
+     *
+     * @param call {pathParams, query, headers}, all optional
+     */
+    @SuppressWarnings("unchecked")
+    Request newRequest(JSONObject call) throws JSONException {
+        Request nativeRequest = new Request(expandUrl(call.optJSONObject("pathParams")), method, timeout);
+
+        JSONObject extraHeaders = call.optJSONObject("headers");
+        if (extraHeaders == null || extraHeaders.length() == 0) {
+            // The SDK copies the map into its own header builder, so the compiled map is shared
+            nativeRequest.setHeaders(headers);
+        } else {
+            Map<String, List<String>> merged = new HashMap<String, List<String>>(headers);
+            merged.putAll(RequestMarshaller.convertJSONtoHashMap(extraHeaders, true));
+            nativeRequest.setHeaders(merged);
+        }
+
+        JSONObject query = call.optJSONObject("query");
+        if (query == null || query.length() == 0) {
+            nativeRequest.setQueryParameters(queryParameters);
+        } else {
+            Map<String, String> merged = new HashMap<String, String>(queryParameters);
+            for (Iterator<?> keys = query.keys(); keys.hasNext(); ) {
+                String key = (String) keys.next();
+                merged.put(key, query.get(key).toString());
+            }
+            nativeRequest.setQueryParameters(merged);
+        }
+
+        return nativeRequest;
+    }
+
+    private String expandUrl(JSONObject pathParams) throws JSONException {
+        if (urlParts.length == 1) {
+            return urlParts[0];
+        }
+        StringBuilder url = new StringBuilder(urlParts[0]);
+        for (int i = 1; i < urlParts.length; i += 2) {
+            if (pathParams == null || !pathParams.has(urlParts[i])) {
+                throw new JSONException("Missing path parameter: " + urlParts[i]);
+            }
+            try {
+                url.append(URLEncoder.encode(pathParams.get(urlParts[i]).toString(), "UTF-8").replace("+", "%20"));
+            } catch (UnsupportedEncodingException e) {
+                // UTF-8 is always supported
+            }
+            url.append(urlParts[i + 1]);
+        }
+        return url.toString();
+    }
+}
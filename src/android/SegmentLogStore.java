@@ -0,0 +1,653 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Log store made of fixed-size memory-mapped segment files.
+ *
+ * Each segment starts with a header (magic, committed write index, sealed flag) followed by length-prefixed records.
+ * The write index is updated only after a record has been copied in full, so after a crash a segment is read up to
+ * its last complete record. When a record does not fit, the active segment is sealed and a new one is started;
+ * the oldest sealed segments are deleted once maxSegments is exceeded.
+ */
+final class SegmentLogStore {
+
+    static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+    static final int DEFAULT_MAX_SEGMENTS = 8;
+
+    static final String[] LEVELS = {"fatal", "error", "warn", "info", "debug"};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int MAGIC = 0x424d534c; // "BMSL"
+    private static final int HEADER_SIZE = 16;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_WRITE_INDEX = 4;
+    private static final int OFFSET_SEALED = 8;
+    // length (int) + timestamp (long) + level (byte) + logger name length (short)
+    private static final int RECORD_OVERHEAD = 4 + 8 + 1 + 2;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Segment> sealedSegments = new ArrayList<Segment>();
+    private Segment activeSegment;
+    private long nextSequence;
+    private boolean closed;
+
+    /**
+     * A segment file. Sealed segments are immutable and are read and sent as a whole.
+     * The summary fields change while the segment is active, read them through the store methods, which hold its lock.
+     */
+    static final class Segment {
+        final long sequence;
+        final File file;
+        long firstTimestamp = Long.MAX_VALUE;
+        long lastTimestamp = Long.MIN_VALUE;
+        // Bit i is set when the segment holds a record of level LEVELS[i]
+        int levelMask;
+        int recordCount;
+        int bytes;
+
+        private MappedByteBuffer buffer;
+        private RandomAccessFile randomAccessFile;
+
+        Segment(long sequence, File file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+
+        private void close() {
+            buffer = null;
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    // Nothing left to release
+                }
+                randomAccessFile = null;
+            }
+        }
+    }
+
+    /**
+     * Receives the records of a segment in the order they were written.
+     */
+    interface RecordVisitor {
+        /**
+         * @param offset Position of the record in the segment, usable as a resume point
+         * @return false to stop reading
+         */
+        boolean visit(int offset, long timestamp, String level, String loggerName, String message);
+    }
+
+    static final int ALL_LEVELS = (1 << LEVELS.length) - 1;
+
+    SegmentLogStore(File directory, int segmentSize, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentSize = Math.max(segmentSize > 0 ? segmentSize : DEFAULT_SEGMENT_SIZE, HEADER_SIZE + RECORD_OVERHEAD + 256);
+        this.maxSegments = Math.max(maxSegments > 0 ? maxSegments : DEFAULT_MAX_SEGMENTS, 2);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create log store directory " + directory);
+        }
+        recover();
+    }
+
+    /**
+     * Appends a record to the active segment, rotating first if it does not fit.
+     * Messages larger than a segment are truncated at a character boundary.
+     *
+     * @throws IOException if the store was closed, another store may own the directory
+     */
+    void append(String level, String loggerName, String message, long timestamp) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Segmented log store is closed");
+            }
+            byte[] nameBytes = (loggerName != null ? loggerName : "").getBytes(UTF_8);
+            byte[] messageBytes = (message != null ? message : "").getBytes(UTF_8);
+
+            int maxPayload = segmentSize - HEADER_SIZE - RECORD_OVERHEAD;
+            if (nameBytes.length > Short.MAX_VALUE || nameBytes.length > maxPayload) {
+                nameBytes = Arrays.copyOf(nameBytes, utf8Boundary(nameBytes, Math.min(Short.MAX_VALUE, maxPayload / 2)));
+            }
+            if (nameBytes.length + messageBytes.length > maxPayload) {
+                messageBytes = Arrays.copyOf(messageBytes, utf8Boundary(messageBytes, maxPayload - nameBytes.length));
+            }
+
+            int recordLength = RECORD_OVERHEAD + nameBytes.length + messageBytes.length;
+            if (activeSegment == null || activeSegment.bytes + recordLength > segmentSize) {
+                rotate();
+            }
+
+            MappedByteBuffer buffer = activeSegment.buffer;
+            int position = activeSegment.bytes;
+            buffer.position(position);
+            buffer.putInt(recordLength - 4);
+            buffer.putLong(timestamp);
+            buffer.put(levelToByte(level));
+            buffer.putShort((short) nameBytes.length);
+            buffer.put(nameBytes);
+            buffer.put(messageBytes);
+
+            // Commit the record only once it has been written in full
+            buffer.putInt(OFFSET_WRITE_INDEX, position + recordLength);
+
+            activeSegment.bytes = position + recordLength;
+            activeSegment.recordCount++;
+            activeSegment.levelMask |= 1 << levelToByte(level);
+            activeSegment.firstTimestamp = Math.min(activeSegment.firstTimestamp, timestamp);
+            activeSegment.lastTimestamp = Math.max(activeSegment.lastTimestamp, timestamp);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a record without allocating, for use on a crashing thread.
+     * Unlike append, it never rotates: if the record does not fit in the active segment it is not written.
+     * It is not written either if another thread holds the lock.
+     *
+     * @return false if the record was not written
+     */
+    boolean appendOnCrash(String level, String loggerName, String message, long timestamp) {
+        // Only attempted, so a thread holding the lock cannot stall the crash path
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            Segment segment = activeSegment;
+            if (closed || segment == null || segment.buffer == null) {
+                return false;
+            }
+
+            int nameLength = utf8Length(loggerName);
+            int messageLength = utf8Length(message);
+            int recordLength = RECORD_OVERHEAD + nameLength + messageLength;
+            if (nameLength > Short.MAX_VALUE || segment.bytes + recordLength > segmentSize) {
+                return false;
+            }
+
+            MappedByteBuffer buffer = segment.buffer;
+            int position = segment.bytes;
+            buffer.position(position);
+            buffer.putInt(recordLength - 4);
+            buffer.putLong(timestamp);
+            buffer.put(levelToByte(level));
+            buffer.putShort((short) nameLength);
+            putUtf8(buffer, loggerName);
+            putUtf8(buffer, message);
+            buffer.putInt(OFFSET_WRITE_INDEX, position + recordLength);
+
+            segment.bytes = position + recordLength;
+            segment.recordCount++;
+            segment.levelMask |= 1 << levelToByte(level);
+            segment.firstTimestamp = Math.min(segment.firstTimestamp, timestamp);
+            segment.lastTimestamp = Math.max(segment.lastTimestamp, timestamp);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the active segment to disk. Called on a crashing thread, so it is skipped if the lock is held.
+     */
+    void force() {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (activeSegment != null && activeSegment.buffer != null) {
+                activeSegment.buffer.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Seals the active segment so that its records become available to readers and senders.
+     */
+    void sealActiveSegment() throws IOException {
+        lock.lock();
+        try {
+            if (activeSegment != null && activeSegment.recordCount > 0) {
+                seal(activeSegment);
+                activeSegment = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the sealed segments, oldest first
+     */
+    List<Segment> getSealedSegments() {
+        lock.lock();
+        try {
+            return new ArrayList<Segment>(sealedSegments);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the sealed segments followed by the active segment, oldest first
+     */
+    List<Segment> getAllSegments() {
+        lock.lock();
+        try {
+            List<Segment> segments = new ArrayList<Segment>(sealedSegments);
+            if (activeSegment != null) {
+                segments.add(activeSegment);
+            }
+            return segments;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getStoredBytes() {
+        lock.lock();
+        try {
+            long total = activeSegment != null ? activeSegment.bytes - HEADER_SIZE : 0;
+            for (Segment segment : sealedSegments) {
+                total += segment.bytes - HEADER_SIZE;
+            }
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getSealedBytes() {
+        lock.lock();
+        try {
+            long total = 0;
+            for (Segment segment : sealedSegments) {
+                total += segment.bytes - HEADER_SIZE;
+            }
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the timestamp of the oldest stored record, or Long.MAX_VALUE if the store is empty
+     */
+    long getOldestTimestamp() {
+        lock.lock();
+        try {
+            long oldest = activeSegment != null ? activeSegment.firstTimestamp : Long.MAX_VALUE;
+            for (Segment segment : sealedSegments) {
+                oldest = Math.min(oldest, segment.firstTimestamp);
+            }
+            return oldest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getSegmentCount() {
+        lock.lock();
+        try {
+            return sealedSegments.size() + (activeSegment != null ? 1 : 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return false if no record of the segment can fall in the time range with one of the levels in levelMask
+     */
+    boolean mayContain(Segment segment, long from, long to, int levelMask) {
+        lock.lock();
+        try {
+            return segment.recordCount > 0 && segment.lastTimestamp >= from && segment.firstTimestamp <= to
+                    && (segment.levelMask & levelMask) != 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    int getMaxSegments() {
+        return maxSegments;
+    }
+
+    void deleteSegment(Segment segment) {
+        lock.lock();
+        try {
+            if (sealedSegments.remove(segment)) {
+                segment.close();
+                if (!segment.file.delete()) {
+                    segment.file.deleteOnExit();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads every committed record of a segment
+     */
+    void readSegment(Segment segment, RecordVisitor visitor) throws IOException {
+        readSegment(segment, HEADER_SIZE, ALL_LEVELS, visitor);
+    }
+
+    /**
+     * Reads the committed records of a segment starting at the given offset.
+     * Records whose level is not in levelMask are skipped without being decoded.
+     *
+     * @return the offset of the first record not visited, or -1 if the end of the segment was reached
+     */
+    int readSegment(Segment segment, int startOffset, int levelMask, RecordVisitor visitor) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment.file, "r");
+        try {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(OFFSET_MAGIC) != MAGIC) {
+                return -1;
+            }
+            int end = Math.min(buffer.getInt(OFFSET_WRITE_INDEX), buffer.limit());
+            int position = Math.max(startOffset, HEADER_SIZE);
+            while (position + RECORD_OVERHEAD <= end) {
+                buffer.position(position);
+                int length = buffer.getInt();
+                if (length < RECORD_OVERHEAD - 4 || position + 4 + length > end) {
+                    break;
+                }
+                long timestamp = buffer.getLong();
+                byte levelByte = buffer.get();
+                if ((levelMask & (1 << levelByte)) == 0) {
+                    position += 4 + length;
+                    continue;
+                }
+                String level = byteToLevel(levelByte);
+                int nameLength = buffer.getShort();
+                byte[] nameBytes = new byte[nameLength];
+                buffer.get(nameBytes);
+                byte[] messageBytes = new byte[length - (RECORD_OVERHEAD - 4) - nameLength];
+                buffer.get(messageBytes);
+
+                if (!visitor.visit(position, timestamp, level, new String(nameBytes, UTF_8), new String(messageBytes, UTF_8))) {
+                    return position;
+                }
+                position += 4 + length;
+            }
+            return -1;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Converts a sealed segment into the JSON payload used for uploads
+     */
+    JSONArray readSegmentAsJSON(Segment segment) throws IOException {
+        final JSONArray entries = new JSONArray();
+        readSegment(segment, new RecordVisitor() {
+            @Override
+            public boolean visit(int offset, long timestamp, String level, String loggerName, String message) {
+                try {
+                    JSONObject entry = new JSONObject();
+                    entry.put("timestamp", timestamp);
+                    entry.put("level", level.toUpperCase());
+                    entry.put("pkg", loggerName);
+                    entry.put("msg", message);
+                    entries.put(entry);
+                } catch (JSONException e) {
+                    // Skip entries that cannot be represented as JSON
+                }
+                return true;
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Flushes the active segment to disk and releases its mapping. Later appends fail.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            if (activeSegment != null) {
+                activeSegment.buffer.force();
+                activeSegment.close();
+                activeSegment = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rotate() throws IOException {
+        if (activeSegment != null) {
+            seal(activeSegment);
+            activeSegment = null;
+        }
+        while (sealedSegments.size() > maxSegments - 1) {
+            deleteSegment(sealedSegments.get(0));
+        }
+
+        Segment segment = new Segment(nextSequence, new File(directory, SEGMENT_PREFIX + nextSequence + SEGMENT_SUFFIX));
+        nextSequence++;
+        map(segment);
+        segment.buffer.putInt(OFFSET_MAGIC, MAGIC);
+        segment.buffer.putInt(OFFSET_WRITE_INDEX, HEADER_SIZE);
+        segment.buffer.putInt(OFFSET_SEALED, 0);
+        segment.bytes = HEADER_SIZE;
+        activeSegment = segment;
+    }
+
+    private void seal(Segment segment) {
+        segment.buffer.putInt(OFFSET_SEALED, 1);
+        segment.buffer.force();
+        segment.close();
+        sealedSegments.add(segment);
+    }
+
+    private void map(Segment segment) throws IOException {
+        segment.randomAccessFile = new RandomAccessFile(segment.file, "rw");
+        segment.randomAccessFile.setLength(segmentSize);
+        segment.buffer = segment.randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    /**
+     * Rebuilds the segment list from disk. Every segment found is sealed at its last committed record,
+     * so a new process always starts writing to a fresh segment.
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        List<Segment> found = new ArrayList<Segment>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            try {
+                long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                found.add(new Segment(sequence, file));
+            } catch (NumberFormatException e) {
+                // Not a segment written by this store
+            }
+        }
+        Collections.sort(found, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment lhs, Segment rhs) {
+                return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+            }
+        });
+
+        for (final Segment segment : found) {
+            nextSequence = Math.max(nextSequence, segment.sequence + 1);
+            RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+            try {
+                if (file.length() < HEADER_SIZE) {
+                    file.close();
+                    segment.file.delete();
+                    continue;
+                }
+                MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                if (buffer.getInt(OFFSET_MAGIC) != MAGIC) {
+                    file.close();
+                    segment.file.delete();
+                    continue;
+                }
+                buffer.putInt(OFFSET_SEALED, 1);
+                buffer.force();
+            } finally {
+                file.close();
+            }
+
+            readSegment(segment, new RecordVisitor() {
+                @Override
+                public boolean visit(int offset, long timestamp, String level, String loggerName, String message) {
+                    segment.recordCount++;
+                    segment.levelMask |= 1 << levelToByte(level);
+                    segment.firstTimestamp = Math.min(segment.firstTimestamp, timestamp);
+                    segment.lastTimestamp = Math.max(segment.lastTimestamp, timestamp);
+                    return true;
+                }
+            });
+            segment.bytes = committedBytes(segment.file);
+
+            if (segment.recordCount == 0) {
+                segment.file.delete();
+            } else {
+                sealedSegments.add(segment);
+            }
+        }
+
+        while (sealedSegments.size() > maxSegments - 1) {
+            deleteSegment(sealedSegments.get(0));
+        }
+    }
+
+    private static int committedBytes(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            randomAccessFile.seek(OFFSET_WRITE_INDEX);
+            return Math.min(randomAccessFile.readInt(), (int) randomAccessFile.length());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return The largest length up to limit that does not cut a UTF-8 encoded character in two
+     */
+    static int utf8Boundary(byte[] bytes, int limit) {
+        if (limit >= bytes.length) {
+            return bytes.length;
+        }
+        // Continuation bytes are 10xxxxxx, back off to the first byte of the character
+        while (limit > 0 && (bytes[limit] & 0xc0) == 0x80) {
+            limit--;
+        }
+        return limit;
+    }
+
+    private static int utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putUtf8(MappedByteBuffer buffer, String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    static byte levelToByte(String level) {
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (LEVELS[i].equalsIgnoreCase(level)) {
+                return (byte) i;
+            }
+        }
+        return (byte) (LEVELS.length - 1);
+    }
+
+    static String byteToLevel(byte level) {
+        return level >= 0 && level < LEVELS.length ? LEVELS[level] : LEVELS[LEVELS.length - 1];
+    }
+}
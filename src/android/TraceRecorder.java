@@ -0,0 +1,304 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * W3C trace context propagation for BMSRequest and a bounded buffer of completed spans.
+ * When tracing is disabled and the Javascript layer passes no traceparent, a request costs one volatile read.
+ */
+final class TraceRecorder {
+
+    static final int DEFAULT_CAPACITY = 512;
+    static final String TRACEPARENT_HEADER = "traceparent";
+    static final String LOGGER_NAME = "bms.trace";
+
+    // Rough heap size of a buffered span with a few attributes
+    static final int ESTIMATED_SPAN_BYTES = 256;
+
+    /**
+     * Drops the oldest buffered spans under memory pressure
+     */
+    static final MemoryTrimmer.Trimmable trimmable = new MemoryTrimmer.Trimmable() {
+        @Override
+        public long getRetainedBytes() {
+            synchronized (buffer) {
+                return (long) buffer.size() * ESTIMATED_SPAN_BYTES;
+            }
+        }
+
+        @Override
+        public long trimTo(long targetBytes) {
+            synchronized (buffer) {
+                long keep = targetBytes / ESTIMATED_SPAN_BYTES;
+                int dropped = 0;
+                while (buffer.size() > keep) {
+                    buffer.pollFirst();
+                    dropped++;
+                }
+                droppedCount += dropped;
+                return (long) dropped * ESTIMATED_SPAN_BYTES;
+            }
+        }
+    };
+
+    private static volatile boolean enabled;
+    private static volatile double sampleRate = 1.0;
+
+    private static final Random random = new Random();
+    private static final ArrayDeque<Span> buffer = new ArrayDeque<Span>();
+    private static int capacity = DEFAULT_CAPACITY;
+    private static long droppedCount;
+
+    private TraceRecorder() {
+    }
+
+    /**
+     * @param options {enabled, sampleRate, capacity}
+     */
+    static void configure(JSONObject options) {
+        synchronized (buffer) {
+            capacity = Math.max(options.optInt("capacity", capacity), 1);
+            while (buffer.size() > capacity) {
+                buffer.pollFirst();
+                droppedCount++;
+            }
+        }
+        sampleRate = Math.max(0, Math.min(1, options.optDouble("sampleRate", sampleRate)));
+        enabled = options.optBoolean("enabled", enabled);
+    }
+
+    /**
+     * Starts tracing one request
+     *
+     * @param traceparent The traceparent of the Javascript span that sent the request, may be null
+     * @return null if the request is not traced
+     */
+    static RequestTrace start(String traceparent) {
+        if (traceparent == null || traceparent.length() == 0) {
+            if (!enabled || random.nextDouble() >= sampleRate) {
+                return null;
+            }
+            return new RequestTrace(newId(16), null, true);
+        }
+
+        // version-traceid-parentid-flags
+        String[] parts = traceparent.split("-");
+        if (parts.length < 4 || parts[1].length() != 32 || parts[2].length() != 16 || parts[3].length() != 2) {
+            return start(null);
+        }
+        try {
+            boolean sampled = (Integer.parseInt(parts[3], 16) & 1) == 1;
+            return new RequestTrace(parts[1], parts[2], sampled);
+        } catch (NumberFormatException e) {
+            return start(null);
+        }
+    }
+
+    /**
+     * Adds spans recorded by the Javascript layer
+     *
+     * @param spans JSONArray of {traceId, spanId, parentSpanId, name, startTime, durationMicros, attributes}
+     */
+    static int recordAll(JSONArray spans) {
+        int recorded = 0;
+        for (int i = 0; i < spans.length(); i++) {
+            JSONObject span = spans.optJSONObject(i);
+            if (span == null || span.optString("traceId", "").length() == 0) {
+                continue;
+            }
+            record(new Span(span.optString("traceId"), span.optString("spanId"), span.optString("parentSpanId", null),
+                    span.optString("name"), span.optLong("startTime"), span.optLong("durationMicros"), span.optJSONObject("attributes")));
+            recorded++;
+        }
+        return recorded;
+    }
+
+    static void record(Span span) {
+        synchronized (buffer) {
+            if (buffer.size() >= capacity) {
+                buffer.pollFirst();
+                droppedCount++;
+            }
+            buffer.addLast(span);
+        }
+    }
+
+    static long getDroppedCount() {
+        synchronized (buffer) {
+            return droppedCount;
+        }
+    }
+
+    /**
+     * @param clear true to remove the returned spans from the buffer
+     */
+    static JSONArray export(boolean clear) throws JSONException {
+        Span[] spans;
+        synchronized (buffer) {
+            spans = buffer.toArray(new Span[buffer.size()]);
+            if (clear) {
+                buffer.clear();
+            }
+        }
+        JSONArray result = new JSONArray();
+        for (Span span : spans) {
+            result.put(span.toJSON());
+        }
+        return result;
+    }
+
+    static void exportToFile(File file, JSONArray spans) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(spans.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String newId(int bytes) {
+        StringBuilder id = new StringBuilder(bytes * 2);
+        synchronized (random) {
+            for (int i = 0; i < bytes; i++) {
+                int value = random.nextInt(256);
+                id.append(Character.forDigit(value >> 4, 16)).append(Character.forDigit(value & 0xf, 16));
+            }
+        }
+        return id.toString();
+    }
+
+    static final class Span {
+        final String traceId;
+        final String spanId;
+        final String parentSpanId;
+        final String name;
+        final long startTime;
+        final long durationMicros;
+        final JSONObject attributes;
+
+        Span(String traceId, String spanId, String parentSpanId, String name, long startTime, long durationMicros, JSONObject attributes) {
+            this.traceId = traceId;
+            this.spanId = spanId;
+            this.parentSpanId = parentSpanId;
+            this.name = name;
+            this.startTime = startTime;
+            this.durationMicros = durationMicros;
+            this.attributes = attributes;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("traceId", traceId);
+            json.put("spanId", spanId);
+            json.put("parentSpanId", parentSpanId != null ? parentSpanId : JSONObject.NULL);
+            json.put("name", name);
+            json.put("startTime", startTime);
+            json.put("durationMicros", durationMicros);
+            json.put("attributes", attributes != null ? attributes : new JSONObject());
+            return json;
+        }
+    }
+
+    /**
+     * Timeline of one BMSRequest. The request span covers the whole native path, with child spans for
+     * request marshalling, queueing, the network exchange and response marshalling.
+     */
+    static final class RequestTrace {
+        private final String traceId;
+        private final String parentSpanId;
+        private final String requestSpanId;
+        private final boolean sampled;
+
+        private final long startTime = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private long unpackedNanos;
+        private long sentNanos;
+        private long receivedNanos;
+
+        RequestTrace(String traceId, String parentSpanId, boolean sampled) {
+            this.traceId = traceId;
+            this.parentSpanId = parentSpanId;
+            this.requestSpanId = newId(8);
+            this.sampled = sampled;
+        }
+
+        /**
+         * The traceparent header for the outgoing request, whose parent is the native request span
+         */
+        String traceparent() {
+            return "00-" + traceId + "-" + requestSpanId + (sampled ? "-01" : "-00");
+        }
+
+        void unpacked() {
+            unpackedNanos = System.nanoTime();
+        }
+
+        void sent() {
+            sentNanos = System.nanoTime();
+        }
+
+        void received() {
+            receivedNanos = System.nanoTime();
+        }
+
+        /**
+         * Records the spans once the response was packed for the Javascript callback
+         */
+        void finish(String method, String url, int status, String outcome) {
+            if (!sampled) {
+                return;
+            }
+            long packedNanos = System.nanoTime();
+            long unpacked = unpackedNanos != 0 ? unpackedNanos : startNanos;
+            long sent = sentNanos != 0 ? sentNanos : unpacked;
+            long received = receivedNanos != 0 ? receivedNanos : packedNanos;
+
+            JSONObject attributes = new JSONObject();
+            try {
+                attributes.put("http.method", method);
+                attributes.put("http.url", url);
+                attributes.put("http.status_code", status);
+                attributes.put("outcome", outcome);
+            } catch (JSONException e) {
+                // Values above are always valid JSON
+            }
+
+            record(new Span(traceId, requestSpanId, parentSpanId, "bms.request", startTime, micros(packedNanos - startNanos), attributes));
+            child("bms.marshal.request", startNanos, unpacked);
+            child("bms.queue", unpacked, sent);
+            child("bms.network", sent, received);
+            child("bms.marshal.response", received, packedNanos);
+        }
+
+        private void child(String name, long fromNanos, long toNanos) {
+            record(new Span(traceId, newId(8), requestSpanId, name, startTime + (fromNanos - startNanos) / 1000000,
+                    micros(toNanos - fromNanos), null));
+        }
+
+        private static long micros(long nanos) {
+            return Math.max(nanos, 0) / 1000;
+        }
+    }
+}
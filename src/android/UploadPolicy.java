@@ -0,0 +1,404 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Response;
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.ResponseListener;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plugin-wide scheduler for background traffic: analytics and logger uploads and deferrable BMSRequests.
+ * Transfers are sent immediately on an unmetered network with enough battery, or while charging.
+ * Otherwise they are deferred until a foreground request wakes the radio, conditions improve, or the oldest
+ * deferred transfer reaches maxDeferral, and then every pending transfer is released together so they share one radio wake.
+ */
+final class UploadPolicy {
+
+    static final long DEFAULT_MAX_DEFERRAL = TimeUnit.HOURS.toMillis(6);
+    static final int DEFAULT_LOW_BATTERY_PERCENT = 15;
+
+    /**
+     * Source of the device state the policy depends on
+     */
+    interface Conditions {
+        boolean isConnected();
+
+        boolean isUnmetered();
+
+        boolean isCharging();
+
+        /**
+         * @return Battery level from 0 to 100, or -1 if unknown
+         */
+        int getBatteryPercent();
+
+        /**
+         * @param listener Runs whenever connectivity or power state changes, null to stop listening
+         */
+        void setChangeListener(Runnable listener);
+    }
+
+    /**
+     * Sends one deferred transfer
+     */
+    interface Uploader {
+        void send(ResponseListener listener);
+    }
+
+    private static UploadPolicy instance;
+
+    private final Conditions conditions;
+    private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+
+    private boolean enabled;
+    private long maxDeferral = DEFAULT_MAX_DEFERRAL;
+    private int lowBatteryPercent = DEFAULT_LOW_BATTERY_PERCENT;
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> deadline;
+
+    private long deferredCount;
+    private long releasedCount;
+    private long windowCount;
+    private long forcedWindowCount;
+    private long piggybackedWindowCount;
+
+    private static final class Pending {
+        final Uploader uploader;
+        final List<ResponseListener> listeners = new ArrayList<ResponseListener>();
+        final long since;
+
+        Pending(Uploader uploader, long since) {
+            this.uploader = uploader;
+            this.since = since;
+        }
+    }
+
+    UploadPolicy(Conditions conditions) {
+        this.conditions = conditions;
+    }
+
+    static synchronized UploadPolicy getInstance(Context context) {
+        if (instance == null) {
+            instance = new UploadPolicy(new AndroidConditions(context.getApplicationContext()));
+        }
+        return instance;
+    }
+
+    /**
+     * @param options {enabled, maxDeferral, lowBatteryPercent}
+     */
+    void configure(JSONObject options) {
+        List<Pending> released = null;
+        synchronized (this) {
+            enabled = options.optBoolean("enabled", enabled);
+            maxDeferral = Math.max(options.optLong("maxDeferral", maxDeferral), 0);
+            lowBatteryPercent = options.optInt("lowBatteryPercent", lowBatteryPercent);
+
+            if (enabled) {
+                conditions.setChangeListener(new Runnable() {
+                    public void run() {
+                        evaluate();
+                    }
+                });
+                scheduleDeadline();
+            } else {
+                conditions.setChangeListener(null);
+                released = takePending(false);
+            }
+        }
+        release(released);
+    }
+
+    /**
+     * Sends the upload now if conditions allow, otherwise queues it. Requests for a name that is already
+     * pending are coalesced into a single upload whose result is delivered to every listener.
+     *
+     * @param name Transfer name, e.g. "analytics" or "logger"
+     */
+    void submit(String name, Uploader uploader, ResponseListener listener) {
+        List<Pending> released;
+        synchronized (this) {
+            Pending entry = pending.get(name);
+            if (entry == null) {
+                entry = new Pending(uploader, System.currentTimeMillis());
+                pending.put(name, entry);
+            }
+            entry.listeners.add(listener);
+
+            if (enabled && !isFavorable()) {
+                deferredCount++;
+                scheduleDeadline();
+                return;
+            }
+            released = takePending(false);
+        }
+        release(released);
+    }
+
+    /**
+     * Releases every pending upload if conditions became favorable or the oldest one reached maxDeferral
+     */
+    void evaluate() {
+        List<Pending> released;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            boolean expired = System.currentTimeMillis() - oldestPendingTime() >= maxDeferral;
+            if (enabled && !expired && !isFavorable()) {
+                return;
+            }
+            released = takePending(enabled && expired && !isFavorable());
+        }
+        release(released);
+    }
+
+    /**
+     * Releases every pending transfer alongside a foreground request that is already using the radio
+     */
+    void onForegroundRequest() {
+        List<Pending> released;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            piggybackedWindowCount++;
+            released = takePending(false);
+        }
+        release(released);
+    }
+
+    synchronized JSONObject getStatus() throws JSONException {
+        JSONObject status = new JSONObject();
+        status.put("enabled", enabled);
+        status.put("maxDeferral", maxDeferral);
+        status.put("lowBatteryPercent", lowBatteryPercent);
+        status.put("connected", conditions.isConnected());
+        status.put("unmetered", conditions.isUnmetered());
+        status.put("charging", conditions.isCharging());
+        status.put("batteryPercent", conditions.getBatteryPercent());
+        status.put("pending", new JSONArray(pending.keySet()));
+        status.put("deferredSince", pending.isEmpty() ? JSONObject.NULL : (Object) oldestPendingTime());
+        status.put("deferred", deferredCount);
+        status.put("released", releasedCount);
+        status.put("windows", windowCount);
+        status.put("forcedWindows", forcedWindowCount);
+        status.put("piggybackedWindows", piggybackedWindowCount);
+        // Each released transfer would have woken the radio on its own, a piggybacked window costs no extra wake
+        status.put("wakesAvoided", releasedCount - windowCount + piggybackedWindowCount);
+        return status;
+    }
+
+    private boolean isFavorable() {
+        if (!conditions.isConnected()) {
+            return false;
+        }
+        if (conditions.isCharging()) {
+            return true;
+        }
+        int battery = conditions.getBatteryPercent();
+        return conditions.isUnmetered() && (battery < 0 || battery >= lowBatteryPercent);
+    }
+
+    private long oldestPendingTime() {
+        long oldest = Long.MAX_VALUE;
+        for (Pending entry : pending.values()) {
+            oldest = Math.min(oldest, entry.since);
+        }
+        return oldest;
+    }
+
+    /**
+     * Must be called while holding the lock
+     */
+    private List<Pending> takePending(boolean forced) {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        List<Pending> released = new ArrayList<Pending>(pending.values());
+        pending.clear();
+        releasedCount += released.size();
+        windowCount++;
+        if (forced) {
+            forcedWindowCount++;
+        }
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+        return released;
+    }
+
+    /**
+     * Must be called while holding the lock
+     */
+    private void scheduleDeadline() {
+        if (pending.isEmpty() || deadline != null) {
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CDVBMS-upload-policy");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        long delay = Math.max(oldestPendingTime() + maxDeferral - System.currentTimeMillis(), 0);
+        deadline = executor.schedule(new Runnable() {
+            public void run() {
+                synchronized (UploadPolicy.this) {
+                    deadline = null;
+                }
+                evaluate();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void release(List<Pending> released) {
+        if (released == null) {
+            return;
+        }
+        for (final Pending entry : released) {
+            entry.uploader.send(new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) {
+                    for (ResponseListener listener : entry.listeners) {
+                        listener.onSuccess(response);
+                    }
+                }
+
+                @Override
+                public void onFailure(Response response, Throwable t, JSONObject extendedInfo) {
+                    for (ResponseListener listener : entry.listeners) {
+                        listener.onFailure(response, t, extendedInfo);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads connectivity and battery state from the Android system services
+     */
+    static final class AndroidConditions implements Conditions {
+
+        private final Context context;
+        private BroadcastReceiver receiver;
+
+        AndroidConditions(Context context) {
+            this.context = context;
+        }
+
+        /**
+         * Without ACCESS_NETWORK_STATE, e.g. if an app removed it from its manifest, the network is assumed to be
+         * connected and metered, so only policies that allow metered networks upload.
+         */
+        @Override
+        public boolean isConnected() {
+            try {
+                NetworkInfo info = connectivity().getActiveNetworkInfo();
+                return info != null && info.isConnected();
+            } catch (SecurityException e) {
+                return true;
+            }
+        }
+
+        @Override
+        public boolean isUnmetered() {
+            try {
+                return isConnected() && !connectivity().isActiveNetworkMetered();
+            } catch (SecurityException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public boolean isCharging() {
+            Intent battery = batteryStatus();
+            if (battery == null) {
+                return false;
+            }
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            return status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+        }
+
+        @Override
+        public int getBatteryPercent() {
+            Intent battery = batteryStatus();
+            if (battery == null) {
+                return -1;
+            }
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            return level < 0 || scale <= 0 ? -1 : level * 100 / scale;
+        }
+
+        @Override
+        public synchronized void setChangeListener(final Runnable listener) {
+            if (receiver != null) {
+                context.unregisterReceiver(receiver);
+                receiver = null;
+            }
+            if (listener == null) {
+                return;
+            }
+
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+            filter.addAction(Intent.ACTION_POWER_CONNECTED);
+            filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+            filter.addAction(Intent.ACTION_BATTERY_OKAY);
+            receiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    listener.run();
+                }
+            };
+            context.registerReceiver(receiver, filter);
+        }
+
+        private ConnectivityManager connectivity() {
+            return (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        }
+
+        private Intent batteryStatus() {
+            // ACTION_BATTERY_CHANGED is sticky, so this returns the current state without registering a receiver
+            return context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        }
+    }
+}
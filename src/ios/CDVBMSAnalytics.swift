@@ -229,6 +229,30 @@ import BMSAnalytics
 
     }
     
+    func logBatch(_ command: CDVInvokedUrlCommand) {
+        let events = command.arguments[0] as? [Dictionary<String, Any>] ?? []
+
+        #if swift(>=3.0)
+            self.commandDelegate!.run(inBackground: {
+                for meta in events {
+                    Analytics.log(metadata: meta)
+                }
+                let result: [String: Any] = ["accepted": events.count, "dropped": 0]
+                let pluginResult = CDVPluginResult(status: CDVCommandStatus_OK, messageAs: result)
+                self.commandDelegate!.send(pluginResult, callbackId:command.callbackId)
+            })
+        #else
+            self.commandDelegate!.runInBackground({
+                for meta in events {
+                    Analytics.log(metadata: (meta as? [String: AnyObject])!)
+                }
+                let result: [String: AnyObject] = ["accepted": events.count, "dropped": 0]
+                let pluginResult = CDVPluginResult(status: CDVCommandStatus_OK, messageAsDictionary: result)
+                self.commandDelegate!.sendPluginResult(pluginResult, callbackId:command.callbackId)
+            })
+        #endif
+    }
+
     func logLocation(_ command: CDVInvokedUrlCommand) {
         
         #if swift(>=3.0)
@@ -487,4 +487,56 @@ import BMSCore
         logger.fatal(message: message)
 
     }
+
+    func logBatch(_ command: CDVInvokedUrlCommand){
+        // parms: [[[level, name, message, timestamp], ...]]
+
+        #if swift(>=3.0)
+            guard let entries = command.arguments[0] as? [[Any]] else {
+                let message = "Log batch Parameter is Invalid."
+                let pluginResult = CDVPluginResult(status: CDVCommandStatus_ERROR, messageAs: message)
+                // call error callback
+                self.commandDelegate!.send(pluginResult, callbackId:command.callbackId)
+                return
+            }
+        #else
+            guard let entries = command.arguments[0] as? [[AnyObject]] else {
+                let message = "Log batch Parameter is Invalid."
+                let pluginResult = CDVPluginResult(status: CDVCommandStatus_ERROR, messageAsString: message)
+                // call error callback
+                self.commandDelegate!.sendPluginResult(pluginResult, callbackId:command.callbackId)
+                return
+            }
+        #endif
+
+        var written: Int32 = 0
+        for entry in entries {
+            guard entry.count >= 3, let level = entry[0] as? String, let name = entry[1] as? String, let message = entry[2] as? String else {
+                continue
+            }
+
+            let logger = Logger.logger(name: name)
+            switch level {
+            case "fatal":
+                logger.fatal(message: message)
+            case "error":
+                logger.error(message: message)
+            case "warn":
+                logger.warn(message: message)
+            case "info":
+                logger.info(message: message)
+            default:
+                logger.debug(message: message)
+            }
+            written += 1
+        }
+
+        #if swift(>=3.0)
+            let pluginResult = CDVPluginResult(status: CDVCommandStatus_OK, messageAs: written)
+            self.commandDelegate!.send(pluginResult, callbackId:command.callbackId)
+        #else
+            let pluginResult = CDVPluginResult(status: CDVCommandStatus_OK, messageAsInt: written)
+            self.commandDelegate!.sendPluginResult(pluginResult, callbackId:command.callbackId)
+        #endif
+    }
 }
\ No newline at end of file
@@ -0,0 +1,176 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.android.core.api;
+
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark stand-in for the core SDK Request. Keeps the state RequestMarshaller sets and sends it with
+ * HttpURLConnection on the calling thread, reporting non-2xx statuses as failures like the SDK does.
+ */
+public class Request {
+
+    public static final int DEFAULT_TIMEOUT = 60000;
+
+    private final String url;
+    private final String method;
+    private final int timeout;
+    private Map<String, List<String>> headers;
+    private Map<String, String> queryParameters;
+
+    public Request(String url, String method, int timeout) {
+        this.url = url;
+        this.method = method;
+        this.timeout = timeout;
+    }
+
+    public void setHeaders(Map<String, List<String>> headers) {
+        this.headers = headers;
+    }
+
+    public Map<String, List<String>> getAllHeaders() {
+        return headers;
+    }
+
+    public void setQueryParameters(Map<String, String> queryParameters) {
+        this.queryParameters = queryParameters;
+    }
+
+    public Map<String, String> getQueryParameters() {
+        return queryParameters;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public void send(Context context, String body, ResponseListener listener) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url + encodeQuery()).openConnection();
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            if (headers != null) {
+                for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                    for (String value : header.getValue()) {
+                        connection.addRequestProperty(header.getKey(), value);
+                    }
+                }
+            }
+            if (body != null && body.length() > 0) {
+                byte[] bytes = body.getBytes("UTF-8");
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(bytes.length);
+                OutputStream out = connection.getOutputStream();
+                out.write(bytes);
+                out.close();
+            }
+
+            int status = connection.getResponseCode();
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            Map<String, List<String>> responseHeaders = new LinkedHashMap<String, List<String>>();
+            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+                // HttpURLConnection reports the status line under a null key
+                if (header.getKey() != null) {
+                    responseHeaders.put(header.getKey(), header.getValue());
+                }
+            }
+            Response response = new StandInResponse(status, in != null ? readFully(in) : "", responseHeaders);
+            if (status >= 200 && status < 300) {
+                listener.onSuccess(response);
+            } else {
+                listener.onFailure(response, null, null);
+            }
+        } catch (IOException e) {
+            listener.onFailure(null, e, null);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private String encodeQuery() throws UnsupportedEncodingException {
+        if (queryParameters == null || queryParameters.isEmpty()) {
+            return "";
+        }
+        StringBuilder query = new StringBuilder("?");
+        for (Map.Entry<String, String> parameter : queryParameters.entrySet()) {
+            if (query.length() > 1) {
+                query.append('&');
+            }
+            query.append(URLEncoder.encode(parameter.getKey(), "UTF-8")).append('=')
+                    .append(URLEncoder.encode(parameter.getValue(), "UTF-8"));
+        }
+        return query.toString();
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        in.close();
+        return bytes.toString("UTF-8");
+    }
+
+    private static final class StandInResponse implements Response {
+        private final int status;
+        private final String text;
+        private final Map<String, List<String>> headers;
+
+        StandInResponse(int status, String text, Map<String, List<String>> headers) {
+            this.status = status;
+            this.text = text;
+            this.headers = headers;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public String getResponseText() {
+            return text;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.android.core.api;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark stand-in for the core SDK Response, limited to the accessors RequestMarshaller reads.
+ */
+public interface Response {
+
+    int getStatus();
+
+    String getResponseText();
+
+    Map<String, List<String>> getHeaders();
+}
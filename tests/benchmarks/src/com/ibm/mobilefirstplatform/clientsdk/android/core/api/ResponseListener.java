@@ -0,0 +1,25 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.android.core.api;
+
+import org.json.JSONObject;
+
+/**
+ * Benchmark stand-in for the core SDK ResponseListener
+ */
+public interface ResponseListener {
+
+    void onSuccess(Response response);
+
+    void onFailure(Response response, Throwable t, JSONObject extendedInfo);
+}
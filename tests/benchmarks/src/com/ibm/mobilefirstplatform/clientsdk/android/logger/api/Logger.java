@@ -0,0 +1,37 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.android.logger.api;
+
+/**
+ * Benchmark stand-in for the SDK Logger. Messages are discarded, as they are when the SDK log level is above debug.
+ */
+public final class Logger {
+
+    public static final String INTERNAL_PREFIX = "mfpsdk.";
+
+    private Logger() {
+    }
+
+    public static Logger getLogger(String name) {
+        return new Logger();
+    }
+
+    public void debug(String message) {
+    }
+
+    public void info(String message) {
+    }
+
+    public void error(String message) {
+    }
+}
@@ -0,0 +1,298 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Discrete event simulation of ConcurrencyLimiter against a simulated latency source. The simulated link serves
+ * requests FIFO with a number of parallel slots and a service time per request, and its capacity changes between phases:
+ * Wi-Fi, then 2G, then Wi-Fi again. A request that waits longer than the timeout fails as overloaded, while the link
+ * keeps working on it, which is how a fixed parallelism collapses on a slow network.
+ *
+ * Options, all optional: --rate=40 --phaseSeconds=30 --timeout=5000 --fixed=0 --maxQueue=64 --maxQueueAge=0 --seed=1
+ * --fixed=N replaces the adaptive limit with a fixed limit of N in-flight requests.
+ * --maxQueueAge=N gives every request N ms to get a permit before it expires, 0 for no deadline.
+ *
+ * Prints, per phase, the goodput, timeouts, shed and expired requests, p50/p99 latency and the limit, and exits
+ * with status 1 if a request was neither completed, shed nor expired, or expired later than its deadline.
+ */
+public class LimiterSimulation {
+
+    private static final String HOST = "api.example.com";
+
+    // {slots, service time in ms} for each phase
+    private static final int[][] PHASES = {{16, 60}, {2, 800}, {16, 60}};
+    private static final String[] PHASE_NAMES = {"wifi", "2g", "wifi"};
+
+    private final Map<String, String> options;
+    private final double rate;
+    private final long phaseMillis;
+    private final long timeoutMillis;
+    private final int fixedLimit;
+    private final int maxQueue;
+    private final int maxQueueAge;
+    private final Random random;
+
+    private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+    private long now;
+    private long sequence;
+
+    private final long[] slotFreeAt = new long[64];
+    private int lateExpiries;
+
+    LimiterSimulation(Map<String, String> options) {
+        this.options = options;
+        this.rate = Double.parseDouble(option("rate", "40"));
+        this.phaseMillis = intOption("phaseSeconds", 30) * 1000L;
+        this.timeoutMillis = intOption("timeout", 5000);
+        this.fixedLimit = intOption("fixed", 0);
+        this.maxQueue = intOption("maxQueue", ConcurrencyLimiter.DEFAULT_MAX_QUEUE);
+        this.maxQueueAge = intOption("maxQueueAge", 0);
+        this.random = new Random(intOption("seed", 1));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("--") && separator > 2) {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        System.exit(new LimiterSimulation(options).run() ? 0 : 1);
+    }
+
+    boolean run() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, new ConcurrencyLimiter.Clock() {
+            @Override
+            public long nanoTime() {
+                return now * 1000000L;
+            }
+        }, new ConcurrencyLimiter.Timer() {
+            @Override
+            public void schedule(Runnable task, long delayNanos) {
+                LimiterSimulation.this.schedule(now + (delayNanos + 999999) / 1000000L, task);
+            }
+        });
+        JSONObject config = new JSONObject();
+        config.put("enabled", true);
+        config.put("maxQueue", maxQueue);
+        if (fixedLimit > 0) {
+            config.put("minLimit", fixedLimit);
+            config.put("maxLimit", fixedLimit);
+            config.put("initialLimit", fixedLimit);
+        }
+        limiter.configure(config);
+
+        final PhaseStats[] stats = new PhaseStats[PHASES.length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new PhaseStats();
+        }
+
+        long end = phaseMillis * PHASES.length;
+        double arrival = 0;
+        int submitted = 0;
+        while ((arrival += -Math.log(1 - random.nextDouble()) * 1000 / rate) < end) {
+            schedule((long) arrival, new SubmitEvent(limiter, stats));
+            submitted++;
+        }
+        final ConcurrencyLimiter sampled = limiter;
+        for (long t = 0; t < end; t += 100) {
+            schedule(t, new Runnable() {
+                public void run() {
+                    stats[phase(now)].limitSum += sampled.getLimit(HOST);
+                    stats[phase(now)].limitSamples++;
+                }
+            });
+        }
+
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            now = event.time;
+            event.action.run();
+        }
+
+        System.out.println(fixedLimit > 0 ? "Fixed limit " + fixedLimit : "Adaptive limit");
+        System.out.println(String.format("%-6s %10s %10s %10s %10s %10s %10s %10s %10s", "phase", "goodput/s", "timeouts", "late",
+                "shed", "expired", "p50 ms", "p99 ms", "avg limit"));
+        int accounted = 0;
+        for (int i = 0; i < stats.length; i++) {
+            PhaseStats phase = stats[i];
+            accounted += phase.completed + phase.timeouts + phase.shed + phase.expired;
+            long[] latencies = Arrays.copyOf(phase.latencies, phase.completed);
+            Arrays.sort(latencies);
+            System.out.println(String.format("%-6s %10.1f %10d %10d %10d %10d %10d %10d %10.1f", PHASE_NAMES[i],
+                    (phase.completed - phase.late) * 1000.0 / phaseMillis, phase.timeouts, phase.late, phase.shed, phase.expired,
+                    percentile(latencies, 0.50), percentile(latencies, 0.99),
+                    phase.limitSamples == 0 ? 0 : phase.limitSum / (double) phase.limitSamples));
+        }
+        System.out.println(limiter.getStats().toString());
+
+        if (accounted != submitted) {
+            System.out.println("FAIL: " + submitted + " requests submitted, " + accounted + " completed, timed out, shed or expired");
+            return false;
+        }
+        if (lateExpiries > 0) {
+            System.out.println("FAIL: " + lateExpiries + " requests expired after their deadline");
+            return false;
+        }
+        System.out.println("PASS");
+        return true;
+    }
+
+    /**
+     * Sends one request over the simulated link and schedules its completion
+     */
+    private void send(final ConcurrencyLimiter.Permit permit, final long submittedAt, final PhaseStats[] stats) {
+        int[] phase = PHASES[Math.min(phase(now), PHASES.length - 1)];
+        int slot = 0;
+        for (int i = 1; i < phase[0]; i++) {
+            if (slotFreeAt[i] < slotFreeAt[slot]) {
+                slot = i;
+            }
+        }
+        long serviceTime = (long) (phase[1] * (0.5 + random.nextDouble()));
+        long done = Math.max(now, slotFreeAt[slot]) + serviceTime;
+        slotFreeAt[slot] = done;
+
+        if (done - now > timeoutMillis) {
+            // The client gives up, but the link still spends the slot on this request
+            schedule(now + timeoutMillis, new Runnable() {
+                public void run() {
+                    stats[phase(submittedAt)].timeouts++;
+                    permit.release(true);
+                }
+            });
+        } else {
+            schedule(done, new Runnable() {
+                public void run() {
+                    stats[phase(submittedAt)].record(now - submittedAt, timeoutMillis);
+                    permit.release(false);
+                }
+            });
+        }
+    }
+
+    private int phase(long time) {
+        return (int) Math.min(time / phaseMillis, PHASES.length - 1);
+    }
+
+    private void schedule(long time, Runnable action) {
+        events.add(new Event(time, sequence++, action));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min((int) Math.ceil(percentile * sorted.length) - 1, sorted.length - 1)];
+    }
+
+    private String option(String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+    }
+
+    private final class SubmitEvent implements Runnable {
+        private final ConcurrencyLimiter limiter;
+        private final PhaseStats[] stats;
+
+        SubmitEvent(ConcurrencyLimiter limiter, PhaseStats[] stats) {
+            this.limiter = limiter;
+            this.stats = stats;
+        }
+
+        @Override
+        public void run() {
+            final long submittedAt = now;
+            int priority = random.nextInt(10) == 0 ? ConcurrencyLimiter.PRIORITY_HIGH : ConcurrencyLimiter.PRIORITY_NORMAL;
+            long startWithin = maxQueueAge > 0 ? maxQueueAge * 1000000L : ConcurrencyLimiter.NO_DEADLINE;
+            limiter.submit(HOST, priority, startWithin, new ConcurrencyLimiter.Task() {
+                @Override
+                public void run(ConcurrencyLimiter.Permit permit) {
+                    send(permit, submittedAt, stats);
+                }
+
+                @Override
+                public void onShed(String reason, boolean expired) {
+                    if (!expired) {
+                        stats[phase(submittedAt)].shed++;
+                        return;
+                    }
+                    stats[phase(submittedAt)].expired++;
+                    if (now > submittedAt + maxQueueAge) {
+                        lateExpiries++;
+                    }
+                }
+            });
+        }
+    }
+
+    private static final class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+        }
+    }
+
+    private static final class PhaseStats {
+        long[] latencies = new long[1024];
+        int completed;
+        int timeouts;
+        int late;
+        int shed;
+        int expired;
+        long limitSum;
+        int limitSamples;
+
+        void record(long latency, long timeoutMillis) {
+            if (latency > timeoutMillis) {
+                late++;
+            }
+            if (completed == latencies.length) {
+                latencies = Arrays.copyOf(latencies, completed * 2);
+            }
+            latencies[completed++] = latency;
+        }
+    }
+}
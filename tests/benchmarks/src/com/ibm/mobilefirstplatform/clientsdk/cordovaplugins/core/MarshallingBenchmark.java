@@ -0,0 +1,176 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Request;
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Response;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the bridge marshalling done by CDVBMSRequest for every request and response.
+ * Run with "-prof gc" to get the allocation rate per operation alongside the throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarshallingBenchmark {
+
+    @Param({"0", "8", "32"})
+    int headerCount;
+
+    @Param({"0", "1024", "65536"})
+    int bodySize;
+
+    private String bridgeArgs;
+    private String templateBridgeArgs;
+    private RequestTemplate template;
+    private JSONObject jsRequest;
+    private JSONObject jsHeaders;
+    private Map<String, List<String>> nativeHeaders;
+    private Response nativeResponse;
+
+    @Setup
+    public void setUp() throws JSONException {
+        jsHeaders = new JSONObject();
+        nativeHeaders = new LinkedHashMap<String, List<String>>();
+        for (int i = 0; i < headerCount; i++) {
+            String name = "X-Benchmark-Header-" + i;
+            String value = "value-" + i + "-abcdefghijklmnopqrstuvwxyz";
+            jsHeaders.put(name, value);
+            nativeHeaders.put(name, Collections.singletonList(value));
+        }
+
+        String body = repeat('a', bodySize);
+
+        jsRequest = new JSONObject();
+        jsRequest.put("url", "https://example.bluemix.net/api/items/42");
+        jsRequest.put("method", "POST");
+        jsRequest.put("timeout", 30000);
+        jsRequest.put("headers", jsHeaders);
+        jsRequest.put("queryParameters", new JSONObject().put("page", "1").put("size", "50"));
+        jsRequest.put("body", body);
+        bridgeArgs = new JSONArray().put(jsRequest).toString();
+
+        JSONObject jsTemplate = new JSONObject();
+        jsTemplate.put("url", "https://example.bluemix.net/api/items/{id}");
+        jsTemplate.put("method", "POST");
+        jsTemplate.put("timeout", 30000);
+        jsTemplate.put("headers", jsHeaders);
+        template = RequestTemplate.compile(jsTemplate);
+
+        JSONObject call = new JSONObject();
+        call.put("pathParams", new JSONObject().put("id", "42"));
+        call.put("query", new JSONObject().put("page", "1").put("size", "50"));
+        call.put("body", body);
+        templateBridgeArgs = new JSONArray().put("items").put(call).toString();
+
+        nativeResponse = new FixedResponse(200, body, nativeHeaders);
+    }
+
+    /**
+     * The JSON passed to CDVBMSRequest.execute() after Cordova parsed it
+     */
+    @Benchmark
+    public Request unpackJSONRequest() throws JSONException {
+        return RequestMarshaller.unpackJSONRequest(jsRequest);
+    }
+
+    /**
+     * The full request path, including the parsing of the raw bridge arguments that Cordova does before execute()
+     */
+    @Benchmark
+    public Request unpackBridgeArguments() throws JSONException {
+        return RequestMarshaller.unpackJSONRequest(new JSONArray(bridgeArgs).getJSONObject(0));
+    }
+
+    /**
+     * The same request sent with CDVBMSRequest.sendTemplate, compare with unpackBridgeArguments
+     */
+    @Benchmark
+    public Request sendTemplateBridgeArguments() throws JSONException {
+        return template.newRequest(new JSONArray(templateBridgeArgs).getJSONObject(1));
+    }
+
+    @Benchmark
+    public String packJavaResponseToJSON() throws JSONException {
+        return RequestMarshaller.packJavaResponseToJSON(nativeResponse);
+    }
+
+    @Benchmark
+    public JSONObject convertHashMaptoJSON() throws JSONException {
+        return RequestMarshaller.convertHashMaptoJSON(nativeHeaders);
+    }
+
+    @Benchmark
+    public Map convertJSONtoHashMap() throws JSONException {
+        return RequestMarshaller.convertJSONtoHashMap(jsHeaders, true);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static final class FixedResponse implements Response {
+        private final int status;
+        private final String text;
+        private final Map<String, List<String>> headers;
+
+        FixedResponse(int status, String text, Map<String, List<String>> headers) {
+            this.status = status;
+            this.text = text;
+            this.headers = headers;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public String getResponseText() {
+            return text;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import android.content.Context;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Request;
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Response;
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.ResponseListener;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test for the native request path of CDVBMSRequest.send against a local mock HTTP server.
+ * Requests are unpacked on the calling thread as on the Cordova bridge thread, sent from a thread pool like
+ * CordovaInterface.getThreadPool(), and their responses are packed for the Javascript callback.
+ *
+ * Options, all optional: --requests=10000 --concurrency=32 --latency=20 --jitter=10 --payload=1024
+ * --requestBody=256 --errorRate=0.01 --timeout=30000 --serverThreads=64 --warmup=500
+ *
+ * Reports requests per second, p50/p99/p999 latency and the sampled heap high-water mark, and exits with status 1
+ * if a request did not complete exactly once or the observed error rate does not match the configured one.
+ */
+public class RequestLoadTest {
+
+    private final Map<String, String> options;
+
+    private final int requests;
+    private final int concurrency;
+    private final int latencyMillis;
+    private final int jitterMillis;
+    private final int payloadBytes;
+    private final int requestBodyBytes;
+    private final double errorRate;
+    private final int timeoutMillis;
+    private final int serverThreads;
+    private final int warmupRequests;
+
+    private final AtomicInteger serverRequests = new AtomicInteger();
+
+    RequestLoadTest(Map<String, String> options) {
+        this.options = options;
+        this.requests = intOption("requests", 10000);
+        this.concurrency = intOption("concurrency", 32);
+        this.latencyMillis = intOption("latency", 20);
+        this.jitterMillis = intOption("jitter", 10);
+        this.payloadBytes = intOption("payload", 1024);
+        this.requestBodyBytes = intOption("requestBody", 256);
+        this.errorRate = Double.parseDouble(option("errorRate", "0.01"));
+        this.timeoutMillis = intOption("timeout", 30000);
+        this.serverThreads = intOption("serverThreads", 64);
+        this.warmupRequests = intOption("warmup", 500);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("--") && separator > 2) {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        System.exit(new RequestLoadTest(options).run() ? 0 : 1);
+    }
+
+    boolean run() throws Exception {
+        HttpServer server = startMockServer();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/items";
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+
+        try {
+            if (warmupRequests > 0) {
+                drive(threadPool, url, warmupRequests);
+            }
+            serverRequests.set(0);
+            return report(drive(threadPool, url, requests));
+        } finally {
+            threadPool.shutdownNow();
+            server.stop(0);
+        }
+    }
+
+    private HttpServer startMockServer() throws IOException {
+        final byte[] payload = new byte[payloadBytes];
+        Arrays.fill(payload, (byte) 'a');
+        final Random random = new Random();
+
+        // Without TCP_NODELAY, Nagle and delayed ACKs add ~40 ms to every response and hide the client-side latency
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(Executors.newFixedThreadPool(serverThreads));
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serverRequests.incrementAndGet();
+                InputStream in = exchange.getRequestBody();
+                byte[] discard = new byte[8192];
+                while (in.read(discard) != -1) {
+                    // Drain the request body
+                }
+                in.close();
+
+                int delay;
+                boolean fail;
+                synchronized (random) {
+                    delay = latencyMillis + (jitterMillis > 0 ? random.nextInt(jitterMillis + 1) : 0);
+                    fail = random.nextDouble() < errorRate;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                exchange.getResponseHeaders().add("Content-Type", "text/plain");
+                exchange.sendResponseHeaders(fail ? 500 : 200, payload.length > 0 ? payload.length : -1);
+                OutputStream out = exchange.getResponseBody();
+                out.write(payload);
+                out.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private Result drive(ExecutorService threadPool, String url, int count) throws Exception {
+        final Result result = new Result(count);
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final CountDownLatch done = new CountDownLatch(count);
+        final Context context = new Context() {
+        };
+
+        char[] body = new char[requestBodyBytes];
+        Arrays.fill(body, 'b');
+        String bridgeArgs = new JSONArray().put(new JSONObject()
+                .put("url", url)
+                .put("method", "POST")
+                .put("timeout", timeoutMillis)
+                .put("headers", new JSONObject().put("Content-Type", "text/plain").put("X-Load-Test", "true"))
+                .put("queryParameters", new JSONObject().put("page", "1"))
+                .put("body", new String(body))).toString();
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        final AtomicLong heapHighWater = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+        ScheduledExecutorService sampler = startHeapSampler(memory, heapHighWater);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            inFlight.acquire();
+            final int index = i;
+            final long submitted = System.nanoTime();
+
+            // Bridge thread: CDVBMSRequest.send parses and unpacks the request before handing it to the thread pool
+            final JSONObject jsRequest = new JSONArray(bridgeArgs).getJSONObject(0);
+            final Request nativeRequest = RequestMarshaller.unpackJSONRequest(jsRequest);
+            final String bodyText = jsRequest.optString("body", "");
+
+            threadPool.execute(new Runnable() {
+                public void run() {
+                    nativeRequest.send(context, bodyText, new ResponseListener() {
+                        @Override
+                        public void onSuccess(Response response) {
+                            complete(true, response, null);
+                        }
+
+                        @Override
+                        public void onFailure(Response response, Throwable t, JSONObject extendedInfo) {
+                            complete(false, response, t);
+                        }
+
+                        private void complete(boolean success, Response response, Throwable t) {
+                            try {
+                                // What the plugin hands to the Javascript callback
+                                String packed = success ? RequestMarshaller.packJavaResponseToJSON(response)
+                                        : RequestMarshaller.packJavaResponseToJSON(response, t, null);
+                                result.record(index, success, response, packed, System.nanoTime() - submitted);
+                            } catch (JSONException e) {
+                                result.record(index, false, null, null, System.nanoTime() - submitted);
+                            } finally {
+                                inFlight.release();
+                                done.countDown();
+                            }
+                        }
+                    });
+                }
+            });
+        }
+
+        boolean finished = done.await(Math.max(timeoutMillis, 1000) * 2L + count * 10L, TimeUnit.MILLISECONDS);
+        result.elapsedNanos = System.nanoTime() - start;
+        sampler.shutdownNow();
+        result.heapHighWater = heapHighWater.get();
+        result.timedOut = !finished;
+        return result;
+    }
+
+    private static ScheduledExecutorService startHeapSampler(final MemoryMXBean memory, final AtomicLong heapHighWater) {
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                long used = memory.getHeapMemoryUsage().getUsed();
+                long current;
+                while ((current = heapHighWater.get()) < used && !heapHighWater.compareAndSet(current, used)) {
+                    // Retry until the maximum is recorded
+                }
+            }
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        return sampler;
+    }
+
+    private boolean report(Result result) {
+        long[] latencies = result.sortedLatencies();
+        double seconds = result.elapsedNanos / 1e9;
+
+        System.out.println("requests        " + result.count + " (concurrency " + concurrency + ")");
+        System.out.println("throughput      " + String.format("%.1f", result.count / seconds) + " req/s");
+        System.out.println("latency p50     " + millis(percentile(latencies, 0.50)) + " ms");
+        System.out.println("latency p99     " + millis(percentile(latencies, 0.99)) + " ms");
+        System.out.println("latency p999    " + millis(percentile(latencies, 0.999)) + " ms");
+        System.out.println("heap high-water " + (result.heapHighWater / (1024 * 1024)) + " MB");
+        System.out.println("succeeded       " + result.succeeded.get());
+        System.out.println("http errors     " + result.httpErrors.get());
+        System.out.println("transport errors " + result.transportErrors.get());
+
+        boolean valid = true;
+        if (result.timedOut) {
+            System.out.println("FAIL: requests still in flight after the deadline");
+            valid = false;
+        }
+        int missing = 0;
+        int duplicated = 0;
+        for (int i = 0; i < result.count; i++) {
+            int completions = result.completions.get(i);
+            if (completions == 0) {
+                missing++;
+            } else if (completions > 1) {
+                duplicated++;
+            }
+        }
+        if (missing > 0 || duplicated > 0) {
+            System.out.println("FAIL: " + missing + " requests without a callback, " + duplicated + " with several callbacks");
+            valid = false;
+        }
+        if (result.malformedCallbacks.get() > 0) {
+            System.out.println("FAIL: " + result.malformedCallbacks.get() + " callbacks without a packed response");
+            valid = false;
+        }
+        // A request that timed out may or may not have reached the server
+        if (serverRequests.get() < result.count - result.transportErrors.get() || serverRequests.get() > result.count) {
+            System.out.println("FAIL: server saw " + serverRequests.get() + " requests");
+            valid = false;
+        }
+        if (timeoutMillis > latencyMillis + jitterMillis) {
+            // With no timeouts expected, every failure must be one of the injected server errors
+            double observed = (double) result.httpErrors.get() / result.count;
+            double tolerance = 4 * Math.sqrt(errorRate * (1 - errorRate) / result.count) + 0.001;
+            if (Math.abs(observed - errorRate) > tolerance || result.transportErrors.get() > 0) {
+                System.out.println("FAIL: error rate " + observed + " does not match the configured " + errorRate);
+                valid = false;
+            }
+        } else if (timeoutMillis < latencyMillis && result.transportErrors.get() != result.count) {
+            System.out.println("FAIL: " + (result.count - result.transportErrors.get()) + " requests outlived the timeout");
+            valid = false;
+        }
+        System.out.println(valid ? "PASS" : "FAILED");
+        return valid;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+
+    private String option(String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+    }
+
+    private static final class Result {
+        final int count;
+        final long[] latencies;
+        final AtomicIntegerArray completions;
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger httpErrors = new AtomicInteger();
+        final AtomicInteger transportErrors = new AtomicInteger();
+        final AtomicInteger malformedCallbacks = new AtomicInteger();
+        long elapsedNanos;
+        long heapHighWater;
+        boolean timedOut;
+
+        Result(int count) {
+            this.count = count;
+            this.latencies = new long[count];
+            this.completions = new AtomicIntegerArray(count);
+        }
+
+        void record(int index, boolean success, Response response, String packed, long latencyNanos) {
+            if (completions.incrementAndGet(index) > 1) {
+                return;
+            }
+            synchronized (latencies) {
+                latencies[index] = latencyNanos;
+            }
+            if (packed == null) {
+                malformedCallbacks.incrementAndGet();
+            }
+            if (success) {
+                succeeded.incrementAndGet();
+            } else if (response != null) {
+                httpErrors.incrementAndGet();
+            } else {
+                transportErrors.incrementAndGet();
+            }
+        }
+
+        long[] sortedLatencies() {
+            long[] copy;
+            synchronized (latencies) {
+                copy = Arrays.copyOf(latencies, count);
+            }
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -489,5 +489,175 @@ exports.defineAutoTests = function () {
 				BMSAnalytics.send();
 			}, 5000);
 		});
+
+		describe('BMSRequest native payload', function() {
+			var TEST_URL = "http://httpbin.org/post";
+			var TRACEPARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+			var sentRequest = function() {
+				var calls = cordova.exec.calls.all().filter(function(call) {
+					return call.args[2] === "BMSRequest" && call.args[3] === "send";
+				});
+				expect(calls.length).toBe(1);
+				return calls[0].args[4][0];
+			};
+
+			beforeEach(function() {
+				spyOn(cordova, 'exec');
+			});
+
+			it('should pass priority, deadline, queue age, deferrable and traceparent to native code', function() {
+				var request = new BMSRequest(TEST_URL, BMSRequest.POST, 10000);
+				request.setPriority("high");
+				request.setDeadline(1700000000000);
+				request.setMaxQueueAge(2000);
+				request.setDeferrable(true);
+				request.setTraceParent(TRACEPARENT);
+				request.send({name: "value"}, function() {}, function() {});
+
+				var sent = sentRequest();
+				expect(sent.url).toEqual(TEST_URL);
+				expect(sent.method).toEqual(BMSRequest.POST);
+				expect(sent.timeout).toBe(10000);
+				expect(sent.priority).toEqual("high");
+				expect(sent.deadline).toBe(1700000000000);
+				expect(sent.maxQueueAge).toBe(2000);
+				expect(sent.deferrable).toBe(true);
+				expect(sent.traceparent).toEqual(TRACEPARENT);
+				expect(sent.body).toEqual('{"name":"value"}');
+				expect(sent.headers["Content-Type"]).toEqual("application/json");
+			});
+
+			it('should leave default options out of the payload', function() {
+				var request = new BMSRequest(TEST_URL, BMSRequest.GET);
+				request.setPriority("normal");
+				request.setDeadline(0);
+				request.setTraceParent(null);
+				request.send("text", function() {}, function() {});
+
+				var sent = sentRequest();
+				expect(sent.body).toEqual("text");
+				expect("priority" in sent).toBe(false);
+				expect("deadline" in sent).toBe(false);
+				expect("maxQueueAge" in sent).toBe(false);
+				expect("deferrable" in sent).toBe(false);
+				expect("traceparent" in sent).toBe(false);
+			});
+		});
+
+		describe('BMSBatch behavior', function() {
+			var isAndroid = cordova.platformId === "android";
+
+			beforeEach(function() {
+				BMSBatch.flush();
+				spyOn(cordova, 'exec');
+			});
+
+			it('should send the calls queued in one tick as a single native call on Android', function(done) {
+				BMSBatch.exec(null, null, "BMSLogger", "getLogLevel", []);
+				BMSBatch.exec(null, null, "BMSLogger", "isStoringLogs", []);
+
+				if (!isAndroid) {
+					// Other platforms call native code directly
+					expect(cordova.exec.calls.count()).toBe(2);
+					done();
+					return;
+				}
+				expect(cordova.exec).not.toHaveBeenCalled();
+				setTimeout(function() {
+					expect(cordova.exec.calls.count()).toBe(1);
+					var call = cordova.exec.calls.mostRecent().args;
+					expect(call[2]).toEqual("BMSBatch");
+					expect(call[3]).toEqual("execute");
+					expect(call[4][0]).toEqual([{plugin: "BMSLogger", action: "getLogLevel", args: []},
+												{plugin: "BMSLogger", action: "isStoringLogs", args: []}]);
+					done();
+				}, 50);
+			}, 5000);
+
+			it('should send queued calls before a call that cannot be batched', function() {
+				BMSBatch.exec(null, null, "BMSLogger", "getLogLevel", []);
+				BMSBatch.exec(null, null, "BMSLogger", "send", []);
+
+				var actions = cordova.exec.calls.all().map(function(call) {
+					return call.args[3];
+				});
+				expect(actions).toEqual(["getLogLevel", "send"]);
+			});
+
+			it('should route each batch result to the callbacks of its call', function() {
+				var results = [];
+				cordova.exec.and.callFake(function(success, failure, plugin, action, args) {
+					success([{status: "ok", result: "DEBUG"}, {status: "error", result: "Not storing"}]);
+				});
+				BMSBatch.run([
+					{plugin: "BMSLogger", action: "getLogLevel", args: [],
+						success: function(result) { results.push("ok " + result); },
+						failure: function(result) { results.push("failed " + result); }},
+					{plugin: "BMSLogger", action: "isStoringLogs", args: [],
+						success: function(result) { results.push("ok " + result); },
+						failure: function(result) { results.push("failed " + result); }}
+				]);
+				expect(results).toEqual(["ok DEBUG", "failed Not storing"]);
+			});
+		});
+
+		describe('BMSTracer behavior', function() {
+			var TRACEPARENT = /^00-([0-9a-f]{32})-([0-9a-f]{16})-01$/;
+
+			beforeEach(function() {
+				spyOn(cordova, 'exec');
+			});
+
+			afterEach(function() {
+				BMSTracer.configure({enabled: false, sampleRate: 1});
+				BMSBatch.flush();
+			});
+
+			it('should return a span without a traceparent while tracing is disabled', function() {
+				BMSTracer.configure({enabled: false});
+				var span = BMSTracer.startSpan("checkout");
+				expect(span.traceparent()).toBeNull();
+				expect(span.startChild("payment").traceparent()).toBeNull();
+			});
+
+			it('should not sample any trace with a sample rate of 0', function() {
+				BMSTracer.configure({enabled: true, sampleRate: 0});
+				expect(BMSTracer.startSpan("checkout").traceparent()).toBeNull();
+			});
+
+			it('should format the traceparent as version-traceid-spanid-flags', function() {
+				BMSTracer.configure({enabled: true, sampleRate: 1});
+				var span = BMSTracer.startSpan("checkout");
+				var child = BMSTracer.startSpan("payment", span);
+
+				var parent = TRACEPARENT.exec(span.traceparent());
+				var nested = TRACEPARENT.exec(child.traceparent());
+				expect(parent).not.toBeNull();
+				expect(nested).not.toBeNull();
+				expect(nested[1]).toEqual(parent[1]);
+				expect(nested[2]).not.toEqual(parent[2]);
+				expect(child.parentSpanId).toEqual(span.spanId);
+				expect(BMSTracer.startSpan("other").traceId).not.toEqual(span.traceId);
+			});
+		});
+
+		describe('BMSAnalytics event validation', function() {
+			beforeEach(function() {
+				spyOn(cordova, 'exec');
+			});
+
+			it('should reject event metadata that is not an object', function() {
+				var failures = [];
+				var success = jasmine.createSpy('success');
+				BMSAnalytics.log("text", success, function(message) { failures.push(message); });
+				BMSAnalytics.log(["array"], success, function(message) { failures.push(message); });
+				BMSAnalytics.log(null, success, function(message) { failures.push(message); });
+
+				expect(success).not.toHaveBeenCalled();
+				expect(failures.length).toBe(3);
+				expect(failures[0]).toEqual("Analytics event metadata must be an object");
+			});
+		});
 	});
 };
\ No newline at end of file
@@ -0,0 +1,123 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Counters, gauges, timer histograms and the metric cap of AnalyticsAggregator
+ */
+final class AnalyticsAggregatorTest {
+
+    private AnalyticsAggregatorTest() {
+    }
+
+    static void testBucketIndexIsLogLinear() {
+        Check.equal(0, AnalyticsAggregator.bucketIndex(0), "zero");
+        Check.equal(0, AnalyticsAggregator.bucketIndex(0.99), "below one");
+        Check.equal(0, AnalyticsAggregator.bucketIndex(Double.NaN), "NaN");
+        Check.equal(1, AnalyticsAggregator.bucketIndex(1), "one");
+        // [8, 16) is split into [8, 10), [10, 12), [12, 14) and [14, 16)
+        Check.equal(13, AnalyticsAggregator.bucketIndex(8), "8");
+        Check.equal(13, AnalyticsAggregator.bucketIndex(9.99), "9.99");
+        Check.equal(14, AnalyticsAggregator.bucketIndex(10), "10");
+        Check.equal(16, AnalyticsAggregator.bucketIndex(15.99), "15.99");
+        Check.equal(17, AnalyticsAggregator.bucketIndex(16), "16");
+        Check.equal(AnalyticsAggregator.bucketIndex(Double.MAX_VALUE), AnalyticsAggregator.bucketIndex(Math.scalb(1.0, 40)),
+                "values past 2^32 share the last bucket");
+        Check.near(11, AnalyticsAggregator.bucketMidpoint(14), 1e-9, "midpoint of [10, 12)");
+    }
+
+    static void testTimerPercentilesStayWithinOneBucket() throws Exception {
+        AnalyticsAggregator aggregator = new AnalyticsAggregator(10, 0);
+        for (int i = 1; i <= 1000; i++) {
+            aggregator.record(AnalyticsAggregator.TIMER, "request", i, null);
+        }
+
+        JSONObject timer = onlyMetric(aggregator.flush(10000));
+        Check.equal(1000L, timer.getLong("count"), "count");
+        Check.near(1, timer.getDouble("min"), 0, "min");
+        Check.near(1000, timer.getDouble("max"), 0, "max");
+        Check.near(500.5, timer.getDouble("mean"), 1e-9, "mean");
+        // A bucket spans a quarter of its power of two, so a percentile is within 12.5% of the exact value
+        Check.near(500, timer.getDouble("p50"), 500 * 0.125, "p50");
+        Check.near(900, timer.getDouble("p90"), 900 * 0.125, "p90");
+        Check.near(990, timer.getDouble("p99"), 990 * 0.125, "p99");
+        Check.isTrue(timer.getDouble("p99") <= 1000, "p99 clamped to the max");
+    }
+
+    static void testCountersAndGauges() throws Exception {
+        AnalyticsAggregator aggregator = new AnalyticsAggregator(10, 0);
+        aggregator.record(AnalyticsAggregator.COUNTER, "taps", 2, null);
+        aggregator.record(AnalyticsAggregator.COUNTER, "taps", 3, null);
+        aggregator.record(AnalyticsAggregator.GAUGE, "battery", 80, null);
+        aggregator.record(AnalyticsAggregator.GAUGE, "battery", 60, null);
+
+        JSONObject event = aggregator.flush(5000);
+        Check.equal("aggregate", event.getString("category"), "category");
+        Check.equal(0L, event.getLong("intervalStart"), "interval start");
+        Check.equal(5000L, event.getLong("intervalEnd"), "interval end");
+
+        JSONArray metrics = event.getJSONArray("metrics");
+        Check.equal(2, metrics.length(), "metrics");
+        for (int i = 0; i < metrics.length(); i++) {
+            JSONObject metric = metrics.getJSONObject(i);
+            if ("taps".equals(metric.getString("name"))) {
+                Check.near(5, metric.getDouble("value"), 0, "counter sum");
+                Check.equal(2L, metric.getLong("count"), "counter count");
+            } else {
+                Check.near(60, metric.getDouble("value"), 0, "gauge last value");
+                Check.near(60, metric.getDouble("min"), 0, "gauge min");
+                Check.near(80, metric.getDouble("max"), 0, "gauge max");
+            }
+        }
+
+        Check.equal(null, aggregator.flush(6000), "nothing recorded since the last flush");
+    }
+
+    static void testDimensionsKeyTheMetricWhateverTheirOrder() throws Exception {
+        AnalyticsAggregator aggregator = new AnalyticsAggregator(10, 0);
+        aggregator.record(AnalyticsAggregator.COUNTER, "requests", 1, new JSONObject().put("host", "a").put("status", 200));
+        aggregator.record(AnalyticsAggregator.COUNTER, "requests", 1, new JSONObject().put("status", 200).put("host", "a"));
+        aggregator.record(AnalyticsAggregator.COUNTER, "requests", 1, new JSONObject().put("host", "b").put("status", 200));
+        Check.equal(2, aggregator.size(), "distinct metrics");
+    }
+
+    static void testMetricsOverTheCapAreDroppedAndCounted() throws Exception {
+        AnalyticsAggregator aggregator = new AnalyticsAggregator(2, 0);
+        Check.isTrue(aggregator.record(AnalyticsAggregator.COUNTER, "a", 1, null), "first metric");
+        Check.isTrue(aggregator.record(AnalyticsAggregator.COUNTER, "b", 1, null), "second metric");
+        Check.isTrue(!aggregator.record(AnalyticsAggregator.COUNTER, "c", 1, null), "third metric");
+        Check.isTrue(aggregator.record(AnalyticsAggregator.COUNTER, "a", 1, null), "existing metric");
+
+        JSONObject event = aggregator.flush(1000);
+        Check.equal(1L, event.getLong("droppedRecords"), "dropped records");
+        Check.isTrue(aggregator.record(AnalyticsAggregator.COUNTER, "c", 1, null), "room again after a flush");
+    }
+
+    static void testUnknownTypeIsRejected() {
+        final AnalyticsAggregator aggregator = new AnalyticsAggregator(10, 0);
+        Check.fails(IllegalArgumentException.class, new Check.Action() {
+            public void run() {
+                aggregator.record("histogram", "latency", 1, null);
+            }
+        });
+    }
+
+    private static JSONObject onlyMetric(JSONObject event) throws Exception {
+        JSONArray metrics = event.getJSONArray("metrics");
+        Check.equal(1, metrics.length(), "metrics");
+        return metrics.getJSONObject(0);
+    }
+}
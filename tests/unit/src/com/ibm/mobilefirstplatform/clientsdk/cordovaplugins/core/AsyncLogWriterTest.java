@@ -0,0 +1,212 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overflow policies, trimming and the crash drain of AsyncLogWriter. Each test holds the writer thread inside the sink
+ * with its first entry, so the ring buffer fills up deterministically behind it.
+ */
+final class AsyncLogWriterTest {
+
+    private AsyncLogWriterTest() {
+    }
+
+    static void testDropNewestRejectsTheNewEntry() throws Exception {
+        GatedSink sink = new GatedSink();
+        AsyncLogWriter writer = fill(AsyncLogWriter.OverflowPolicy.DROP_NEWEST, sink);
+
+        Check.isTrue(!writer.offer("info", "test", "d", 4), "offer into a full buffer");
+        Check.equal(1L, writer.getDroppedCount(), "dropped");
+        Check.equal(2, writer.size(), "queued");
+
+        sink.open();
+        writer.shutdown();
+        Check.equal(Arrays.asList("a", "b", "c"), sink.messages(), "written");
+        Check.equal(3L, writer.getWrittenCount(), "written count");
+    }
+
+    static void testDropOldestEvictsTheOldestQueuedEntry() throws Exception {
+        GatedSink sink = new GatedSink();
+        AsyncLogWriter writer = fill(AsyncLogWriter.OverflowPolicy.DROP_OLDEST, sink);
+
+        Check.isTrue(writer.offer("info", "test", "d", 4), "offer into a full buffer");
+        Check.equal(1L, writer.getDroppedCount(), "dropped");
+
+        sink.open();
+        writer.shutdown();
+        Check.equal(Arrays.asList("a", "c", "d"), sink.messages(), "written");
+    }
+
+    static void testBlockWaitsForRoom() throws Exception {
+        GatedSink sink = new GatedSink();
+        final AsyncLogWriter writer = fill(AsyncLogWriter.OverflowPolicy.BLOCK, sink);
+
+        final boolean[] accepted = new boolean[1];
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                accepted[0] = writer.offer("info", "test", "d", 4);
+            }
+        });
+        producer.start();
+        long giveUp = System.currentTimeMillis() + 2000;
+        while (producer.getState() != Thread.State.WAITING && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(5);
+        }
+        Check.equal(Thread.State.WAITING, producer.getState(), "producer state while the buffer is full");
+        Check.equal(2, writer.size(), "queued");
+
+        sink.open();
+        producer.join(2000);
+        writer.shutdown();
+        Check.isTrue(accepted[0], "blocked offer accepted once room was made");
+        Check.equal(0L, writer.getDroppedCount(), "dropped");
+        Check.equal(Arrays.asList("a", "b", "c", "d"), sink.messages(), "written");
+    }
+
+    static void testStoppedWriterKeepsEntriesUntilRestartedAndNeverBlocks() {
+        GatedSink sink = new GatedSink();
+        sink.open();
+        AsyncLogWriter writer = new AsyncLogWriter(2, AsyncLogWriter.OverflowPolicy.BLOCK, 1, sink);
+        writer.start();
+        writer.shutdown();
+
+        Check.isTrue(writer.offer("info", "test", "a", 1), "offer a while stopped");
+        Check.isTrue(writer.offer("info", "test", "b", 2), "offer b while stopped");
+        Check.isTrue(!writer.offer("info", "test", "c", 3), "offer into a full buffer with no writer thread");
+        Check.equal(1L, writer.getDroppedCount(), "dropped");
+
+        writer.start();
+        writer.shutdown();
+        Check.equal(Arrays.asList("a", "b"), sink.messages(), "written after a restart");
+    }
+
+    static void testOverflowPolicyNames() {
+        Check.equal(AsyncLogWriter.OverflowPolicy.BLOCK, AsyncLogWriter.OverflowPolicy.fromString("block"), "block");
+        Check.equal(AsyncLogWriter.OverflowPolicy.DROP_NEWEST, AsyncLogWriter.OverflowPolicy.fromString("DROP_NEWEST"), "drop_newest");
+        Check.equal(AsyncLogWriter.OverflowPolicy.DROP_OLDEST, AsyncLogWriter.OverflowPolicy.fromString("unknown"), "unknown");
+        Check.equal(AsyncLogWriter.OverflowPolicy.DROP_OLDEST, AsyncLogWriter.OverflowPolicy.fromString(null), "null");
+    }
+
+    static void testTrimLetsTheWriterDrainFirst() throws Exception {
+        GatedSink sink = new GatedSink();
+        sink.open();
+        AsyncLogWriter writer = new AsyncLogWriter(64, AsyncLogWriter.OverflowPolicy.DROP_OLDEST, 4, sink);
+        writer.start();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 40; i++) {
+            writer.offer("info", "test", "m" + i, i);
+            expected.add("m" + i);
+        }
+
+        writer.trimTo(0);
+        writer.shutdown();
+        Check.equal(0L, writer.getDroppedCount(), "dropped");
+        Check.equal(expected, sink.messages(), "written in order");
+    }
+
+    static void testTrimDropsTheOldestEntriesOfAStalledWriter() throws Exception {
+        GatedSink sink = new GatedSink();
+        AsyncLogWriter writer = fill(AsyncLogWriter.OverflowPolicy.DROP_OLDEST, sink);
+        long retained = writer.getRetainedBytes();
+        Check.isTrue(retained > 0, "retained bytes of the queued entries");
+
+        long started = System.nanoTime();
+        long released = writer.trimTo(0);
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        Check.isTrue(waitedMillis >= AsyncLogWriter.TRIM_WAIT_MILLIS - 50, "waited for the writer, " + waitedMillis + " ms");
+        Check.equal(retained, released, "released bytes");
+        Check.equal(0, writer.size(), "queued");
+        Check.equal(2L, writer.getDroppedCount(), "dropped");
+
+        sink.open();
+        writer.shutdown();
+        Check.equal(Arrays.asList("a"), sink.messages(), "written");
+    }
+
+    static void testCrashDrainSavesQueuedEntriesAndCountsTheInFlightBatch() throws Exception {
+        File directory = Check.tempDirectory("asynclogwriter");
+        SegmentLogStore store = new SegmentLogStore(directory, 4096, 2);
+        GatedSink sink = new GatedSink();
+        try {
+            // The crash path never rotates, it needs an active segment
+            store.append("info", "test", "before", 0);
+            AsyncLogWriter writer = fill(AsyncLogWriter.OverflowPolicy.DROP_OLDEST, sink);
+            long[] counts = new long[2];
+            writer.drainOnCrash(System.nanoTime() + TimeUnit.SECONDS.toNanos(1), store, counts);
+
+            Check.equal(2L, counts[CrashFlushHandler.SAVED], "saved");
+            Check.equal(1L, counts[CrashFlushHandler.DROPPED], "dropped, the entry held by the writer thread");
+            Check.equal(0, writer.size(), "queued");
+
+            Check.equal(Arrays.asList("before", "b", "c"), Check.storedMessages(store), "stored");
+        } finally {
+            sink.open();
+            store.close();
+            Check.delete(directory);
+        }
+    }
+
+    /**
+     * Starts a writer with room for two entries and a batch size of one, and queues "a", "b" and "c".
+     * Returns once the writer thread is inside the sink with "a", so "b" and "c" fill the buffer.
+     */
+    private static AsyncLogWriter fill(AsyncLogWriter.OverflowPolicy policy, GatedSink sink) throws InterruptedException {
+        AsyncLogWriter writer = new AsyncLogWriter(2, policy, 1, sink);
+        writer.start();
+        writer.offer("info", "test", "a", 1);
+        Check.isTrue(sink.entered.await(2, TimeUnit.SECONDS), "writer thread reached the sink");
+        Check.isTrue(writer.offer("info", "test", "b", 2), "offer b");
+        Check.isTrue(writer.offer("info", "test", "c", 3), "offer c");
+        return writer;
+    }
+
+    /**
+     * Sink that holds the writer thread until it is opened
+     */
+    private static final class GatedSink implements AsyncLogWriter.Sink {
+        final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<String> messages = new ArrayList<String>();
+
+        @Override
+        public void write(String level, String loggerName, String message, long timestamp) {
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (messages) {
+                messages.add(message);
+            }
+        }
+
+        void open() {
+            gate.countDown();
+        }
+
+        List<String> messages() {
+            synchronized (messages) {
+                return new ArrayList<String>(messages);
+            }
+        }
+    }
+}
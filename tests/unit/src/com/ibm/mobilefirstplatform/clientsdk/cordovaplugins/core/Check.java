@@ -0,0 +1,106 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assertions and fixtures shared by the unit tests
+ */
+final class Check {
+
+    private Check() {
+    }
+
+    static void isTrue(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    static void equal(Object expected, Object actual, String message) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new AssertionError(message + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    static void near(double expected, double actual, double tolerance, String message) {
+        if (Math.abs(expected - actual) > tolerance) {
+            throw new AssertionError(message + ": expected <" + expected + "> +/- " + tolerance + " but was <" + actual + ">");
+        }
+    }
+
+    /**
+     * Runs the action and checks that it throws an exception of the given type
+     */
+    static <T extends Throwable> T fails(Class<T> type, Action action) {
+        try {
+            action.run();
+        } catch (Throwable t) {
+            if (type.isInstance(t)) {
+                return type.cast(t);
+            }
+            throw new AssertionError("Expected " + type.getSimpleName() + " but got " + t);
+        }
+        throw new AssertionError("Expected " + type.getSimpleName() + " but nothing was thrown");
+    }
+
+    interface Action {
+        void run() throws Exception;
+    }
+
+    /**
+     * @return A new empty directory, deleted when the JVM exits
+     */
+    static File tempDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    /**
+     * Deletes the directory and its files
+     */
+    static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * @return The messages of every committed record in the store, oldest first
+     */
+    static List<String> storedMessages(SegmentLogStore store) throws IOException {
+        final List<String> messages = new ArrayList<String>();
+        for (SegmentLogStore.Segment segment : store.getAllSegments()) {
+            store.readSegment(segment, new SegmentLogStore.RecordVisitor() {
+                @Override
+                public boolean visit(int offset, long timestamp, String level, String loggerName, String message) {
+                    messages.add(message);
+                    return true;
+                }
+            });
+        }
+        return messages;
+    }
+}
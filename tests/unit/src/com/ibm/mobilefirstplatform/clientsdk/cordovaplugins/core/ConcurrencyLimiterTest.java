@@ -0,0 +1,189 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Permits, priorities, shedding, start deadlines and backoff of ConcurrencyLimiter, on a manual clock and timer with
+ * tasks run on the calling thread
+ */
+final class ConcurrencyLimiterTest {
+
+    private static final String HOST = "api.example.com";
+
+    private long now;
+    private final List<Runnable> timerTasks = new ArrayList<Runnable>();
+    private final List<Long> timerDelays = new ArrayList<Long>();
+    private final List<String> events = new ArrayList<String>();
+    private final List<ConcurrencyLimiter.Permit> permits = new ArrayList<ConcurrencyLimiter.Permit>();
+
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }, new ConcurrencyLimiter.Clock() {
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }, new ConcurrencyLimiter.Timer() {
+        @Override
+        public void schedule(Runnable task, long delayNanos) {
+            timerTasks.add(task);
+            timerDelays.add(delayNanos);
+        }
+    });
+
+    private ConcurrencyLimiterTest(int initialLimit, int maxQueue) throws JSONException {
+        limiter.configure(new JSONObject().put("enabled", true).put("initialLimit", initialLimit).put("maxQueue", maxQueue));
+    }
+
+    static void testRequestsOverTheLimitWaitForAPermit() throws Exception {
+        ConcurrencyLimiterTest test = new ConcurrencyLimiterTest(2, 8);
+        test.submit("a", ConcurrencyLimiter.PRIORITY_NORMAL);
+        test.submit("b", ConcurrencyLimiter.PRIORITY_NORMAL);
+        test.submit("c", ConcurrencyLimiter.PRIORITY_NORMAL);
+        Check.equal("[run a, run b]", test.events.toString(), "runs within the limit");
+
+        JSONObject host = test.limiter.getStats().getJSONObject("hosts").getJSONObject(HOST);
+        Check.equal(2, host.getInt("inFlight"), "in flight");
+        Check.equal(1, host.getInt("queued"), "queued");
+
+        test.release(0);
+        Check.equal("[run a, run b, run c]", test.events.toString(), "queued request runs on release");
+    }
+
+    static void testHigherPrioritiesRunFirst() throws Exception {
+        ConcurrencyLimiterTest test = new ConcurrencyLimiterTest(1, 8);
+        test.submit("running", ConcurrencyLimiter.PRIORITY_NORMAL);
+        test.submit("low", ConcurrencyLimiter.PRIORITY_LOW);
+        test.submit("normal", ConcurrencyLimiter.PRIORITY_NORMAL);
+        test.submit("high", ConcurrencyLimiter.PRIORITY_HIGH);
+
+        for (int i = 0; i < 3; i++) {
+            test.release(i);
+        }
+        Check.equal("[run running, run high, run normal, run low]", test.events.toString(), "run order");
+    }
+
+    static void testFullQueueShedsTheNewestLowestPriorityRequest() throws Exception {
+        ConcurrencyLimiterTest test = new ConcurrencyLimiterTest(1, 2);
+        test.submit("running", ConcurrencyLimiter.PRIORITY_NORMAL);
+        test.submit("low-1", ConcurrencyLimiter.PRIORITY_LOW);
+        test.submit("low-2", ConcurrencyLimiter.PRIORITY_LOW);
+        test.submit("high", ConcurrencyLimiter.PRIORITY_HIGH);
+
+        Check.equal("[run running, shed low-2]", test.events.toString(), "shed");
+        Check.equal(1L, test.limiter.getStats().getJSONObject("hosts").getJSONObject(HOST).getLong("shed"), "shed count");
+
+        test.release(0);
+        test.release(1);
+        Check.equal("[run running, shed low-2, run high, run low-1]", test.events.toString(), "remaining requests run");
+    }
+
+    static void testQueuedRequestExpiresOnTheTimer() throws Exception {
+        ConcurrencyLimiterTest test = new ConcurrencyLimiterTest(1, 8);
+        test.submit("running", ConcurrencyLimiter.PRIORITY_NORMAL);
+        test.submit("deadline", ConcurrencyLimiter.PRIORITY_NORMAL, TimeUnit.MILLISECONDS.toNanos(100));
+        test.submit("patient", ConcurrencyLimiter.PRIORITY_NORMAL);
+
+        Check.equal(1, test.timerTasks.size(), "expiry timer set");
+        Check.equal(TimeUnit.MILLISECONDS.toNanos(100), test.timerDelays.get(0), "expiry delay");
+
+        // The running request holds its permit past the deadline
+        test.now += TimeUnit.MILLISECONDS.toNanos(150);
+        test.timerTasks.get(0).run();
+        Check.equal("[run running, expired deadline]", test.events.toString(), "expired without a permit");
+        Check.equal(1L, test.limiter.getStats().getJSONObject("hosts").getJSONObject(HOST).getLong("expired"), "expired count");
+
+        test.release(0);
+        Check.equal("[run running, expired deadline, run patient]", test.events.toString(), "next request runs");
+    }
+
+    static void testOverloadCutsTheLimitOncePerRtt() throws Exception {
+        ConcurrencyLimiterTest test = new ConcurrencyLimiterTest(8, 8);
+        for (int i = 0; i < 5; i++) {
+            test.submit("r" + i, ConcurrencyLimiter.PRIORITY_NORMAL);
+        }
+
+        // A 100 ms sample with all permits busy grows the limit to 8.57
+        test.now = TimeUnit.MILLISECONDS.toNanos(100);
+        test.permits.get(0).release(false);
+        Check.equal(8, test.limiter.getLimit(HOST), "limit after a normal sample");
+
+        test.now = TimeUnit.MILLISECONDS.toNanos(110);
+        test.permits.get(1).release(true);
+        Check.equal(6, test.limiter.getLimit(HOST), "limit after an overload, 8.57 * 0.75");
+
+        test.now = TimeUnit.MILLISECONDS.toNanos(120);
+        test.permits.get(2).release(true);
+        Check.equal(6, test.limiter.getLimit(HOST), "second overload within one RTT");
+
+        test.now = TimeUnit.MILLISECONDS.toNanos(220);
+        test.permits.get(3).release(true);
+        Check.equal(4, test.limiter.getLimit(HOST), "overload one RTT later, 6.42 * 0.75");
+
+        test.permits.get(3).release(true);
+        test.permits.get(4).abandon();
+        JSONObject host = test.limiter.getStats().getJSONObject("hosts").getJSONObject(HOST);
+        Check.equal(4L, host.getLong("completed"), "samples, a repeated release and an abandoned permit take none");
+        Check.equal(3L, host.getLong("overloaded"), "overloaded samples");
+        Check.equal(0, host.getInt("inFlight"), "in flight");
+    }
+
+    static void testConfigureClampsTheLimits() throws Exception {
+        ConcurrencyLimiterTest test = new ConcurrencyLimiterTest(100, 8);
+        Check.equal(ConcurrencyLimiter.DEFAULT_MAX_LIMIT, test.limiter.getLimit(HOST), "initial limit capped at maxLimit");
+        Check.isTrue(test.limiter.isEnabled(), "enabled");
+
+        test.limiter.configure(new JSONObject().put("minLimit", 0).put("maxLimit", 4));
+        Check.equal(4, test.limiter.getLimit(HOST), "initial limit after lowering maxLimit");
+        test.limiter.configure(new JSONObject().put("enabled", false));
+        Check.isTrue(!test.limiter.isEnabled(), "disabled");
+    }
+
+    /**
+     * Completes the request that got the index-th permit, 10 ms later
+     */
+    private void release(int index) {
+        now += TimeUnit.MILLISECONDS.toNanos(10);
+        permits.get(index).release(false);
+    }
+
+    private void submit(String name, int priority) {
+        submit(name, priority, ConcurrencyLimiter.NO_DEADLINE);
+    }
+
+    private void submit(final String name, int priority, long startWithinNanos) {
+        limiter.submit(HOST, priority, startWithinNanos, new ConcurrencyLimiter.Task() {
+            @Override
+            public void run(ConcurrencyLimiter.Permit permit) {
+                events.add("run " + name);
+                permits.add(permit);
+            }
+
+            @Override
+            public void onShed(String reason, boolean expired) {
+                events.add((expired ? "expired " : "shed ") + name);
+            }
+        });
+    }
+}
@@ -0,0 +1,132 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filters and cursor pagination of LogQuery over a store whose records span several segments.
+ * Record i has timestamp 1000 + i, level error when i is odd and info otherwise, logger "net" when i is a multiple of
+ * three and "ui" otherwise, and message "entry-i".
+ */
+final class LogQueryTest {
+
+    private static final int RECORDS = 30;
+
+    private LogQueryTest() {
+    }
+
+    static void testCursorWalksEveryRecordOnce() throws Exception {
+        File directory = Check.tempDirectory("logquery");
+        SegmentLogStore store = populate(directory);
+        try {
+            Check.isTrue(store.getSegmentCount() > 1, "records span several segments");
+
+            List<String> messages = new ArrayList<String>();
+            int pages = 0;
+            Object cursor = JSONObject.NULL;
+            do {
+                JSONObject page = new LogQuery(new JSONObject().put("pageSize", 7).put("cursor", cursor)).execute(store);
+                JSONArray entries = page.getJSONArray("entries");
+                Check.isTrue(entries.length() <= 7, "page size");
+                for (int i = 0; i < entries.length(); i++) {
+                    messages.add(entries.getJSONObject(i).getString("msg"));
+                }
+                cursor = page.get("nextCursor");
+                pages++;
+            } while (cursor != JSONObject.NULL && pages < 100);
+
+            Check.equal(5, pages, "pages");
+            List<String> expected = new ArrayList<String>();
+            for (int i = 0; i < RECORDS; i++) {
+                expected.add("entry-" + i);
+            }
+            Check.equal(expected, messages, "messages");
+        } finally {
+            store.close();
+            Check.delete(directory);
+        }
+    }
+
+    static void testFiltersCombine() throws Exception {
+        File directory = Check.tempDirectory("logquery");
+        SegmentLogStore store = populate(directory);
+        try {
+            JSONObject query = new JSONObject()
+                    .put("levels", new JSONArray().put("error"))
+                    .put("logger", "net");
+            Check.equal("[entry-3, entry-9, entry-15, entry-21, entry-27]", messages(store, query).toString(), "error and net");
+
+            query.put("from", 1010).put("to", 1025);
+            Check.equal("[entry-15, entry-21]", messages(store, query).toString(), "error, net and time range");
+
+            query.put("contains", "-2");
+            Check.equal("[entry-21]", messages(store, query).toString(), "error, net, time range and substring");
+
+            JSONObject entry = new LogQuery(query).execute(store).getJSONArray("entries").getJSONObject(0);
+            Check.equal(1021L, entry.getLong("timestamp"), "timestamp");
+            Check.equal("ERROR", entry.getString("level"), "level");
+            Check.equal("net", entry.getString("pkg"), "logger");
+        } finally {
+            store.close();
+            Check.delete(directory);
+        }
+    }
+
+    static void testNoMatchReturnsAnEmptyLastPage() throws Exception {
+        File directory = Check.tempDirectory("logquery");
+        SegmentLogStore store = populate(directory);
+        try {
+            JSONObject page = new LogQuery(new JSONObject().put("to", 999)).execute(store);
+            Check.equal(0, page.getJSONArray("entries").length(), "entries before the first record");
+            Check.isTrue(page.isNull("nextCursor"), "no next page");
+
+            page = new LogQuery(new JSONObject().put("levels", new JSONArray().put("fatal"))).execute(store);
+            Check.equal(0, page.getJSONArray("entries").length(), "entries of a level never logged");
+        } finally {
+            store.close();
+            Check.delete(directory);
+        }
+    }
+
+    static void testInvalidCursorIsRejected() {
+        Check.fails(JSONException.class, new Check.Action() {
+            public void run() throws Exception {
+                new LogQuery(new JSONObject().put("cursor", "segment:12"));
+            }
+        });
+    }
+
+    private static SegmentLogStore populate(File directory) throws Exception {
+        SegmentLogStore store = new SegmentLogStore(directory, 512, 8);
+        for (int i = 0; i < RECORDS; i++) {
+            store.append(i % 2 == 1 ? "error" : "info", i % 3 == 0 ? "net" : "ui", "entry-" + i, 1000 + i);
+        }
+        return store;
+    }
+
+    private static List<String> messages(SegmentLogStore store, JSONObject query) throws Exception {
+        JSONArray entries = new LogQuery(query).execute(store).getJSONArray("entries");
+        List<String> messages = new ArrayList<String>();
+        for (int i = 0; i < entries.length(); i++) {
+            messages.add(entries.getJSONObject(i).getString("msg"));
+        }
+        return messages;
+    }
+}
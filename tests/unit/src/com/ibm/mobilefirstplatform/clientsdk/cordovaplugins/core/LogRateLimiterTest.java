@@ -0,0 +1,108 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Token buckets, sampling and suppression summaries of LogRateLimiter, driven with explicit timestamps
+ */
+final class LogRateLimiterTest {
+
+    private LogRateLimiterTest() {
+    }
+
+    static void testBurstThenRefillAtTheRate() throws Exception {
+        LogRateLimiter limiter = new LogRateLimiter(new JSONObject().put("ratePerSecond", 10).put("burst", 5), 0);
+
+        Check.equal(5, acquire(limiter, "app", 10, 0), "burst");
+        Check.equal(0, acquire(limiter, "app", 1, 50), "half a token after 50 ms");
+        Check.equal(1, acquire(limiter, "app", 10, 100), "one token after 100 ms");
+        Check.equal(5, acquire(limiter, "app", 10, 60000), "refill capped at the burst");
+    }
+
+    static void testLoggersHaveTheirOwnBuckets() throws Exception {
+        JSONObject config = new JSONObject()
+                .put("ratePerSecond", 100)
+                .put("burst", 100)
+                .put("loggers", new JSONObject().put("chatty", new JSONObject().put("ratePerSecond", 1)));
+        LogRateLimiter limiter = new LogRateLimiter(config, 0);
+
+        Check.equal(1, acquire(limiter, "chatty", 10, 0), "chatty, burst defaults to its rate");
+        Check.equal(10, acquire(limiter, "quiet", 10, 0), "quiet uses the defaults");
+        Check.equal(1, acquire(limiter, "chatty", 10, 1000), "chatty after one second");
+    }
+
+    static void testSamplingAppliesPerLevel() throws Exception {
+        JSONObject config = new JSONObject()
+                .put("ratePerSecond", 1000)
+                .put("burst", 1000)
+                .put("sampling", new JSONObject().put("DEBUG", 0).put("info", 1));
+        LogRateLimiter limiter = new LogRateLimiter(config, 0);
+
+        for (int i = 0; i < 50; i++) {
+            Check.isTrue(!limiter.tryAcquire("debug", "app", i), "debug sampled out");
+            Check.isTrue(limiter.tryAcquire("info", "app", i), "info kept");
+            Check.isTrue(limiter.tryAcquire("warn", "app", i), "unsampled level kept");
+        }
+        Check.equal(50L, limiter.getStats().getLong("suppressed"), "suppressed");
+    }
+
+    static void testSummariesReportAndResetTheSuppressedCounts() throws Exception {
+        LogRateLimiter limiter = new LogRateLimiter(new JSONObject()
+                .put("ratePerSecond", 1).put("burst", 1).put("summaryInterval", 1000), 0);
+        acquire(limiter, "net", 4, 0);
+        acquire(limiter, "ui", 2, 0);
+
+        Map<String, Long> summaries = drain(limiter, 500, false);
+        Check.isTrue(summaries.isEmpty(), "nothing reported before the interval");
+
+        summaries = drain(limiter, 1000, false);
+        Check.equal(Long.valueOf(3), summaries.get("net"), "net suppressed");
+        Check.equal(Long.valueOf(1), summaries.get("ui"), "ui suppressed");
+
+        Check.isTrue(drain(limiter, 1001, true).isEmpty(), "counts reset after a summary");
+
+        JSONObject stats = limiter.getStats();
+        Check.equal(4L, stats.getLong("suppressed"), "total suppressed");
+        Check.equal(3L, stats.getJSONObject("loggers").getLong("net"), "net total");
+        Check.equal(1000L, limiter.getSummaryInterval(), "summary interval");
+    }
+
+    /**
+     * @return How many of the attempts were allowed
+     */
+    private static int acquire(LogRateLimiter limiter, String loggerName, int attempts, long now) {
+        int allowed = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (limiter.tryAcquire("info", loggerName, now)) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+
+    private static Map<String, Long> drain(LogRateLimiter limiter, long now, boolean force) {
+        final Map<String, Long> summaries = new HashMap<String, Long>();
+        limiter.drainSummaries(now, force, new LogRateLimiter.SummaryVisitor() {
+            @Override
+            public void visit(String loggerName, long suppressed) {
+                summaries.put(loggerName, suppressed);
+            }
+        });
+        return summaries;
+    }
+}
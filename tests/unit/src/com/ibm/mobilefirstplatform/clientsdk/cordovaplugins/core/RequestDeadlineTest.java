@@ -0,0 +1,68 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONObject;
+
+/**
+ * How RequestDeadline combines the Javascript deadline and maxQueueAge
+ */
+final class RequestDeadlineTest {
+
+    private static final long RECEIVED = 1000000;
+
+    private RequestDeadlineTest() {
+    }
+
+    static void testNoDeadlineIsUnbounded() throws Exception {
+        RequestDeadline deadline = RequestDeadline.fromRequest(new JSONObject().put("deadline", 0), RECEIVED);
+        Check.isTrue(deadline == RequestDeadline.UNBOUNDED, "shared unbounded instance");
+        Check.isTrue(!deadline.isBounded(), "bounded");
+        Check.isTrue(deadline.canStart(Long.MAX_VALUE - 1), "can start at any time");
+        Check.equal(30000, deadline.timeoutFor(30000, RECEIVED), "timeout unchanged");
+        Check.equal(RequestDeadline.NONE, deadline.nanosUntilStart(RECEIVED), "nanos until start");
+    }
+
+    static void testDeadlineBoundsTheStartAndTheTimeout() throws Exception {
+        RequestDeadline deadline = RequestDeadline.fromRequest(new JSONObject().put("deadline", RECEIVED + 5000), RECEIVED);
+        Check.isTrue(deadline.isBounded(), "bounded");
+        Check.equal(RECEIVED + 5000, deadline.startBy, "start by");
+        Check.equal(RECEIVED + 5000, deadline.finishBy, "finish by");
+        Check.isTrue(deadline.canStart(RECEIVED + 4999), "can start before the deadline");
+        Check.isTrue(!deadline.canStart(RECEIVED + 5000), "can start at the deadline");
+
+        Check.equal(30000, deadline.timeoutFor(30000, RECEIVED - 30000), "timeout shorter than the time left");
+        Check.equal(2000, deadline.timeoutFor(30000, RECEIVED + 3000), "timeout cut to the time left");
+        Check.equal(1, deadline.timeoutFor(30000, RECEIVED + 9000), "timeout past the deadline");
+        Check.equal(2000L * 1000000L, deadline.nanosUntilStart(RECEIVED + 3000), "nanos until start");
+        Check.equal(0L, deadline.nanosUntilStart(RECEIVED + 9000), "nanos until start past the deadline");
+    }
+
+    static void testMaxQueueAgeOnlyBoundsTheStart() throws Exception {
+        RequestDeadline deadline = RequestDeadline.fromRequest(new JSONObject().put("maxQueueAge", 2000), RECEIVED);
+        Check.equal(RECEIVED + 2000, deadline.startBy, "start by");
+        Check.equal(RequestDeadline.NONE, deadline.finishBy, "finish by");
+        Check.equal(30000, deadline.timeoutFor(30000, RECEIVED + 1000), "timeout unchanged");
+    }
+
+    static void testEarlierOfDeadlineAndMaxQueueAge() throws Exception {
+        RequestDeadline queueAge = RequestDeadline.fromRequest(new JSONObject()
+                .put("deadline", RECEIVED + 5000).put("maxQueueAge", 2000), RECEIVED);
+        Check.equal(RECEIVED + 2000, queueAge.startBy, "start by, maxQueueAge first");
+        Check.equal(RECEIVED + 5000, queueAge.finishBy, "finish by");
+
+        RequestDeadline deadline = RequestDeadline.fromRequest(new JSONObject()
+                .put("deadline", RECEIVED + 1000).put("maxQueueAge", 2000), RECEIVED);
+        Check.equal(RECEIVED + 1000, deadline.startBy, "start by, deadline first");
+    }
+}
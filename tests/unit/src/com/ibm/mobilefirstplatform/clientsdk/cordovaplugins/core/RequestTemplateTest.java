@@ -0,0 +1,88 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import com.ibm.mobilefirstplatform.clientsdk.android.core.api.Request;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * Path parameter expansion and the per-call header and query deltas of RequestTemplate
+ */
+final class RequestTemplateTest {
+
+    private RequestTemplateTest() {
+    }
+
+    static void testPathParametersAreEncoded() throws Exception {
+        RequestTemplate template = RequestTemplate.compile(new JSONObject()
+                .put("url", "https://api.example.com/users/{user}/files/{file}?v=1")
+                .put("method", "PUT")
+                .put("timeout", 5000));
+
+        Request request = template.newRequest(new JSONObject().put("pathParams", new JSONObject()
+                .put("user", "a b/c").put("file", 42)));
+        Check.equal("https://api.example.com/users/a%20b%2Fc/files/42?v=1", request.getUrl(), "url");
+        Check.equal("PUT", request.getMethod(), "method");
+        Check.equal(5000, request.getTimeout(), "timeout");
+    }
+
+    static void testDefaults() throws Exception {
+        Request request = RequestTemplate.compile(new JSONObject().put("url", "https://api.example.com/status"))
+                .newRequest(new JSONObject());
+        Check.equal("https://api.example.com/status", request.getUrl(), "url without parameters");
+        Check.equal("GET", request.getMethod(), "method");
+        Check.equal(Request.DEFAULT_TIMEOUT, request.getTimeout(), "timeout");
+    }
+
+    static void testMissingOrUnterminatedParameterIsRejected() throws Exception {
+        final RequestTemplate template = RequestTemplate.compile(new JSONObject().put("url", "https://api.example.com/{id}"));
+        Check.fails(JSONException.class, new Check.Action() {
+            public void run() throws Exception {
+                template.newRequest(new JSONObject().put("pathParams", new JSONObject().put("other", 1)));
+            }
+        });
+        Check.fails(JSONException.class, new Check.Action() {
+            public void run() throws Exception {
+                RequestTemplate.compile(new JSONObject().put("url", "https://api.example.com/{id"));
+            }
+        });
+    }
+
+    static void testCallHeadersAndQueryAreMergedOverTheTemplate() throws Exception {
+        RequestTemplate template = RequestTemplate.compile(new JSONObject()
+                .put("url", "https://api.example.com/search")
+                .put("headers", new JSONObject().put("Accept", "application/json").put("X-Client", "app"))
+                .put("queryParameters", new JSONObject().put("lang", "en").put("limit", "10")));
+
+        Request plain = template.newRequest(new JSONObject());
+        Check.equal(Arrays.asList("application/json"), plain.getAllHeaders().get("Accept"), "template header");
+        Check.equal("10", plain.getQueryParameters().get("limit"), "template query parameter");
+
+        Request merged = template.newRequest(new JSONObject()
+                .put("headers", new JSONObject().put("X-Client", "widget").put("X-Trace", "1"))
+                .put("query", new JSONObject().put("q", "cats").put("limit", 25)));
+        Check.equal(Arrays.asList("application/json"), merged.getAllHeaders().get("Accept"), "template header kept");
+        Check.equal(Arrays.asList("widget"), merged.getAllHeaders().get("X-Client"), "template header overridden");
+        Check.equal(Arrays.asList("1"), merged.getAllHeaders().get("X-Trace"), "call header");
+        Check.equal("en", merged.getQueryParameters().get("lang"), "template query parameter kept");
+        Check.equal("25", merged.getQueryParameters().get("limit"), "template query parameter overridden");
+        Check.equal("cats", merged.getQueryParameters().get("q"), "call query parameter");
+
+        Check.equal(Arrays.asList("app"), template.newRequest(new JSONObject()).getAllHeaders().get("X-Client"),
+                "a call does not change the template");
+    }
+}
@@ -0,0 +1,150 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rotation, retention, recovery and truncation of SegmentLogStore, on 512 byte segments that hold four 100 byte records
+ */
+final class SegmentLogStoreTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int SEGMENT_SIZE = 512;
+
+    private SegmentLogStoreTest() {
+    }
+
+    static void testRotationKeepsTheNewestSegments() throws Exception {
+        File directory = Check.tempDirectory("segmentlogstore");
+        SegmentLogStore store = new SegmentLogStore(directory, SEGMENT_SIZE, 3);
+        try {
+            for (int i = 0; i < 20; i++) {
+                store.append("info", "test", message(i), i);
+            }
+
+            Check.equal(3, store.getSegmentCount(), "segments");
+            Check.equal(2, store.getSealedSegments().size(), "sealed segments");
+            Check.equal(3, directory.listFiles().length, "segment files");
+
+            List<String> stored = Check.storedMessages(store);
+            Check.isTrue(stored.size() < 20 && stored.size() > 4, "records kept: " + stored.size());
+            Check.equal(message(20 - stored.size()), stored.get(0), "oldest record kept");
+            for (int i = 0; i < stored.size(); i++) {
+                Check.equal(message(20 - stored.size() + i), stored.get(i), "record " + i);
+            }
+            Check.equal((long) (20 - stored.size()), store.getOldestTimestamp(), "oldest timestamp");
+
+            long previous = -1;
+            for (SegmentLogStore.Segment segment : store.getAllSegments()) {
+                Check.isTrue(segment.sequence > previous, "segments oldest first");
+                previous = segment.sequence;
+            }
+        } finally {
+            store.close();
+            Check.delete(directory);
+        }
+    }
+
+    static void testReopenedStoreSealsTheRecoveredSegments() throws Exception {
+        File directory = Check.tempDirectory("segmentlogstore");
+        SegmentLogStore store = new SegmentLogStore(directory, SEGMENT_SIZE, 4);
+        try {
+            store.append("error", "test", "first", 1);
+            store.append("info", "test", "second", 2);
+            store.close();
+
+            store = new SegmentLogStore(directory, SEGMENT_SIZE, 4);
+            Check.equal(1, store.getSealedSegments().size(), "recovered sealed segments");
+            store.append("info", "test", "third", 3);
+            Check.equal(2, store.getSegmentCount(), "segments after an append");
+
+            List<String> expected = new ArrayList<String>();
+            expected.add("first");
+            expected.add("second");
+            expected.add("third");
+            Check.equal(expected, Check.storedMessages(store), "records");
+            Check.equal(2, store.readSegmentAsJSON(store.getSealedSegments().get(0)).length(), "records of the sealed segment");
+            Check.equal("ERROR", store.readSegmentAsJSON(store.getSealedSegments().get(0)).getJSONObject(0).getString("level"), "level");
+        } finally {
+            store.close();
+            Check.delete(directory);
+        }
+    }
+
+    static void testAppendAfterCloseFails() throws Exception {
+        File directory = Check.tempDirectory("segmentlogstore");
+        final SegmentLogStore store = new SegmentLogStore(directory, SEGMENT_SIZE, 4);
+        try {
+            store.close();
+            Check.fails(IOException.class, new Check.Action() {
+                public void run() throws Exception {
+                    store.append("info", "test", "late", 1);
+                }
+            });
+        } finally {
+            Check.delete(directory);
+        }
+    }
+
+    static void testOversizedMessageIsTruncatedAtACharacterBoundary() throws Exception {
+        File directory = Check.tempDirectory("segmentlogstore");
+        SegmentLogStore store = new SegmentLogStore(directory, SEGMENT_SIZE, 4);
+        try {
+            StringBuilder message = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                // Two bytes in UTF-8, so an odd byte limit falls inside a character
+                message.append('\u00e9');
+            }
+            store.append("info", "test", message.toString(), 1);
+
+            List<String> stored = Check.storedMessages(store);
+            Check.equal(1, stored.size(), "records");
+            String truncated = stored.get(0);
+            Check.isTrue(truncated.length() > 0 && truncated.length() < message.length(), "truncated length " + truncated.length());
+            Check.isTrue(message.toString().startsWith(truncated), "truncated message is a prefix of the original");
+            Check.isTrue(truncated.indexOf('\ufffd') < 0, "no replacement character");
+            Check.isTrue(truncated.getBytes(UTF_8).length <= SEGMENT_SIZE, "record fits in a segment");
+        } finally {
+            store.close();
+            Check.delete(directory);
+        }
+    }
+
+    static void testUtf8Boundary() {
+        byte[] bytes = "a\u00e9\u20ac".getBytes(UTF_8);
+        // a = 1 byte, e acute = 2 bytes, euro sign = 3 bytes
+        Check.equal(6, bytes.length, "encoded length");
+        Check.equal(1, SegmentLogStore.utf8Boundary(bytes, 1), "after a");
+        Check.equal(1, SegmentLogStore.utf8Boundary(bytes, 2), "inside e acute");
+        Check.equal(3, SegmentLogStore.utf8Boundary(bytes, 3), "after e acute");
+        Check.equal(3, SegmentLogStore.utf8Boundary(bytes, 5), "inside the euro sign");
+        Check.equal(6, SegmentLogStore.utf8Boundary(bytes, 10), "limit past the end");
+    }
+
+    /**
+     * @return A 100 character message ending with its index
+     */
+    private static String message(int index) {
+        String suffix = "-" + index;
+        StringBuilder message = new StringBuilder(100);
+        while (message.length() < 100 - suffix.length()) {
+            message.append('x');
+        }
+        return message.append(suffix).toString();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The W3C traceparent format and span recording of TraceRecorder. Every test starts from an empty buffer with tracing
+ * disabled, since the recorder is static.
+ */
+final class TraceRecorderTest {
+
+    // version-traceid-parentid-flags
+    private static final Pattern TRACEPARENT = Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-(0[01])");
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String PARENT_ID = "00f067aa0ba902b7";
+
+    private TraceRecorderTest() {
+    }
+
+    static void testPropagatedTraceKeepsTheTraceIdAndFlags() throws Exception {
+        reset(false, 1);
+        Matcher sampled = parse(TraceRecorder.start("00-" + TRACE_ID + "-" + PARENT_ID + "-01").traceparent());
+        Check.equal(TRACE_ID, sampled.group(1), "trace id");
+        Check.isTrue(!PARENT_ID.equals(sampled.group(2)), "the native request span is the new parent");
+        Check.equal("01", sampled.group(3), "sampled flag");
+
+        Matcher unsampled = parse(TraceRecorder.start("00-" + TRACE_ID + "-" + PARENT_ID + "-00").traceparent());
+        Check.equal(TRACE_ID, unsampled.group(1), "trace id of an unsampled trace");
+        Check.equal("00", unsampled.group(3), "unsampled flag");
+    }
+
+    static void testNewTracesDependOnTheSampleRate() throws Exception {
+        reset(false, 1);
+        Check.equal(null, TraceRecorder.start(null), "trace while disabled");
+
+        reset(true, 0);
+        Check.equal(null, TraceRecorder.start(""), "trace with a sample rate of 0");
+
+        reset(true, 1);
+        Matcher first = parse(TraceRecorder.start(null).traceparent());
+        Matcher second = parse(TraceRecorder.start(null).traceparent());
+        Check.equal("01", first.group(3), "sampled flag");
+        Check.isTrue(!first.group(1).equals(second.group(1)), "each request starts its own trace");
+    }
+
+    static void testMalformedTraceparentStartsANewTrace() throws Exception {
+        String[] malformed = {
+                "garbage",
+                "00-" + TRACE_ID + "-" + PARENT_ID,
+                "00-" + TRACE_ID.substring(1) + "-" + PARENT_ID + "-01",
+                "00-" + TRACE_ID + "-" + PARENT_ID + "-zz"
+        };
+        for (String traceparent : malformed) {
+            reset(false, 1);
+            Check.equal(null, TraceRecorder.start(traceparent), "trace for " + traceparent + " while disabled");
+
+            reset(true, 1);
+            Matcher fresh = parse(TraceRecorder.start(traceparent).traceparent());
+            Check.isTrue(!TRACE_ID.equals(fresh.group(1)), "new trace id for " + traceparent);
+        }
+    }
+
+    static void testFinishedRequestRecordsItsSpanTree() throws Exception {
+        reset(false, 1);
+        TraceRecorder.RequestTrace trace = TraceRecorder.start("00-" + TRACE_ID + "-" + PARENT_ID + "-01");
+        trace.unpacked();
+        trace.sent();
+        trace.received();
+        trace.finish("GET", "https://api.example.com/", 200, "success");
+
+        JSONArray spans = TraceRecorder.export(true);
+        Check.equal(5, spans.length(), "request span and four children");
+        JSONObject request = spans.getJSONObject(0);
+        Check.equal("bms.request", request.getString("name"), "request span name");
+        Check.equal(PARENT_ID, request.getString("parentSpanId"), "request span parent");
+        Check.equal(parse(trace.traceparent()).group(2), request.getString("spanId"), "request span id in the header");
+        Check.equal(200, request.getJSONObject("attributes").getInt("http.status_code"), "status attribute");
+
+        String[] children = {"bms.marshal.request", "bms.queue", "bms.network", "bms.marshal.response"};
+        for (int i = 0; i < children.length; i++) {
+            JSONObject child = spans.getJSONObject(i + 1);
+            Check.equal(children[i], child.getString("name"), "child span " + i);
+            Check.equal(TRACE_ID, child.getString("traceId"), "child trace id");
+            Check.equal(request.getString("spanId"), child.getString("parentSpanId"), "child parent");
+        }
+        Check.equal(0, TraceRecorder.export(false).length(), "buffer cleared by the export");
+
+        TraceRecorder.start("00-" + TRACE_ID + "-" + PARENT_ID + "-00").finish("GET", "https://api.example.com/", 200, "success");
+        Check.equal(0, TraceRecorder.export(false).length(), "spans of an unsampled trace");
+    }
+
+    static void testFullBufferDropsTheOldestSpans() throws Exception {
+        reset(false, 1);
+        TraceRecorder.configure(new JSONObject().put("capacity", 3));
+        long dropped = TraceRecorder.getDroppedCount();
+        JSONArray spans = new JSONArray();
+        for (int i = 0; i < 5; i++) {
+            spans.put(new JSONObject().put("traceId", TRACE_ID).put("spanId", "span-" + i).put("name", "js"));
+        }
+        spans.put(new JSONObject().put("name", "no trace id"));
+        Check.equal(5, TraceRecorder.recordAll(spans), "recorded");
+
+        JSONArray buffered = TraceRecorder.export(false);
+        Check.equal(3, buffered.length(), "buffered");
+        Check.equal("span-2", buffered.getJSONObject(0).getString("spanId"), "oldest buffered");
+        Check.equal(dropped + 2, TraceRecorder.getDroppedCount(), "dropped");
+
+        long released = TraceRecorder.trimmable.trimTo(TraceRecorder.ESTIMATED_SPAN_BYTES);
+        Check.equal(2L * TraceRecorder.ESTIMATED_SPAN_BYTES, released, "released by a trim");
+        Check.equal("span-4", TraceRecorder.export(true).getJSONObject(0).getString("spanId"), "span kept by the trim");
+        TraceRecorder.configure(new JSONObject().put("capacity", TraceRecorder.DEFAULT_CAPACITY));
+    }
+
+    private static void reset(boolean enabled, double sampleRate) throws JSONException {
+        TraceRecorder.configure(new JSONObject().put("enabled", enabled).put("sampleRate", sampleRate));
+        TraceRecorder.export(true);
+    }
+
+    private static Matcher parse(String traceparent) {
+        Matcher matcher = TRACEPARENT.matcher(traceparent);
+        Check.isTrue(matcher.matches(), "traceparent format: " + traceparent);
+        return matcher;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+package com.ibm.mobilefirstplatform.clientsdk.cordovaplugins.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Runs the static no-argument test methods of the unit test classes, in name order, and prints one line per test.
+ * A test fails by throwing, usually an AssertionError from Check.
+ *
+ * Arguments, all optional: the simple names of the test classes to run, e.g. LogQueryTest.
+ * Exits with status 1 if a test failed.
+ */
+public class UnitTests {
+
+    private static final Class<?>[] TEST_CLASSES = {
+            AsyncLogWriterTest.class,
+            SegmentLogStoreTest.class,
+            LogQueryTest.class,
+            LogRateLimiterTest.class,
+            AnalyticsAggregatorTest.class,
+            ConcurrencyLimiterTest.class,
+            RequestDeadlineTest.class,
+            RequestTemplateTest.class,
+            TraceRecorderTest.class
+    };
+
+    public static void main(String[] args) throws Exception {
+        List<String> selected = Arrays.asList(args);
+        int passed = 0;
+        List<String> failures = new ArrayList<String>();
+        for (Class<?> testClass : TEST_CLASSES) {
+            if (!selected.isEmpty() && !selected.contains(testClass.getSimpleName())) {
+                continue;
+            }
+            for (Method method : testMethods(testClass)) {
+                String name = testClass.getSimpleName() + "." + method.getName();
+                try {
+                    method.invoke(null);
+                    passed++;
+                    System.out.println("PASS " + name);
+                } catch (InvocationTargetException e) {
+                    failures.add(name);
+                    System.out.println("FAIL " + name + ": " + e.getCause());
+                    e.getCause().printStackTrace(System.out);
+                }
+            }
+        }
+        System.out.println(passed + " passed, " + failures.size() + " failed");
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    private static Method[] testMethods(Class<?> testClass) {
+        List<Method> methods = new ArrayList<Method>();
+        for (Method method : testClass.getDeclaredMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) && method.getName().startsWith("test")
+                    && method.getParameterTypes().length == 0) {
+                method.setAccessible(true);
+                methods.add(method);
+            }
+        }
+        Method[] sorted = methods.toArray(new Method[methods.size()]);
+        Arrays.sort(sorted, new Comparator<Method>() {
+            @Override
+            public int compare(Method a, Method b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return sorted;
+    }
+}
@@ -11,10 +11,139 @@
     limitations under the License.
 */
 var exec = require("cordova/exec");
+var BMSBatch = require("./BMSBatch");
 
 var success = function() { console.log("Success: BMSAnalytics "); };
 var failure = function() { console.log("Error: BMSAnalytics"); };
 
+/**
+ * Buffer for analytics events that are sent to native code in batches through the "logBatch" action.
+ * The buffer is flushed when it reaches maxEvents, when flushInterval (ms) elapses after the
+ * first buffered event, and when the page is hidden or the app is paused.
+ */
+var EventBuffer = (function () {
+    var events = [];
+    var callbacks = [];
+    var timer = null;
+    var options = {
+        maxEvents: 50,
+        flushInterval: 1000
+    };
+
+    var flush = function () {
+        if (timer !== null) {
+            clearTimeout(timer);
+            timer = null;
+        }
+        if (events.length === 0) {
+            return;
+        }
+        var batch = events;
+        var batchCallbacks = callbacks;
+        events = [];
+        callbacks = [];
+
+        BMSBatch.execNow(function (result) {
+            var accepted = (result && typeof result.accepted === "number") ? result.accepted : batch.length;
+            for (var i = 0; i < batchCallbacks.length; i++) {
+                var cb = i < accepted ? batchCallbacks[i].success : batchCallbacks[i].failure;
+                cb && cb();
+            }
+        }, function (message) {
+            for (var i = 0; i < batchCallbacks.length; i++) {
+                batchCallbacks[i].failure && batchCallbacks[i].failure(message);
+            }
+        }, "BMSAnalytics", "logBatch", [batch]);
+    };
+
+    var add = function (metadata, successCallback, failureCallback) {
+        if (metadata === null || typeof metadata !== "object" || Array.isArray(metadata)) {
+            // Native code skips non-object events, which would shift the callbacks of the events after it in the batch
+            failureCallback && failureCallback("Analytics event metadata must be an object");
+            return;
+        }
+        events.push(metadata);
+        callbacks.push({success: successCallback, failure: failureCallback});
+        if (events.length >= options.maxEvents) {
+            flush();
+        } else if (timer === null) {
+            timer = setTimeout(flush, options.flushInterval);
+        }
+    };
+
+    var configure = function (newOptions) {
+        newOptions = newOptions || {};
+        if (newOptions.maxEvents > 0) {
+            options.maxEvents = newOptions.maxEvents;
+        }
+        if (newOptions.flushInterval > 0) {
+            options.flushInterval = newOptions.flushInterval;
+        }
+        if (events.length >= options.maxEvents) {
+            flush();
+        }
+    };
+
+    if (typeof window !== "undefined" && window.addEventListener) {
+        window.addEventListener("pagehide", flush, false);
+        window.addEventListener("beforeunload", flush, false);
+    }
+    if (typeof document !== "undefined" && document.addEventListener) {
+        document.addEventListener("pause", flush, false);
+    }
+
+    return {
+        add: add,
+        flush: flush,
+        configure: configure
+    };
+})();
+
+/**
+ * Buffer for metric records sent to native code through the "recordMetrics" action.
+ * Records are aggregated natively, so they are flushed on the same triggers as events.
+ */
+var MetricBuffer = (function () {
+    var records = [];
+    var timer = null;
+    var maxRecords = 100;
+    var flushInterval = 1000;
+
+    var flush = function () {
+        if (timer !== null) {
+            clearTimeout(timer);
+            timer = null;
+        }
+        if (records.length === 0) {
+            return;
+        }
+        var batch = records;
+        records = [];
+        BMSBatch.execNow(null, failure, "BMSAnalytics", "recordMetrics", [batch]);
+    };
+
+    var add = function (type, name, value, dimensions) {
+        records.push([type, name, value, dimensions || null]);
+        if (records.length >= maxRecords) {
+            flush();
+        } else if (timer === null) {
+            timer = setTimeout(flush, flushInterval);
+        }
+    };
+
+    if (typeof window !== "undefined" && window.addEventListener) {
+        window.addEventListener("pagehide", flush, false);
+    }
+    if (typeof document !== "undefined" && document.addEventListener) {
+        document.addEventListener("pause", flush, false);
+    }
+
+    return {
+        add: add,
+        flush: flush
+    };
+})();
+
 var BMSAnalytics = {
 
     /**
@@ -30,13 +159,13 @@ var BMSAnalytics = {
      * Turns on the global setting for persisting of the analytics data.
      */
     enable: function () {
-        cordova.exec(success , failure, "BMSAnalytics", "enable", []);
+        BMSBatch.exec(success , failure, "BMSAnalytics", "enable", []);
     },
     /**
      * Turns off the global setting for persisting of the analytics data.
      */
     disable: function () {
-        cordova.exec(success , failure, "BMSAnalytics", "disable", []);
+        BMSBatch.exec(success , failure, "BMSAnalytics", "disable", []);
     },
     /**
      * Gets the current setting for determining if log data should be saved persistently.
@@ -44,7 +173,7 @@ var BMSAnalytics = {
      * @param failure
      */
     isEnabled: function (success, failure) {
-        cordova.exec(success , failure, "BMSAnalytics", "isEnabled", []);
+        BMSBatch.exec(success , failure, "BMSAnalytics", "isEnabled", []);
     },
     /**
      * Sends the analytics log file when the log store exists and is not empty
@@ -53,7 +182,8 @@ var BMSAnalytics = {
      * @param failure  callback (android only)
      */
     send: function (success, failure) {
-        cordova.exec(success , failure, "BMSAnalytics", "send", []);
+        EventBuffer.flush();
+        BMSBatch.execNow(success , failure, "BMSAnalytics", "send", []);
     },
     /**
      * Initialize BMSAnalytics API
@@ -63,17 +193,131 @@ var BMSAnalytics = {
      * @param hasUserContext If true, Analytics only records one user per device. If false, setting the user identity will keep a record of all users.
      * @param deviceEvents One or more context attributes BMSAnalytics will register event listeners for.
      * (e.g BMSAnalytics.NONE, BMSAnalytics.ALL, BMSAnalytics.LIFECYCLE, BMSAnalytics.NETWORK)
+     * @param success (Optional) called once initialization finished, receives {durationMillis, replayedEvents} (Android only).
+     * replayedEvents is the number of events logged before initialization finished, which were buffered and then sent to Analytics.
+     * @param failure (Optional)
      */
-    initialize : function(applicationName, clientApiKey, hasUserContext, collectLocation, deviceEvents){
-        cordova.exec(success, failure, "BMSAnalytics", "initialize", [applicationName, clientApiKey, hasUserContext,collectLocation, deviceEvents])
+    initialize : function(applicationName, clientApiKey, hasUserContext, collectLocation, deviceEvents, successCallback, failureCallback){
+        BMSBatch.execNow(successCallback || success, failureCallback || failure, "BMSAnalytics", "initialize", [applicationName, clientApiKey, hasUserContext,collectLocation, deviceEvents])
 
     },
     /**
-     * Log an analytics event
+     * Log an analytics event. Events are buffered and sent to native code in order, in batches.
      * @param metadata An object that contains the description for the event
+     * @param success (Optional) called once the event was accepted by the native event queue
+     * @param failure (Optional) called if the event was dropped or metadata is not an object
+     */
+    log: function(metadata, successCallback, failureCallback){
+        EventBuffer.add(metadata, successCallback, failureCallback);
+    },
+    /**
+     * Log several analytics events in one call, in array order
+     * @param events An array of event description objects
+     * @param success callback receives {accepted, dropped}
+     * @param failure
+     */
+    logBatch: function(events, successCallback, failureCallback){
+        EventBuffer.flush();
+        BMSBatch.execNow(successCallback || success, failureCallback || failure, "BMSAnalytics", "logBatch", [events]);
+    },
+    /**
+     * Sends all buffered events to native code immediately
+     */
+    flush: function(){
+        EventBuffer.flush();
+    },
+    /**
+     * Configures how events are batched before they are sent to native code
+     * @param options {maxEvents: Integer, flushInterval: Integer (ms)}
+     */
+    setBatchOptions: function(options){
+        EventBuffer.configure(options);
+    },
+    /**
+     * Adds to a counter. Metrics are aggregated natively and sent as one summary event per interval (Android only).
+     * @param name Metric name
+     * @param value (Optional) Amount to add, defaults to 1
+     * @param dimensions (Optional) Object of dimension names and values, e.g. {screen: "home"}
+     */
+    increment: function(name, value, dimensions){
+        MetricBuffer.add("counter", name, (typeof value === "number") ? value : 1, dimensions);
+    },
+    /**
+     * Sets a gauge to its current value (Android only)
+     * @param name Metric name
+     * @param value Current value
+     * @param dimensions (Optional) Object of dimension names and values
+     */
+    gauge: function(name, value, dimensions){
+        MetricBuffer.add("gauge", name, value, dimensions);
+    },
+    /**
+     * Records a duration. Timers are summarized with count, min, max, mean and p50/p90/p99 (Android only)
+     * @param name Metric name
+     * @param millis Duration in milliseconds
+     * @param dimensions (Optional) Object of dimension names and values
+     */
+    timing: function(name, millis, dimensions){
+        MetricBuffer.add("timer", name, millis, dimensions);
+    },
+    /**
+     * Starts a timer. Call stop() on the returned object to record the elapsed time (Android only)
+     * @param name Metric name
+     * @param dimensions (Optional) Object of dimension names and values
+     * @returns {{stop: function}}
+     */
+    startTimer: function(name, dimensions){
+        var start = Date.now();
+        var self = this;
+        return {
+            stop: function(){
+                self.timing(name, Date.now() - start, dimensions);
+            }
+        };
+    },
+    /**
+     * Sets how often aggregated metrics are summarized into an analytics event (Android only)
+     * @param intervalMillis Flush interval in milliseconds
+     */
+    setAggregationInterval: function(intervalMillis){
+        BMSBatch.exec(success, failure, "BMSAnalytics", "setAggregationInterval", [intervalMillis]);
+    },
+    /**
+     * Summarizes the metrics recorded so far into an analytics event immediately (Android only)
+     * @param success
+     * @param failure
+     */
+    flushAggregates: function(successCallback, failureCallback){
+        MetricBuffer.flush();
+        BMSBatch.execNow(successCallback || success, failureCallback || failure, "BMSAnalytics", "flushAggregates", []);
+    },
+    /**
+     * Gets the native event queue counters (Android only)
+     * @param success callback receives {depth, capacity, accepted, logged, dropped, initialized, initDurationMillis}
+     * @param failure
+     */
+    getPipelineStats: function(success, failure){
+        BMSBatch.exec(success, failure, "BMSAnalytics", "getPipelineStats", []);
+    },
+    /**
+     * Defers send() to an unmetered network or to while the device is charging (Android only).
+     * Analytics and logger uploads and deferrable BMSRequests share the same policy and are released in the same
+     * radio wake, or alongside a foreground BMSRequest that is already using the radio.
+     * @param {Object} options - {enabled: Boolean, maxDeferral: Integer (ms), lowBatteryPercent: Integer}
+     * @param success
+     * @param failure
+     */
+    setUploadPolicy: function(options, successCallback, failureCallback){
+        BMSBatch.exec(successCallback || success, failureCallback || failure, "BMSAnalytics", "setUploadPolicy", [options || {}]);
+    },
+    /**
+     * Gets the upload policy state (Android only)
+     * @param success callback receives {enabled, connected, unmetered, charging, batteryPercent, pending, deferredSince,
+     * deferred, released, windows, forcedWindows, piggybackedWindows, wakesAvoided}
+     * @param failure
      */
-    log: function(metadata){
-        cordova.exec(success, failure, "BMSAnalytics", "log", [metadata]);
+    getUploadPolicyStatus: function(success, failure){
+        BMSBatch.exec(success, failure, "BMSAnalytics", "getUploadPolicyStatus", []);
     },
     /**
      * <p>Specify current application user. This value will be hashed to ensure privacy.
@@ -82,11 +326,11 @@ var BMSAnalytics = {
      * @param username username User id for current app user
      */
     setUserIdentity: function(username){
-        cordova.exec(success, failure, "BMSAnalytics", "setUserIdentity", [username]);
+        BMSBatch.exec(success, failure, "BMSAnalytics", "setUserIdentity", [username]);
     },
 
     logLocation: function () {
-            cordova.exec(success , failure, "BMSAnalytics", "logLocation", []);
+            BMSBatch.execNow(success , failure, "BMSAnalytics", "logLocation", []);
         },
 
     /**
@@ -94,7 +338,7 @@ var BMSAnalytics = {
      *
      */
     triggerFeedbackMode: function(){
-        cordova.exec(success, failure, "BMSAnalytics", "triggerFeedbackMode", []);
+        BMSBatch.execNow(success, failure, "BMSAnalytics", "triggerFeedbackMode", []);
     },
 };
 
@@ -11,6 +11,7 @@
     limitations under the License.
 */
 var exec = require("cordova/exec");
+var BMSBatch = require("./BMSBatch");
 
 
 
@@ -32,7 +33,7 @@ var BMSAuthorizationManager = function() {
 	this.obtainAuthorizationHeader = function(success, failure) {
         var cbSuccess = callbackWrap.bind(this, success);
         var cbFailure = callbackWrap.bind(this, failure);
-		cordova.exec(cbSuccess, cbFailure, AuthorizationManagerString, "obtainAuthorizationHeader", []);
+		BMSBatch.execNow(cbSuccess, cbFailure, AuthorizationManagerString, "obtainAuthorizationHeader", []);
 	};
     
     /**
@@ -57,14 +58,14 @@ var BMSAuthorizationManager = function() {
      * @return true if status is 401 or 403 and The value of the header contains 'Bearer' AND 'realm="imfAuthentication"'
      */
 	this.isAuthorizationRequired = function(statusCode, responseAuthHeader, success, failure){
-	    cordova.exec(success, failure, AuthorizationManagerString, "isAuthorizationRequired", [statusCode,responseAuthHeader]);
+	    BMSBatch.exec(success, failure, AuthorizationManagerString, "isAuthorizationRequired", [statusCode,responseAuthHeader]);
 	};
 
     /**
      * Clear the local stored authorization data
      */
     this.clearAuthorizationData = function(){
-        cordova.exec(success, failure, AuthorizationManagerString, "clearAuthorizationData", []);
+        BMSBatch.exec(success, failure, AuthorizationManagerString, "clearAuthorizationData", []);
     };
 
     /**
@@ -73,7 +74,7 @@ var BMSAuthorizationManager = function() {
      * @return the locally stored authorization header or null if the value is not exist.
      */
     this.getCachedAuthorizationHeader = function(success, failure){
-        cordova.exec(success, failure, AuthorizationManagerString, "getCachedAuthorizationHeader", []);
+        BMSBatch.exec(success, failure, AuthorizationManagerString, "getCachedAuthorizationHeader", []);
     };
 
     /**
@@ -82,7 +83,7 @@ var BMSAuthorizationManager = function() {
      * @return Current authorization persistence policy.
      */
     this.getAuthorizationPersistencePolicy= function(success, failure){
-        cordova.exec(success, failure, AuthorizationManagerString, "getAuthorizationPersistencePolicy", []);
+        BMSBatch.exec(success, failure, AuthorizationManagerString, "getAuthorizationPersistencePolicy", []);
     };
 
     /**
@@ -90,7 +91,7 @@ var BMSAuthorizationManager = function() {
      * @param policy new policy to use
      */
     this.setAuthorizationPersistencePolicy = function(success, failure, policy){
-        cordova.exec(success, failure, AuthorizationManagerString, "setAuthorizationPersistencePolicy", [policy]);
+        BMSBatch.exec(success, failure, AuthorizationManagerString, "setAuthorizationPersistencePolicy", [policy]);
     };
 
     /**
@@ -99,7 +100,7 @@ var BMSAuthorizationManager = function() {
      * @return authorized user identity.
      */
     this.getUserIdentity = function(success, failure){
-        cordova.exec(success, failure, AuthorizationManagerString, "getUserIdentity", []);
+        BMSBatch.exec(success, failure, AuthorizationManagerString, "getUserIdentity", []);
     };
 
     /**
@@ -108,7 +109,7 @@ var BMSAuthorizationManager = function() {
      * @return application identity.
      */
     this.getAppIdentity = function(success, failure){
-         cordova.exec(success, failure, AuthorizationManagerString, "getAppIdentity", []);
+         BMSBatch.exec(success, failure, AuthorizationManagerString, "getAppIdentity", []);
     };
 
     /**
@@ -117,7 +118,7 @@ var BMSAuthorizationManager = function() {
      * @return device identity.
      */
     this.getDeviceIdentity = function(success, failure){
-        cordova.exec(success, failure, AuthorizationManagerString, "getDeviceIdentity", []);
+        BMSBatch.exec(success, failure, AuthorizationManagerString, "getDeviceIdentity", []);
     };
     
     /**
@@ -128,7 +129,7 @@ var BMSAuthorizationManager = function() {
     this.logout = function(success, failure) {
         var cbSuccess = callbackWrap.bind(this, success);
         var cbFailure = callbackWrap.bind(this, failure);
-        cordova.exec(cbSuccess, cbFailure, AuthorizationManagerString, "logout", []);
+        BMSBatch.execNow(cbSuccess, cbFailure, AuthorizationManagerString, "logout", []);
     };
 };
 
@@ -0,0 +1,146 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+var exec = require("cordova/exec");
+
+/**
+ * Coalesces the bridge calls made in the same tick into a single exec of the native BMSBatch endpoint (Android only).
+ * On other platforms, and for a single pending call, calls go straight through cordova.exec.
+ */
+var BMSBatch = (function () {
+    var pending = [];
+    var scheduled = false;
+    var enabled = true;
+
+    /**
+     * Actions whose native handlers answer on every path. The batch replies only once every call in it has answered,
+     * so any other action is sent on its own.
+     */
+    var BATCHABLE = {
+        BMSClient: ["initialize", "getBluemixAppRoute", "getBluemixAppGUID", "setMemoryBudgets", "getMemoryStatus"],
+        BMSRequest: ["setNetworkAnalytics", "setConcurrencyLimit", "getConcurrencyStats", "configureInterceptors",
+            "registerTemplate", "pauseStream", "resumeStream", "closeStream", "setTracing", "recordSpans"],
+        BMSLogger: ["storeLogs", "isStoringLogs", "getMaxLogStoreSize", "setMaxLogStoreSize", "getLogLevel", "setLogLevel",
+            "setSDKDebugLoggingEnabled", "isSDKDebugLoggingEnabled", "isUncaughtExceptionDetected",
+            "setAsyncLoggingEnabled", "getAsyncLoggingStats", "setSegmentedLogStoreEnabled", "getSegmentedLogStoreStats",
+            "getCrashFlushStats", "setCrashFlushBudget", "setLogUploadSchedule", "getLogUploadStatus",
+            "setUploadPolicy", "getUploadPolicyStatus", "setLogRateLimits", "getLogRateLimitStats"],
+        BMSAnalytics: ["enable", "disable", "isEnabled", "setAggregationInterval", "getPipelineStats",
+            "setUploadPolicy", "getUploadPolicyStatus", "setUserIdentity"]
+    };
+
+    var isBatchable = function (plugin, action) {
+        var actions = BATCHABLE[plugin];
+        return !!actions && actions.indexOf(action) >= 0;
+    };
+
+    var isSupported = function () {
+        return typeof cordova !== "undefined" && cordova.platformId === "android";
+    };
+
+    var flush = function () {
+        var calls = pending;
+        pending = [];
+        scheduled = false;
+
+        if (calls.length === 0) {
+            // Already sent by execNow() or flush()
+            return;
+        }
+        if (calls.length === 1) {
+            var call = calls[0];
+            cordova.exec(call.success, call.failure, call.plugin, call.action, call.args);
+            return;
+        }
+
+        run(calls, null, function (message) {
+            // The whole batch failed to reach native code, so every call fails with the same message
+            for (var i = 0; i < calls.length; i++) {
+                calls[i].failure && calls[i].failure(message);
+            }
+        });
+    };
+
+    /**
+     * Runs several calls in one bridge crossing
+     * @param calls Array of {plugin, action, args, success, failure}
+     * @param success (Optional) receives an Array of {status: "ok"|"error", result}, in call order
+     * @param failure (Optional)
+     */
+    var run = function (calls, success, failure) {
+        var request = [];
+        for (var i = 0; i < calls.length; i++) {
+            request.push({plugin: calls[i].plugin, action: calls[i].action, args: calls[i].args || []});
+        }
+
+        cordova.exec(function (results) {
+            for (var i = 0; i < results.length && i < calls.length; i++) {
+                var callback = results[i].status === "ok" ? calls[i].success : calls[i].failure;
+                callback && callback(results[i].result);
+            }
+            success && success(results);
+        }, failure, "BMSBatch", "execute", [request]);
+    };
+
+    return {
+        /**
+         * Same signature as cordova.exec. The call is queued and sent with the other calls made in the same tick,
+         * unless the action is not known to always answer, in which case it is sent immediately like execNow().
+         * Only the first result of an action that keeps its callback is delivered, so use execNow() for those.
+         */
+        exec: function (success, failure, plugin, action, args) {
+            if (!enabled || !isSupported()) {
+                cordova.exec(success, failure, plugin, action, args);
+                return;
+            }
+            if (!isBatchable(plugin, action)) {
+                // Keeps the order of the calls queued before this one
+                flush();
+                cordova.exec(success, failure, plugin, action, args);
+                return;
+            }
+            pending.push({plugin: plugin, action: action, args: args, success: success, failure: failure});
+            if (!scheduled) {
+                scheduled = true;
+                setTimeout(flush, 0);
+            }
+        },
+        /**
+         * Same signature as cordova.exec. Sends the queued calls first, so calls reach native code in the order they were made,
+         * then calls cordova.exec immediately. Use it for actions that keep their callback or must not wait for the end of the tick.
+         */
+        execNow: function (success, failure, plugin, action, args) {
+            flush();
+            cordova.exec(success, failure, plugin, action, args);
+        },
+        run: run,
+        /**
+         * Sends the queued calls now instead of at the end of the tick
+         */
+        flush: flush,
+        /**
+         * Enables or disables coalescing. When disabled, exec() calls cordova.exec immediately.
+         * @param {boolean} value
+         */
+        setEnabled: function (value) {
+            enabled = !!value;
+            if (!enabled) {
+                flush();
+            }
+        },
+        isEnabled: function () {
+            return enabled;
+        }
+    };
+})();
+
+module.exports = BMSBatch;
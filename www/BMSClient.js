@@ -11,6 +11,7 @@
     limitations under the License.
 */
 var exec = require("cordova/exec");
+var BMSBatch = require("./BMSBatch");
 
 var BMSClient = function() {
     var BMSClientString = "BMSClient";
@@ -42,7 +43,20 @@ var BMSClient = function() {
      * @param {string} bluemixRegion Specifies the region of the application
      */
     this.initialize = function(bluemixRegion) {
-        cordova.exec(success, failure, BMSClientString, "initialize", [bluemixRegion]);
+        BMSBatch.exec(success, failure, BMSClientString, "initialize", [bluemixRegion]);
+    };
+
+    /**
+     * Initializes the client, the authorization manager and analytics in parallel in a single native call (Android only).
+     * @param {Object} options - {region: String, tenantId: String, lazyAuthorization: Boolean,
+     * analytics: [applicationName, clientApiKey, hasUserContext, collectLocation, deviceEvents], lazyAnalytics: Boolean}.
+     * A component is skipped when its options are missing. Lazy components are initialized on their first use.
+     * @param {function} successCallback receives {totalMillis, components: {client, authorization, analytics}}
+     * where each component reports {status: "initialized"|"deferred"|"skipped"|"failed", durationMillis, error}
+     * @param {function} failureCallback
+     */
+    this.bootstrap = function(options, successCallback, failureCallback) {
+        BMSBatch.execNow(successCallback || success, failureCallback || failure, BMSClientString, "bootstrap", [options || {}]);
     };
 
     /**
@@ -55,17 +69,17 @@ var BMSClient = function() {
          var AuthenticationContext = {
 
                             submitAuthenticationChallengeAnswer: function(answer){
-                                cordova.exec(success, failure, AuthContextString, "submitAuthenticationChallengeAnswer", [answer, realm]);
+                                BMSBatch.execNow(success, failure, AuthContextString, "submitAuthenticationChallengeAnswer", [answer, realm]);
                             },
 
                             submitAuthenticationSuccess: function(){
                                 console.log("submitAuthenticationSuccess called");
-                                cordova.exec(success, failure,  AuthContextString, "submitAuthenticationSuccess", [realm]);
+                                BMSBatch.execNow(success, failure,  AuthContextString, "submitAuthenticationSuccess", [realm]);
                             },
 
                             submitAuthenticationFailure: function(info){
                                 console.log("submitAuthenticationFailure called");
-                                cordova.exec(success, failure,  AuthContextString, "submitAuthenticationFailure", [info, realm]);
+                                BMSBatch.execNow(success, failure,  AuthContextString, "submitAuthenticationFailure", [info, realm]);
                             }
          };
 
@@ -94,7 +108,7 @@ var BMSClient = function() {
         };
         // register an callback Handler function
         addCallbackHandler(realm, challengeHandler);
-        cordova.exec(success, failure, BMSClientString, "registerAuthenticationListener", [realm]);
+        BMSBatch.execNow(success, failure, BMSClientString, "registerAuthenticationListener", [realm]);
 
     };
 
@@ -103,7 +117,7 @@ var BMSClient = function() {
      * @param {string} realm Authentication realm
      */
     this.unregisterAuthenticationListener = function(realm) {
-        cordova.exec(success, failure, BMSClientString, "unregisterAuthenticationListener", [realm]);
+        BMSBatch.execNow(success, failure, BMSClientString, "unregisterAuthenticationListener", [realm]);
     };
 
     /**
@@ -111,7 +125,7 @@ var BMSClient = function() {
      * @return backendRoute
      */
     this.getBluemixAppRoute = function(callback) {
-        cordova.exec(callback, failure, BMSClientString, "getBluemixAppRoute", []);
+        BMSBatch.exec(callback, failure, BMSClientString, "getBluemixAppRoute", []);
     };
 
     /**
@@ -119,14 +133,33 @@ var BMSClient = function() {
      * @return backendGUID
      */
     this.getBluemixAppGUID = function(callback) {
-        cordova.exec(callback, failure, BMSClientString, "getBluemixAppGUID", []);
+        BMSBatch.exec(callback, failure, BMSClientString, "getBluemixAppGUID", []);
+    };
+
+    /**
+     * Sets how many bytes each native buffer keeps when the system asks the app to trim memory (Android only).
+     * A buffer keeps its whole budget on mild trim levels, half of it on RUNNING_LOW and MODERATE, and nothing on
+     * RUNNING_CRITICAL, COMPLETE and low memory. Trimmed log entries and analytics events are written to their stores.
+     * @param {object} budgets {analytics, logger, trace} in bytes, 262144 each by default
+     * @param {function} callback Optional success callback
+     */
+    this.setMemoryBudgets = function(budgets, callback) {
+        BMSBatch.exec(callback || success, failure, BMSClientString, "setMemoryBudgets", [{budgets: budgets || {}}]);
+    };
+
+    /**
+     * Reports the memory trims done so far (Android only)
+     * @param {function} callback Receives {trims, lastLevel, lastTrimTime, buffers: {name: {budget, retained, reclaimed}}}
+     */
+    this.getMemoryStatus = function(callback) {
+        BMSBatch.exec(callback, failure, BMSClientString, "getMemoryStatus", []);
     };
 
 
     var addCallbackHandler = function(realm, challengeHandler){
         var cdvsuccess =  callbackWrap.bind(this, challengeHandler);
         var cdvfailure = function() { console.log("Error: addCallbackHandler failed"); };
-        cordova.exec(cdvsuccess, cdvfailure, BMSClientString, "addCallbackHandler", [realm]);
+        BMSBatch.execNow(cdvsuccess, cdvfailure, BMSClientString, "addCallbackHandler", [realm]);
      };
 
      var callbackWrap = function (callback, action) {
@@ -11,6 +11,7 @@
     limitations under the License.
 */
 var exec = require("cordova/exec");
+var BMSBatch = require("./BMSBatch");
 
 var success = function(message) {
     console.log("BMSLogger: Success: " + message);
@@ -19,6 +20,145 @@ var failure = function(message) {
     console.log("BMSLogger: Failure: " + message);
 };
 
+/**
+ * Mirror of the native log level and SDK debug flag.
+ * Native code pushes both whenever they change, so messages below the threshold are dropped
+ * here instead of crossing the bridge. Until the first update arrives every message is sent.
+ */
+var LevelFilter = (function () {
+    // Same ordering as the native Logger.LEVEL values
+    var priorities = {
+        "ANALYTICS": 25,
+        "FATAL": 50,
+        "ERROR": 100,
+        "WARN": 200,
+        "INFO": 300,
+        "DEBUG": 500
+    };
+    var state = null;
+
+    var isLoggable = function (level, name) {
+        if (state === null) {
+            return true;
+        }
+        if (state.sdkDebugLoggingEnabled && state.internalPrefix && name.indexOf(state.internalPrefix) === 0) {
+            return true;
+        }
+        var threshold = priorities[state.level];
+        var priority = priorities[level.toUpperCase()];
+        if (threshold === undefined || priority === undefined) {
+            return true;
+        }
+        return priority <= threshold;
+    };
+
+    var update = function (levelInfo) {
+        if (levelInfo && typeof levelInfo === "object") {
+            state = levelInfo;
+        }
+    };
+
+    var setLevel = function (level) {
+        if (state !== null) {
+            state.level = level;
+        }
+    };
+
+    var setSDKDebugLoggingEnabled = function (enabled) {
+        if (state !== null) {
+            state.sdkDebugLoggingEnabled = enabled;
+        }
+    };
+
+    var subscribe = function () {
+        BMSBatch.execNow(update, failure, "BMSLogger", "subscribeLogLevel", []);
+    };
+
+    if (typeof document !== "undefined" && document.addEventListener) {
+        document.addEventListener("deviceready", subscribe, false);
+    }
+
+    return {
+        isLoggable: isLoggable,
+        setLevel: setLevel,
+        setSDKDebugLoggingEnabled: setSDKDebugLoggingEnabled
+    };
+})();
+
+/**
+ * Buffer for log messages that are sent to native code in batches through the "logBatch" action.
+ * The buffer is flushed when it reaches maxEntries, when flushInterval (ms) elapses after the
+ * first buffered message, and when the page is hidden or unloaded.
+ */
+var LogBuffer = (function () {
+    var entries = [];
+    var timer = null;
+    var options = {
+        enabled: true,
+        maxEntries: 50,
+        flushInterval: 1000
+    };
+
+    var flush = function () {
+        if (timer !== null) {
+            clearTimeout(timer);
+            timer = null;
+        }
+        if (entries.length === 0) {
+            return;
+        }
+        var batch = entries;
+        entries = [];
+        BMSBatch.execNow(success, failure, "BMSLogger", "logBatch", [batch]);
+    };
+
+    var add = function (level, name, message) {
+        if (!LevelFilter.isLoggable(level, name)) {
+            return;
+        }
+        if (!options.enabled) {
+            BMSBatch.execNow(success, failure, "BMSLogger", level, [name, message]);
+            return;
+        }
+        entries.push([level, name, message, Date.now()]);
+        if (entries.length >= options.maxEntries) {
+            flush();
+        } else if (timer === null) {
+            timer = setTimeout(flush, options.flushInterval);
+        }
+    };
+
+    var configure = function (newOptions) {
+        newOptions = newOptions || {};
+        if (typeof newOptions.enabled === "boolean") {
+            options.enabled = newOptions.enabled;
+        }
+        if (newOptions.maxEntries > 0) {
+            options.maxEntries = newOptions.maxEntries;
+        }
+        if (newOptions.flushInterval > 0) {
+            options.flushInterval = newOptions.flushInterval;
+        }
+        if (!options.enabled || entries.length >= options.maxEntries) {
+            flush();
+        }
+    };
+
+    if (typeof window !== "undefined" && window.addEventListener) {
+        window.addEventListener("pagehide", flush, false);
+        window.addEventListener("beforeunload", flush, false);
+    }
+    if (typeof document !== "undefined" && document.addEventListener) {
+        document.addEventListener("pause", flush, false);
+    }
+
+    return {
+        add: add,
+        flush: flush,
+        configure: configure
+    };
+})();
+
 /**
  *
  * @param name
@@ -34,35 +174,35 @@ Logger.prototype = function(){
      * @param message
      */
     var debug = function (message) {
-        cordova.exec(success, failure, "BMSLogger", "debug", [this.name, message]);
+        LogBuffer.add("debug", this.name, message);
     };
     /**
      *
      * @param message
      */
     var info = function (message) {
-        cordova.exec(success, failure, "BMSLogger", "info", [this.name, message]);
+        LogBuffer.add("info", this.name, message);
     };
     /**
      *
      * @param message
      */
     var error = function (message) {
-        cordova.exec(success, failure, "BMSLogger", "error", [this.name, message]);
+        LogBuffer.add("error", this.name, message);
     };
     /**
      *
      * @param message
      */
     var fatal = function (message) {
-        cordova.exec(success, failure, "BMSLogger", "fatal", [this.name, message]);
+        LogBuffer.add("fatal", this.name, message);
     };
     /**
      *
      * @param message
      */
     var warn = function (message) {
-        cordova.exec(success, failure, "BMSLogger", "warn", [this.name, message]);
+        LogBuffer.add("warn", this.name, message);
     };
     /**
      *
@@ -107,12 +247,159 @@ var BMSLogger = (function () {
             }
             return instances[name];
         },
+        /**
+         * Sends all buffered log messages to native code immediately.
+         */
+        flush : function () {
+            LogBuffer.flush();
+        },
+        /**
+         * Configures how log messages are batched before they are sent to native code.
+         * @param {Object} options - {enabled: Boolean, maxEntries: Integer, flushInterval: Integer (ms)}
+         */
+        setBatchOptions : function (options) {
+            LogBuffer.configure(options);
+        },
+        /**
+         * Enables or disables asynchronous logging (Android only). Messages are queued in a bounded buffer
+         * and written to the log store by a background thread.
+         * @param {Boolean} enabled
+         * @param {Object} options - {capacity: Integer, batchSize: Integer, overflowPolicy: "DROP_OLDEST" | "DROP_NEWEST" | "BLOCK"}
+         * @param success
+         * @param failure
+         */
+        setAsyncLoggingEnabled : function (enabled, options, successCallback, failureCallback) {
+            BMSBatch.exec(successCallback || success, failureCallback || failure, "BMSLogger", "setAsyncLoggingEnabled", [enabled, options || {}]);
+        },
+        /**
+         * Gets the asynchronous writer counters (Android only)
+         * @param success callback receives {enabled, capacity, queued, written, dropped, overflowPolicy}
+         * @param failure
+         */
+        getAsyncLoggingStats : function (success, failure) {
+            BMSBatch.exec(success , failure, "BMSLogger", "getAsyncLoggingStats", []);
+        },
+        /**
+         * Enables or disables the segmented log store (Android only). Messages are appended to fixed-size
+         * memory-mapped segment files that are rotated when full and sent as whole segments.
+         * @param {Boolean} enabled
+         * @param {Object} options - {segmentSize: Integer (bytes), maxSegments: Integer, uploadUrl: String}
+         * @param success
+         * @param failure
+         */
+        setSegmentedLogStoreEnabled : function (enabled, options, successCallback, failureCallback) {
+            BMSBatch.exec(successCallback || success, failureCallback || failure, "BMSLogger", "setSegmentedLogStoreEnabled", [enabled, options || {}]);
+        },
+        /**
+         * Gets the size of the segmented log store (Android only)
+         * @param success callback receives {enabled, segments, sealedSegments, storedBytes, segmentSize, maxSegments}
+         * @param failure
+         */
+        getSegmentedLogStoreStats : function (success, failure) {
+            BMSBatch.exec(success , failure, "BMSLogger", "getSegmentedLogStoreStats", []);
+        },
+        /**
+         * Seals the current segment and sends all sealed segments to the configured upload URL (Android only)
+         * @param success callback receives {sentSegments, sentBytes}
+         * @param failure
+         */
+        sendLogSegments : function (success, failure) {
+            LogBuffer.flush();
+            BMSBatch.execNow(success , failure, "BMSLogger", "sendLogSegments", []);
+        },
+        /**
+         * Gets the result of the last crash-time flush of native log and analytics buffers (Android only).
+         * The result is cleared once read, like isUncaughtExceptionDetected, so each crash is reported once.
+         * @param success callback receives {timestamp, saved, dropped, durationMillis}, or null if no crash was recorded since the last call
+         * @param failure
+         */
+        getCrashFlushStats : function (success, failure) {
+            BMSBatch.exec(success , failure, "BMSLogger", "getCrashFlushStats", []);
+        },
+        /**
+         * Sets the time budget for flushing native buffers when an uncaught exception occurs (Android only)
+         * @param {integer} budgetMillis
+         */
+        setCrashFlushBudget : function (budgetMillis) {
+            BMSBatch.exec(success , failure, "BMSLogger", "setCrashFlushBudget", [budgetMillis]);
+        },
+        /**
+         * Searches the segmented log store on the device (Android only).
+         * Results are paginated; pass the returned nextCursor as query.cursor to get the next page.
+         * @param {Object} query - {from: Integer (ms), to: Integer (ms), levels: [String], logger: String,
+         *                          contains: String, pageSize: Integer, cursor: String}
+         * @param success callback receives {entries: [{timestamp, level, pkg, msg}], nextCursor}
+         * @param failure
+         */
+        queryLogs : function (query, success, failure) {
+            LogBuffer.flush();
+            BMSBatch.execNow(success , failure, "BMSLogger", "queryLogs", [query || {}]);
+        },
+        /**
+         * Schedules native background uploads of the segmented log store (Android only).
+         * Uploads start when the store reaches thresholdBytes or its oldest entry is older than maxAge.
+         * Pass null to stop scheduled uploads.
+         * @param {Object} options - {thresholdBytes: Integer, maxAge: Integer (ms), checkInterval: Integer (ms),
+         *                            compress: Boolean, initialBackoff: Integer (ms), maxBackoff: Integer (ms)}
+         * @param success
+         * @param failure
+         */
+        setLogUploadSchedule : function (options, successCallback, failureCallback) {
+            BMSBatch.exec(successCallback || success, failureCallback || failure, "BMSLogger", "setLogUploadSchedule", [options || null]);
+        },
+        /**
+         * Gets the state of the scheduled uploads (Android only)
+         * @param success callback receives {scheduled, uploading, pendingBytes, consecutiveFailures, nextAttemptTime, lastUpload}
+         * @param failure
+         */
+        getLogUploadStatus : function (success, failure) {
+            BMSBatch.exec(success , failure, "BMSLogger", "getLogUploadStatus", []);
+        },
+        /**
+         * Defers send() to an unmetered network or to while the device is charging (Android only).
+         * Logger and analytics uploads and deferrable BMSRequests share the same policy and are released in the same
+         * radio wake, or alongside a foreground BMSRequest that is already using the radio.
+         * @param {Object} options - {enabled: Boolean, maxDeferral: Integer (ms), lowBatteryPercent: Integer}
+         * @param success
+         * @param failure
+         */
+        setUploadPolicy : function (options, successCallback, failureCallback) {
+            BMSBatch.exec(successCallback || success, failureCallback || failure, "BMSLogger", "setUploadPolicy", [options || {}]);
+        },
+        /**
+         * Gets the upload policy state (Android only)
+         * @param success callback receives {enabled, connected, unmetered, charging, batteryPercent, pending, deferredSince,
+         * deferred, released, windows, forcedWindows, piggybackedWindows, wakesAvoided}
+         * @param failure
+         */
+        getUploadPolicyStatus : function (success, failure) {
+            BMSBatch.exec(success , failure, "BMSLogger", "getUploadPolicyStatus", []);
+        },
+        /**
+         * Configures native rate limiting and sampling of log messages (Android only).
+         * Suppressed messages are counted and summarized in the log store every summaryInterval, at least 1 second. Pass null to disable.
+         * @param {Object} config - {ratePerSecond: Number, burst: Number, summaryInterval: Integer (ms),
+         *                           loggers: {name: {ratePerSecond, burst}}, sampling: {debug: 0.1, ...}}
+         * @param success
+         * @param failure
+         */
+        setLogRateLimits : function (config, successCallback, failureCallback) {
+            BMSBatch.exec(successCallback || success, failureCallback || failure, "BMSLogger", "setLogRateLimits", [config || null]);
+        },
+        /**
+         * Gets the number of messages suppressed by rate limiting and sampling (Android only)
+         * @param success callback receives {enabled, suppressed, loggers: {name: count}}
+         * @param failure
+         */
+        getLogRateLimitStats : function (success, failure) {
+            BMSBatch.exec(success , failure, "BMSLogger", "getLogRateLimitStats", []);
+        },
         /**
          * Gets the current setting for determining if log data should be saved persistently
          * @param {Boolean} enabled - Boolean used to indicate whether the log data must be saved persistently
          */
         storeLogs : function (enabled) {
-            cordova.exec(success, failure, "BMSLogger", "storeLogs", [enabled]);
+            BMSBatch.exec(success, failure, "BMSLogger", "storeLogs", [enabled]);
         },
         /**
          * Gets the current setting for the maximum storage size threshold
@@ -120,7 +407,7 @@ var BMSLogger = (function () {
          * @param failure
          */
         getMaxLogStoreSize : function (success, failure) {
-            cordova.exec(success , failure, "BMSLogger", "getMaxLogStoreSize", []);
+            BMSBatch.exec(success , failure, "BMSLogger", "getMaxLogStoreSize", []);
         },
         /**
          * Sets the maximum size of the local persistent storage for queuing log data.
@@ -128,28 +415,29 @@ var BMSLogger = (function () {
          * @param {integer} intSize
          */
         setMaxLogStoreSize : function (intSize) {
-            cordova.exec(success , failure, "BMSLogger", "setMaxLogStoreSize", [intSize]);
+            BMSBatch.exec(success , failure, "BMSLogger", "setMaxLogStoreSize", [intSize]);
         },
         /** Determines if logs are currently being store
          * @param success - single parameter receives Integer indicating the maximum storage size threshold
          * @param failure
          */
         isStoringLogs : function(success, failure){
-            cordova.exec(success , failure, "BMSLogger", "isStoringLogs", []);
+            BMSBatch.exec(success , failure, "BMSLogger", "isStoringLogs", []);
         },
         /**
          * Enable displaying all Bluemix Mobile Services SDK debug logs in Logcat. By default, no debug messages are displayed.
          * @param enabled Determines whether to display Bluemix Mobile Services SDK debug logs in Logcat.
          */
         setSDKDebugLoggingEnabled : function (enabled) {
-            cordova.exec(success, failure, "BMSLogger", "setSDKDebugLoggingEnabled", [enabled]);
+            LevelFilter.setSDKDebugLoggingEnabled(enabled);
+            BMSBatch.exec(success, failure, "BMSLogger", "setSDKDebugLoggingEnabled", [enabled]);
         },
         /** Check if displaying all Bluemix Mobile Services SDK debug logs in Logcat is enabled.
          * @param success - single parameter receives Integer indicating the maximum storage size threshold
          * @param failure
          */
         isSDKDebugLoggingEnabled : function (success, failure ) {
-            cordova.exec(success , failure, "BMSLogger", "isSDKDebugLoggingEnabled", []);
+            BMSBatch.exec(success , failure, "BMSLogger", "isSDKDebugLoggingEnabled", []);
         },
         /**
          * Gets the currently configured Log Level
@@ -157,7 +445,7 @@ var BMSLogger = (function () {
          * @param failure
          */
         getLogLevel : function (success, failure) {
-            cordova.exec(success , failure, "BMSLogger", "getLogLevel", []);
+            BMSBatch.exec(success , failure, "BMSLogger", "getLogLevel", []);
         },
         /**
          * Sets the level from which log messages must be saved and printed.
@@ -166,7 +454,8 @@ var BMSLogger = (function () {
          * @param { integer or symbolic level definde below} logLevel
          */
         setLogLevel : function (logLevel) {
-            cordova.exec(success , failure, "BMSLogger", "setLogLevel", [logLevel]);
+            LevelFilter.setLevel(logLevel);
+            BMSBatch.exec(success , failure, "BMSLogger", "setLogLevel", [logLevel]);
         },
         /**
          * Indicates that an uncaught exception was detected.
@@ -175,7 +464,7 @@ var BMSLogger = (function () {
          * @param failure
          */
         isUncaughtExceptionDetected : function (success, failure) {
-            cordova.exec(success , failure, "BMSLogger", "isUncaughtExceptionDetected", []);
+            BMSBatch.exec(success , failure, "BMSLogger", "isUncaughtExceptionDetected", []);
         },
         /**
          * Sends the log file when the log store exists and is not empty.
@@ -184,7 +473,8 @@ var BMSLogger = (function () {
          * @param failure callback
          */
         send : function (success, failure) {
-            cordova.exec(success , failure, "BMSLogger", "send", []);
+            LogBuffer.flush();
+            BMSBatch.execNow(success , failure, "BMSLogger", "send", []);
         }
     };
 })();
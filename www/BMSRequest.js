@@ -11,6 +11,7 @@
     limitations under the License.
 */
 var exec = require("cordova/exec");
+var BMSBatch = require("./BMSBatch");
 
 var BMSRequest = function (url, method, timeout) {    
     this._headers = {};
@@ -18,6 +19,11 @@ var BMSRequest = function (url, method, timeout) {
     this._url = url;
     this._method = method;
     this._timeout = timeout || 30000;
+    this._deferrable = false;
+    this._traceparent = null;
+    this._priority = "normal";
+    this._deadline = 0;
+    this._maxQueueAge = 0;
 };
 
 BMSRequest.GET = "GET";
@@ -28,6 +34,110 @@ BMSRequest.TRACE = "TRACE";
 BMSRequest.HEAD = "HEAD";
 BMSRequest.OPTIONS = "OPTIONS";
 
+/**
+ * Enables or disables native network analytics (Android only). When enabled, every request sent through
+ * BMSRequest records an event with host, path template, method, status, bytes, duration and outcome
+ * in the analytics pipeline. Outcome is "success", "failure" (HTTP error status), "error" (no response), "expired"
+ * (deadline passed before the request was sent) or "shed" (dropped by the concurrency limiter). Events are only
+ * recorded once BMSAnalytics is in use.
+ * @param options {enabled: Boolean, sampleRate: Number between 0 and 1}
+ * @param success
+ * @param failure
+ */
+BMSRequest.setNetworkAnalytics = function (options, success, failure) {
+    BMSBatch.execNow(success, failure, "BMSRequest", "setNetworkAnalytics", [options || {}]);
+};
+
+/**
+ * Configures the adaptive concurrency limiter (Android only). When enabled, in-flight requests are capped per host by a limit
+ * that follows the observed round trip time, and requests over the limit queue by priority or are shed when the queue is full.
+ * @param options {enabled: Boolean, initialLimit, minLimit, maxLimit, maxQueue, backoffRatio, rttTolerance}
+ * @param success
+ * @param failure
+ */
+BMSRequest.setConcurrencyLimit = function (options, success, failure) {
+    BMSBatch.exec(success, failure, "BMSRequest", "setConcurrencyLimit", [options || {}]);
+};
+
+/**
+ * Returns the current limit and queue statistics of the concurrency limiter (Android only)
+ * @param success receives {enabled, expired, dropped, hosts: {host: {limit, inFlight, queued, maxQueued, shortRttMillis,
+ *                longRttMillis, completed, overloaded, shed, expired, averageQueueMillis}}}. expired counts the requests
+ *                that failed because their deadline or maxQueueAge passed before they started, dropped the requests shed
+ *                from a full queue.
+ * @param failure
+ */
+BMSRequest.getConcurrencyStats = function (success, failure) {
+    BMSBatch.exec(success, failure, "BMSRequest", "getConcurrencyStats", []);
+};
+
+/**
+ * Configures the headers that native code adds to every request (Android only), so they are not sent across the bridge
+ * with each request. Static headers are set once; a header already set on a request keeps the request's value.
+ * The correlation id, app version and locale headers are computed natively for each request. An empty name turns one off.
+ * @param options {headers: {name: value}, correlationIdHeader: String, appVersionHeader: String, localeHeader: String}
+ * @param success
+ * @param failure
+ */
+BMSRequest.configureInterceptors = function (options, success, failure) {
+    BMSBatch.exec(success, failure, "BMSRequest", "configureInterceptors", [options || {}]);
+};
+
+BMSRequest._templates = {};
+
+/**
+ * Registers a request template in native code. Its URL may contain {name} path parameters. The URL and headers are parsed once,
+ * so each sendTemplate call carries and parses only its own parameters and body.
+ * @param name
+ * @param template {url, method, headers, queryParameters, timeout}
+ * @param success
+ * @param failure
+ */
+BMSRequest.registerTemplate = function (name, template, success, failure) {
+    var headers = template.headers || {};
+    BMSRequest._templates[name] = {hasContentType: "Content-Type" in headers};
+    BMSBatch.exec(success, failure, "BMSRequest", "registerTemplate", [name, template]);
+};
+
+/**
+ * Sends a request built from a registered template
+ * @param name
+ * @param params (Optional) {pathParams, query, headers, body: a string or an object, priority: "high"|"normal"|"low",
+ *               deferrable, traceparent, deadline, maxQueueAge}
+ * @param success The success callback, receives the response like BMSRequest.send
+ * @param failure The failure callback
+ */
+BMSRequest.sendTemplate = function (name, params, success, failure) {
+    var call = {};
+    params = params || {};
+    for (var key in params) {
+        if (params.hasOwnProperty(key)) {
+            call[key] = params[key];
+        }
+    }
+    if (typeof call.body === "object" && call.body !== null) {
+        call.body = JSON.stringify(call.body);
+        var template = BMSRequest._templates[name];
+        if (template && !template.hasContentType && !(call.headers && "Content-Type" in call.headers)) {
+            call.headers = JSON.parse(JSON.stringify(call.headers || {}));
+            call.headers["Content-Type"] = "application/json";
+        }
+    }
+
+    var parse = function (callback, jsonResponse) {
+        var response = jsonResponse;
+        try {
+            response = jsonResponse !== "" ? JSON.parse(jsonResponse) : "";
+        } catch (e) {
+            // Plain error messages, e.g. for an unknown template
+        }
+        callback && callback(response);
+    };
+    BMSBatch.execNow(parse.bind(null, success), parse.bind(null, failure), "BMSRequest", "sendTemplate", [name, call]);
+};
+
+BMSRequest._streamSequence = 0;
+
 BMSRequest.prototype = function () {
 
     /**
@@ -89,6 +199,91 @@ BMSRequest.prototype = function () {
         this._queryParameters = JSON.parse(JSON.stringify(jsonObj));
     };
 
+    /**
+     * Mark this request as background traffic that may be deferred and batched with other transfers
+     * according to the upload policy (Android only)
+     * @param deferrable
+     */
+    var setDeferrable = function (deferrable) {
+        this._deferrable = !!deferrable;
+    };
+
+    /**
+     * Return whether this request may be deferred
+     * @returns {boolean}
+     */
+    var isDeferrable = function () {
+        return this._deferrable;
+    };
+
+    /**
+     * Set the priority used by the concurrency limiter to order queued requests and to pick the request to shed (Android only)
+     * @param priority "high", "normal" or "low"
+     */
+    var setPriority = function (priority) {
+        this._priority = priority || "normal";
+    };
+
+    /**
+     * Return the priority of this request
+     * @returns {string}
+     */
+    var getPriority = function () {
+        return this._priority;
+    };
+
+    /**
+     * Set the time by which this request must complete, as a Date.now() value (Android only).
+     * A request that cannot start before the deadline fails without being sent, and the timeout of a request
+     * that starts is shortened to the time left. Pass 0 to remove the deadline.
+     * @param deadline Milliseconds since the epoch
+     */
+    var setDeadline = function (deadline) {
+        this._deadline = deadline || 0;
+    };
+
+    /**
+     * Return the deadline of this request, 0 if it has none
+     * @returns {number}
+     */
+    var getDeadline = function () {
+        return this._deadline;
+    };
+
+    /**
+     * Set how long this request may wait in native queues before it starts (Android only).
+     * A request still queued after maxQueueAge fails without being sent. Pass 0 to wait indefinitely.
+     * @param maxQueueAge Milliseconds
+     */
+    var setMaxQueueAge = function (maxQueueAge) {
+        this._maxQueueAge = maxQueueAge || 0;
+    };
+
+    /**
+     * Return the maximum queue age of this request, 0 if it has none
+     * @returns {number}
+     */
+    var getMaxQueueAge = function () {
+        return this._maxQueueAge;
+    };
+
+    /**
+     * Set the W3C traceparent of the span that sends this request, usually span.traceparent() from BMSTracer (Android only).
+     * The native layer records its spans as children of that span and adds a traceparent header to the request.
+     * @param traceparent The traceparent, or null to stop tracing this request
+     */
+    var setTraceParent = function (traceparent) {
+        this._traceparent = traceparent || null;
+    };
+
+    /**
+     * Return the traceparent of this request
+     * @returns {null, string}
+     */
+    var getTraceParent = function () {
+        return this._traceparent;
+    };
+
     /**
      * Send this resource request asynchronously.
      * @param body (Optional) The body: Either a string or an object
@@ -103,17 +298,73 @@ BMSRequest.prototype = function () {
             var cbSuccess = callbackWrap.bind(this, arguments[0]);
             var cbFailure = callbackWrap.bind(this, arguments[1]);
 
-            cordova.exec(cbSuccess, cbFailure, "BMSRequest", "send", [buildRequest()]);
+            BMSBatch.execNow(cbSuccess, cbFailure, "BMSRequest", "send", [buildRequest()]);
         } else if(arguments.length >= 3) {
             // Non-empty Body 
             if(typeof arguments[0] == "string" || typeof arguments[0] == "object") {
                 var cbSuccess = callbackWrap.bind(this, arguments[1]);
                 var cbFailure = callbackWrap.bind(this, arguments[2]);
-                cordova.exec(cbSuccess, cbFailure, "BMSRequest", "send", [buildRequest(arguments[0])]);
+                BMSBatch.execNow(cbSuccess, cbFailure, "BMSRequest", "send", [buildRequest(arguments[0])]);
             }
         }
     };
 
+    /**
+     * Open this request as a long-lived stream of Server-Sent Events or newline-delimited JSON (Android only).
+     * Events are read incrementally and delivered as they arrive. A dropped connection is reopened with the Last-Event-ID header.
+     * While the stream is paused the native buffer fills up and then the connection stops being read.
+     * @param options (Optional) {format: "sse" or "ndjson", body, bufferSize, retry, reconnect, idleTimeout, lastEventId,
+     *                onOpen: function(status), onClose: function()}
+     * @param onEvent Called with each event {id, event, data}
+     * @param onError (Optional) Called with {message, reconnectIn}, reconnectIn is -1 when the stream will not reconnect
+     * @returns {id, pause(), resume(), close()}
+     */
+    var stream = function (options, onEvent, onError) {
+        options = options || {};
+        var streamId = "stream-" + (++BMSRequest._streamSequence);
+        var request = buildJSONRequest.call(this, options.body);
+        request.stream = {
+            format: options.format || "sse",
+            bufferSize: options.bufferSize,
+            retry: options.retry,
+            reconnect: options.reconnect !== false,
+            idleTimeout: options.idleTimeout,
+            lastEventId: options.lastEventId
+        };
+
+        var onFrame = function (frame) {
+            if (frame.type === "events") {
+                for (var i = 0; i < frame.events.length; i++) {
+                    onEvent && onEvent(frame.events[i]);
+                }
+            } else if (frame.type === "open") {
+                options.onOpen && options.onOpen(frame.status);
+            } else if (frame.type === "error") {
+                onError && onError({message: frame.message, reconnectIn: frame.reconnectIn});
+            } else if (frame.type === "closed") {
+                options.onClose && options.onClose();
+            }
+        };
+        var onFailure = function (message) {
+            onError && onError({message: message, reconnectIn: -1});
+        };
+
+        BMSBatch.execNow(onFrame, onFailure, "BMSRequest", "stream", [streamId, request]);
+
+        return {
+            id: streamId,
+            pause: function () {
+                BMSBatch.exec(null, null, "BMSRequest", "pauseStream", [streamId]);
+            },
+            resume: function () {
+                BMSBatch.exec(null, null, "BMSRequest", "resumeStream", [streamId]);
+            },
+            close: function () {
+                BMSBatch.exec(null, null, "BMSRequest", "closeStream", [streamId]);
+            }
+        };
+    };
+
     /**
      *
      * @param callback The Success or Failure callback
@@ -136,6 +387,21 @@ BMSRequest.prototype = function () {
         request.timeout = this.getTimeout();
         request.queryParameters = this.getQueryParameters();
         request.body = "";
+        if (this._deferrable) {
+            request.deferrable = true;
+        }
+        if (this._traceparent) {
+            request.traceparent = this._traceparent;
+        }
+        if (this._priority !== "normal") {
+            request.priority = this._priority;
+        }
+        if (this._deadline > 0) {
+            request.deadline = this._deadline;
+        }
+        if (this._maxQueueAge > 0) {
+            request.maxQueueAge = this._maxQueueAge;
+        }
 
         if (typeof body === "string") {
             request.body = body;
@@ -159,7 +425,18 @@ BMSRequest.prototype = function () {
         getTimeout: getTimeout,
         setQueryParameters: setQueryParameters,
         getQueryParameters: getQueryParameters,
-        send: send
+        setDeferrable: setDeferrable,
+        isDeferrable: isDeferrable,
+        setPriority: setPriority,
+        getPriority: getPriority,
+        setDeadline: setDeadline,
+        getDeadline: getDeadline,
+        setMaxQueueAge: setMaxQueueAge,
+        getMaxQueueAge: getMaxQueueAge,
+        setTraceParent: setTraceParent,
+        getTraceParent: getTraceParent,
+        send: send,
+        stream: stream
     }
 }();
 
@@ -0,0 +1,184 @@
+/*
+    Copyright 2016 IBM Corp.
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+var exec = require("cordova/exec");
+var BMSBatch = require("./BMSBatch");
+
+/**
+ * W3C trace context spans for the Javascript layer (Android only). Pass span.traceparent() to BMSRequest.setTraceParent()
+ * and the native layer records the request, queue, network and marshalling spans as children of that span.
+ * Ended spans are sent to the native span buffer, which can be exported to a file or flushed to the Logger store.
+ */
+var BMSTracer = (function () {
+    var MAX_PENDING = 64;
+
+    var enabled = false;
+    var sampleRate = 1.0;
+    var pending = [];
+    var scheduled = false;
+
+    var isSupported = function () {
+        return typeof cordova !== "undefined" && cordova.platformId === "android";
+    };
+
+    var randomHex = function (bytes) {
+        var id = "";
+        for (var i = 0; i < bytes; i++) {
+            var value = Math.floor(Math.random() * 256);
+            id += (value < 16 ? "0" : "") + value.toString(16);
+        }
+        return id;
+    };
+
+    var flush = function () {
+        var spans = pending;
+        pending = [];
+        scheduled = false;
+        if (spans.length > 0) {
+            BMSBatch.exec(null, null, "BMSRequest", "recordSpans", [spans]);
+        }
+    };
+
+    var record = function (span) {
+        if (!isSupported()) {
+            return;
+        }
+        pending.push(span);
+        if (pending.length >= MAX_PENDING) {
+            flush();
+        } else if (!scheduled) {
+            scheduled = true;
+            setTimeout(flush, 0);
+        }
+    };
+
+    /**
+     * Returned by startSpan() when tracing is disabled or the trace was not sampled. It does nothing and has no traceparent.
+     */
+    var noopSpan = {
+        traceId: null,
+        spanId: null,
+        traceparent: function () {
+            return null;
+        },
+        setAttribute: function () {
+            return noopSpan;
+        },
+        startChild: function () {
+            return noopSpan;
+        },
+        end: function () {
+        }
+    };
+
+    var Span = function (name, traceId, parentSpanId) {
+        this.traceId = traceId;
+        this.spanId = randomHex(8);
+        this.parentSpanId = parentSpanId || null;
+        this.name = name;
+        this.startTime = Date.now();
+        this.attributes = {};
+        this._ended = false;
+    };
+
+    Span.prototype = {
+        /**
+         * @returns {string} The W3C traceparent header value with this span as the parent
+         */
+        traceparent: function () {
+            return "00-" + this.traceId + "-" + this.spanId + "-01";
+        },
+        setAttribute: function (key, value) {
+            this.attributes[key] = value;
+            return this;
+        },
+        startChild: function (name) {
+            return new Span(name, this.traceId, this.spanId);
+        },
+        /**
+         * Ends the span and queues it for the native span buffer. Later calls are ignored.
+         */
+        end: function () {
+            if (this._ended) {
+                return;
+            }
+            this._ended = true;
+            record({
+                traceId: this.traceId,
+                spanId: this.spanId,
+                parentSpanId: this.parentSpanId,
+                name: this.name,
+                startTime: this.startTime,
+                durationMicros: (Date.now() - this.startTime) * 1000,
+                attributes: this.attributes
+            });
+        }
+    };
+
+    return {
+        /**
+         * Configures tracing in the Javascript and native layers
+         * @param options {enabled: Boolean, sampleRate: Number between 0 and 1, capacity: Number of spans kept natively}
+         * @param success
+         * @param failure
+         */
+        configure: function (options, success, failure) {
+            options = options || {};
+            if (typeof options.enabled === "boolean") {
+                enabled = options.enabled;
+            }
+            if (typeof options.sampleRate === "number") {
+                sampleRate = Math.max(0, Math.min(1, options.sampleRate));
+            }
+            BMSBatch.exec(success, failure, "BMSRequest", "setTracing", [options]);
+        },
+        isEnabled: function () {
+            return enabled;
+        },
+        /**
+         * Starts a span. A root span is sampled according to sampleRate, a child span follows its parent.
+         * @param name
+         * @param parent (Optional) The parent span
+         * @returns The span, with traceparent(), setAttribute(key, value), startChild(name) and end()
+         */
+        startSpan: function (name, parent) {
+            if (parent && parent !== noopSpan) {
+                return parent.startChild(name);
+            }
+            if (!enabled || Math.random() >= sampleRate) {
+                return noopSpan;
+            }
+            return new Span(name, randomHex(16), null);
+        },
+        /**
+         * Exports the native span buffer as a JSON array
+         * @param options (Optional) {fileName: written to the application files directory, clear: Boolean}
+         * @param success receives {count, dropped, path} when a file was written, or {count, dropped, spans}
+         * @param failure
+         */
+        exportSpans: function (options, success, failure) {
+            flush();
+            BMSBatch.execNow(success, failure, "BMSRequest", "exportSpans", [options || {}]);
+        },
+        /**
+         * Writes the native span buffer to the Logger store under the "bms.trace" logger and clears it
+         * @param success receives the number of spans written
+         * @param failure
+         */
+        flushToLogger: function (success, failure) {
+            flush();
+            BMSBatch.execNow(success, failure, "BMSRequest", "flushSpansToLogger", []);
+        }
+    };
+})();
+
+module.exports = BMSTracer;